@@ -0,0 +1,82 @@
+package org.example.data;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work done for one chat message between the WebSocket frame and the database, with the message passed as a string
+ * (as it used to be) and as {@link Data} with {@link DataCodec}. Compare {@code gc.alloc.rate.norm} (-prof gc).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataCodecBenchmark {
+
+    private final DataCodec codec = new DataCodec();
+    private String frame;
+    private Data data;
+
+    @Setup
+    public void setUp() {
+        frame = new JsonObject()
+                .put("address", "bob")
+                .put("text", "Hi Bob, are we still meeting at the usual place tomorrow?")
+                .encode();
+        data = Data.decode(frame);
+    }
+
+    @Benchmark
+    public void stringMessage(Blackhole blackhole) {
+        // Router: decode to find the recipient, then log
+        final Data routed = Json.decodeValue(frame, Data.class);
+        blackhole.consume(Json.encodePrettily(routed));
+        // Sockets: the frame is written as is
+        blackhole.consume(frame);
+        // Database: parse again to insert
+        blackhole.consume(new JsonObject(frame));
+    }
+
+    @Benchmark
+    public void typedMessage(Blackhole blackhole) {
+        // WebSocket verticle: decode once
+        final Data decoded = Data.decode(frame);
+        // Router: passed by reference, then log
+        final Data routed = codec.transform(decoded);
+        blackhole.consume(routed.toString());
+        // Sockets: encoded once for all of them
+        blackhole.consume(routed.encode());
+        // Database
+        blackhole.consume(routed.toJson());
+    }
+
+    @Benchmark
+    public Data wireRoundTrip() {
+        final Buffer buffer = Buffer.buffer();
+        codec.encodeToWire(buffer, data);
+        return codec.decodeFromWire(0, buffer);
+    }
+
+    @Benchmark
+    public JsonObject jsonWireRoundTrip() {
+        // What a clustered event bus does with a message sent as a string and parsed by the receiver
+        final Buffer buffer = Buffer.buffer(frame);
+        return new JsonObject(buffer.toString());
+    }
+}
@@ -0,0 +1,96 @@
+package org.example.search;
+
+import io.vertx.core.json.JsonObject;
+import org.example.data.Data;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches of one shard holding all the messages, in sample mode for the latency percentiles. Words are drawn with a
+ * Zipf-like distribution, so the first ones are in most messages and the last ones in a few.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class SearchIndexBenchmark {
+
+    private static final int WORDS = 50_000;
+    private static final int WORDS_PER_MESSAGE = 12;
+    private static final int ADDRESSES = 10_000;
+    private static final int LIMIT = 20;
+
+    @Param({"1000000"})
+    public int messages;
+
+    private SearchIndex index;
+
+    @Setup
+    public void setUp() {
+        index = new SearchIndex(1);
+        final Random random = new Random(42);
+        final List<Data> batch = new ArrayList<>();
+        for (int i = 1; i <= messages; i++) {
+            final StringBuilder text = new StringBuilder();
+            for (int j = 0; j < WORDS_PER_MESSAGE; j++) {
+                text.append("w").append(zipf(random)).append(' ');
+            }
+            batch.add(Data.fromJson(new JsonObject()
+                    .put("id", i)
+                    .put("address", "user" + random.nextInt(ADDRESSES))
+                    .put("text", text.toString())));
+            if (batch.size() == 1000) {
+                index.add(0, batch);
+                batch.clear();
+            }
+        }
+        index.add(0, batch);
+    }
+
+    @Benchmark
+    public List<Data> commonWord() {
+        return search("w1", null);
+    }
+
+    @Benchmark
+    public List<Data> commonAndRareWord() {
+        return search("w1 w20000", null);
+    }
+
+    @Benchmark
+    public List<Data> twoUncommonWords() {
+        // Rarely together, so most of the shorter list is probed
+        return search("w500 w700", null);
+    }
+
+    @Benchmark
+    public List<Data> wordWithinAddress() {
+        return search("w10", "user42");
+    }
+
+    private List<Data> search(String query, String address) {
+        final Collection<String> terms = SearchIndex.terms(query, address);
+        return index.search(0, terms, LIMIT);
+    }
+
+    private static int zipf(Random random) {
+        return (int) Math.pow(WORDS, random.nextDouble());
+    }
+}
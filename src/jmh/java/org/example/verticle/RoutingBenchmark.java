@@ -0,0 +1,99 @@
+package org.example.verticle;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.EventBus;
+import org.example.data.Data;
+import org.example.data.DataCodec;
+import org.example.metrics.Metrics;
+import org.example.verticle.util.LocalPresence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_SAVE;
+import static org.example.verticle.util.Addresses.HISTORY_CACHE_PUT;
+import static org.example.verticle.util.Addresses.ROUTER;
+import static org.example.verticle.util.Headers.ORIGIN;
+import static org.example.verticle.util.Headers.RECEIVED_AT;
+
+/**
+ * A WebSocket frame decoded and dispatched to the router, which publishes it to the recipient's address. The
+ * benchmark thread plays the WebSocket verticle and waits until every message of a batch reached the recipient, so
+ * the event-loop hops are included and the queues stay bounded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+    private static final int BATCH = 100;
+
+    private final Semaphore delivered = new Semaphore(0);
+    private Vertx vertx;
+    private EventBus eventBus;
+    private String frame;
+
+    @Setup
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        eventBus = vertx.eventBus();
+        DataCodec.register(vertx);
+        eventBus.localConsumer("/token/bob", message -> delivered.release());
+        new LocalPresence(vertx).register("/token/bob");
+        eventBus.localConsumer(HISTORY_CACHE_PUT, message -> {
+        });
+        eventBus.localConsumer(DATABASE_MESSAGE_SAVE, message -> {
+        });
+
+        final CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(new RouterVerticle(), asyncResult -> {
+            if (asyncResult.succeeded()) {
+                deployed.complete(asyncResult.result());
+            } else {
+                deployed.completeExceptionally(asyncResult.cause());
+            }
+        });
+        deployed.get(10, TimeUnit.SECONDS);
+
+        frame = "{\"address\":\"bob\",\"text\":\"Hi Bob, are we still meeting at the usual place tomorrow?\"}";
+    }
+
+    @TearDown
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Benchmark
+    public Data decodeFrame() {
+        return Data.decode(frame);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void frameToRecipient() throws InterruptedException {
+        for (int i = 0; i < BATCH; i++) {
+            final Data data = Data.decode(frame);
+            eventBus.send(ROUTER, data, new DeliveryOptions()
+                    .addHeader(ORIGIN, "benchmark")
+                    .addHeader(RECEIVED_AT, Metrics.timestamp()));
+        }
+        delivered.acquire(BATCH);
+    }
+}
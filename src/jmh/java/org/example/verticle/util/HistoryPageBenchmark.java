@@ -0,0 +1,78 @@
+package org.example.verticle.util;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.example.data.Data;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON work for one page of history: the chunk sent over the event bus, its NDJSON rendering by the REST verticle and
+ * the page loaded into the history cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryPageBenchmark {
+
+    @Param({"50", "500"})
+    public int pageSize;
+
+    private JsonArray page;
+    private String encodedChunk;
+
+    @Setup
+    public void setUp() {
+        page = new JsonArray();
+        for (int i = 0; i < pageSize; i++) {
+            page.add(new JsonObject()
+                    .put("_id", String.format("5dd2b0a4c1f0a13d2c%06x", i))
+                    .put("address", "bob")
+                    .put("text", "Message number " + i + " of the conversation, of a fairly usual length"));
+        }
+        encodedChunk = ChunkedStreams.chunk(page, false).encode();
+    }
+
+    @Benchmark
+    public String encodeChunk() {
+        // Only on a clustered event bus, locally the JsonObject is copied instead
+        return ChunkedStreams.chunk(page, false).encode();
+    }
+
+    @Benchmark
+    public JsonObject decodeChunk() {
+        return new JsonObject(encodedChunk);
+    }
+
+    @Benchmark
+    public Buffer toNdjson() {
+        return ChunkedStreams.toNdjson(page);
+    }
+
+    @Benchmark
+    public List<Data> toData() {
+        // HistoryCacheVerticle loading recent messages
+        final List<Data> messages = new ArrayList<>(page.size());
+        for (Object stored : page) {
+            messages.add(Data.fromJson((JsonObject) stored));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.verticle.util;
+
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of event-bus replies. Error replies carry the whole stack trace as text, which is what a failing Mongo
+ * call costs on top of the failure itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplyMessagesBenchmark {
+
+    private JsonObject result;
+    private Throwable cause;
+
+    @Setup
+    public void setUp() {
+        result = new JsonObject()
+                .put("_id", "5dd2b0a4c1f0a13d2c9e4f11")
+                .put("fileName", "image.jpg")
+                .put("contentType", "image/jpeg")
+                .put("size", 19656);
+        cause = deepCause(40);
+    }
+
+    @Benchmark
+    public JsonObject success() {
+        return ReplyMessages.success(result);
+    }
+
+    @Benchmark
+    public JsonObject errorMessage() {
+        return ReplyMessages.error("Message queue is full");
+    }
+
+    @Benchmark
+    public JsonObject errorThrowable() {
+        return ReplyMessages.error(cause);
+    }
+
+    @Benchmark
+    public String errorThrowableResponse() {
+        // What the REST verticle sends back for a failed request
+        return ReplyMessages.error(cause).encodePrettily();
+    }
+
+    private static Throwable deepCause(int depth) {
+        // A stack about as deep as a failure reported from the Mongo driver through Netty and Vert.x
+        if (depth == 0) {
+            return new IllegalStateException("Timed out after 30000 ms while waiting for a server");
+        }
+        return deepCause(depth - 1);
+    }
+}
@@ -0,0 +1,113 @@
+package org.example.loadtest;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.example.cache.RingBuffer;
+import org.example.data.Data;
+import org.example.data.DataCodec;
+import org.example.verticle.util.ChunkedStreams;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.example.verticle.util.Addresses.DATABASE_IMAGE_GET;
+import static org.example.verticle.util.Addresses.DATABASE_IMAGE_LIST;
+import static org.example.verticle.util.Addresses.DATABASE_IMAGE_SAVE;
+import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_GET_RECENT;
+import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_SAVE;
+import static org.example.verticle.util.Addresses.GET_HISTORY;
+import static org.example.verticle.util.ChunkedStreams.STREAM_ADDRESS;
+import static org.example.verticle.util.ReplyMessages.error;
+import static org.example.verticle.util.ReplyMessages.success;
+
+/**
+ * Stands in for {@code StorageVerticle} on the same event-bus addresses, keeping the last messages of every address
+ * and the image metadata in memory. Must be deployed as a single instance.
+ */
+public class InMemoryDatabaseVerticle extends AbstractVerticle {
+
+    private static final int DEFAULT_MESSAGES_PER_ADDRESS = 1000;
+
+    private final Map<String, RingBuffer<JsonObject>> messages = new HashMap<>();
+    private final TreeMap<String, JsonObject> images = new TreeMap<>();
+    private int messagesPerAddress;
+    private long nextImageId;
+
+    @Override
+    public void start() {
+        messagesPerAddress = config().getInteger("messagesPerAddress", DEFAULT_MESSAGES_PER_ADDRESS);
+        DataCodec.register(vertx);
+        vertx.eventBus().consumer(DATABASE_MESSAGE_SAVE, this::saveMessage);
+        vertx.eventBus().consumer(DATABASE_MESSAGE_GET_RECENT, this::getRecentMessages);
+        vertx.eventBus().consumer(GET_HISTORY, this::getHistory);
+        vertx.eventBus().consumer(DATABASE_IMAGE_SAVE, this::saveImage);
+        vertx.eventBus().consumer(DATABASE_IMAGE_GET, this::getImageById);
+        vertx.eventBus().consumer(DATABASE_IMAGE_LIST, this::listImages);
+    }
+
+    private void saveMessage(Message<Data> message) {
+        final Data data = message.body();
+        messages.computeIfAbsent(data.getAddress(), ignored -> new RingBuffer<>(messagesPerAddress))
+                .add(data.toJson());
+        message.reply(success(null));
+    }
+
+    private void getRecentMessages(Message<JsonObject> message) {
+        final RingBuffer<JsonObject> stored = messages.get(message.body().getString("address"));
+        final List<JsonObject> recent = stored == null ? new ArrayList<>() : stored.toList();
+        final int limit = message.body().getInteger("limit", recent.size());
+        message.reply(success(new JsonObject()
+                .put("messages", recent.subList(Math.max(recent.size() - limit, 0), recent.size()))));
+    }
+
+    private void getHistory(Message<JsonObject> message) {
+        final String streamAddress = message.body().getString(STREAM_ADDRESS);
+        if (streamAddress == null) {
+            message.reply(error("Missing required parameter: " + STREAM_ADDRESS));
+            return;
+        }
+        message.reply("ack");
+        final JsonArray all = new JsonArray();
+        messages.values().forEach(stored -> stored.toList().forEach(all::add));
+        vertx.eventBus().send(streamAddress, ChunkedStreams.chunk(all, true));
+    }
+
+    private void saveImage(Message<JsonObject> message) {
+        final JsonObject image = message.body().copy().put("_id", String.format("%024x", nextImageId++));
+        images.put(image.getString("_id"), image);
+        message.reply(success(image));
+    }
+
+    private void getImageById(Message<String> message) {
+        message.reply(success(images.get(message.body())));
+    }
+
+    private void listImages(Message<JsonObject> message) {
+        final String after = message.body().getString("after");
+        final int limit = message.body().getInteger("limit", 100);
+        final List<JsonObject> page = new ArrayList<>();
+        for (JsonObject image : (after == null ? images : images.tailMap(after, false)).values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(new JsonObject()
+                    .put("_id", image.getString("_id"))
+                    .put("fileName", image.getString("fileName"))
+                    .put("contentType", image.getString("contentType"))
+                    .put("size", image.getValue("size")));
+        }
+        final String streamAddress = message.body().getString(STREAM_ADDRESS);
+        if (streamAddress != null) {
+            message.reply("ack");
+            vertx.eventBus().send(streamAddress, ChunkedStreams.chunk(new JsonArray(page), true));
+            return;
+        }
+        final String next = page.size() < limit ? null : page.get(page.size() - 1).getString("_id");
+        message.reply(success(new JsonObject().put("images", page).put("next", next)));
+    }
+}
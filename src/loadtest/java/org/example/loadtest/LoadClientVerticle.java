@@ -0,0 +1,118 @@
+package org.example.loadtest;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Promise;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.WebSocket;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One event loop worth of load: connects its share of the sockets, then sends its share of the messages from random
+ * sockets to random recipients and records the latency of the messages its sockets receive.
+ */
+public class LoadClientVerticle extends AbstractVerticle {
+
+    static final Recorder latencies = new Recorder(TimeUnit.SECONDS.toMicros(60), 3);
+    static final LongAdder sent = new LongAdder();
+    static final LongAdder received = new LongAdder();
+
+    private static final int CONNECT_CONCURRENCY = 20;
+    private static final long TICK = 10;
+
+    private final List<WebSocket> sockets = new ArrayList<>();
+    private HttpClient client;
+    private String host;
+    private int port;
+    private int tokens;
+    private int recipients;
+    private int connections;
+    private int nextToken;
+    private long timerId = -1;
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        host = config().getString("host");
+        port = config().getInteger("port");
+        tokens = config().getInteger("tokens");
+        recipients = config().getInteger("recipients");
+        connections = config().getInteger("connections");
+        nextToken = config().getInteger("firstConnection");
+        client = vertx.createHttpClient(new HttpClientOptions().setMaxPoolSize(Math.max(connections, 1)));
+
+        if (connections == 0) {
+            startPromise.complete();
+            return;
+        }
+        final int last = nextToken + connections;
+        for (int i = 0; i < Math.min(CONNECT_CONCURRENCY, connections); i++) {
+            connectNext(last, startPromise);
+        }
+        vertx.eventBus().<Double>localConsumer(LoadTest.START, message -> startSending(message.body()));
+    }
+
+    @Override
+    public void stop() {
+        if (timerId >= 0) {
+            vertx.cancelTimer(timerId);
+        }
+    }
+
+    private void connectNext(int last, Promise<Void> connected) {
+        if (nextToken == last) {
+            return;
+        }
+        final String token = "load-" + (nextToken++ % tokens);
+        client.websocket(port, host, "/token/" + token, socket -> {
+            socket.textMessageHandler(this::receive);
+            sockets.add(socket);
+            if (sockets.size() == connections) {
+                connected.tryComplete();
+            } else {
+                connectNext(last, connected);
+            }
+        }, connected::tryFail);
+    }
+
+    private void startSending(double ratePerSecond) {
+        final double perTick = ratePerSecond * TICK / 1000.0;
+        final double[] due = {0};
+        timerId = vertx.setPeriodic(TICK, ignored -> {
+            due[0] += perTick;
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (; due[0] >= 1; due[0]--) {
+                final String message = new JsonObject()
+                        .put("address", "load-" + random.nextInt(recipients))
+                        .put("text", Long.toString(System.nanoTime()))
+                        .encode();
+                sockets.get(random.nextInt(sockets.size())).writeFinalTextFrame(message);
+                sent.increment();
+            }
+        });
+    }
+
+    private void receive(String frame) {
+        final long now = System.nanoTime();
+        // A frame holds either one message or a batch of them
+        if (frame.startsWith("[")) {
+            for (Object message : new JsonArray(frame)) {
+                record(now, ((JsonObject) message).getString("text"));
+            }
+        } else {
+            record(now, new JsonObject(frame).getString("text"));
+        }
+    }
+
+    private static void record(long now, String text) {
+        received.increment();
+        latencies.recordValue(Math.max(TimeUnit.NANOSECONDS.toMicros(now - Long.parseLong(text)), 0));
+    }
+}
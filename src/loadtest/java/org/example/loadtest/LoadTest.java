@@ -0,0 +1,144 @@
+package org.example.loadtest;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.HdrHistogram.Histogram;
+import org.example.verticle.HistoryCacheVerticle;
+import org.example.verticle.RouterVerticle;
+import org.example.verticle.WsServerVerticle;
+import org.example.verticle.util.Futures;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens {@code connections} WebSockets and sends {@code rate} messages per second between them for
+ * {@code duration} seconds after {@code warmup} seconds, recording the latency from send to receive.
+ * <p>
+ * Every token has {@code fanOut} sockets, so each message is delivered {@code fanOut} times. Messages go to one of the
+ * first {@code tokens / fanIn} tokens, so each recipient gets messages from about {@code fanIn} senders. Without
+ * {@code host} the server runs in the same process with {@link InMemoryDatabaseVerticle} instead of MongoDB.
+ * <p>
+ * Options are passed as {@code --name=value}, see {@code gradle loadTest}.
+ */
+public class LoadTest {
+
+    static final String START = "loadtest.start";
+
+    private static final Logger log = LoggerFactory.getLogger(LoadTest.class);
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private final JsonObject options;
+    private final Vertx vertx = Vertx.vertx();
+
+    public static void main(String[] args) {
+        final JsonObject options = new JsonObject();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value, actual: " + arg);
+            }
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        new LoadTest(options).run();
+    }
+
+    private LoadTest(JsonObject options) {
+        this.options = options;
+    }
+
+    private void run() {
+        final int connections = intOption("connections", 1000);
+        final int fanOut = intOption("fanOut", 1);
+        final int tokens = Math.max(connections / fanOut, 1);
+        final int recipients = Math.max(tokens / intOption("fanIn", 1), 1);
+        final int port = intOption("port", 8080);
+
+        final Future<Void> server = options.containsKey("host") ? Future.succeededFuture() : deployServer(port);
+        server.compose(ignored -> {
+            // Every client instance gets its own event loop and a share of the connections
+            final int clients = Math.min(intOption("clients", Math.max(CORES / 2, 1)), connections);
+            final List<Future<String>> deployed = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                final int first = connections * i / clients;
+                final JsonObject config = new JsonObject()
+                        .put("host", options.getString("host", "localhost"))
+                        .put("port", port)
+                        .put("tokens", tokens)
+                        .put("recipients", recipients)
+                        .put("firstConnection", first)
+                        .put("connections", connections * (i + 1) / clients - first);
+                deployed.add(deploy(LoadClientVerticle.class.getName(), config, 1));
+            }
+            return Futures.all(deployed);
+        }).setHandler(connected -> {
+            if (connected.failed()) {
+                log.error("Load test failed", connected.cause());
+                vertx.close();
+                return;
+            }
+            log.info("{} sockets connected to {} tokens, sending to {} recipients", connections, tokens, recipients);
+            measure(connected.result().size(), connections, fanOut, recipients);
+        });
+    }
+
+    private Future<Void> deployServer(int port) {
+        final List<Future<String>> deployed = new ArrayList<>();
+        final JsonObject ws = new JsonObject()
+                .put("port", port)
+                .put("frameBatchWindow", (long) intOption("frameBatchWindow", -1));
+        deployed.add(deploy(WsServerVerticle.class.getName(), ws, CORES));
+        deployed.add(deploy(RouterVerticle.class.getName(), new JsonObject(), CORES));
+        deployed.add(deploy(HistoryCacheVerticle.class.getName(), new JsonObject(), 1));
+        deployed.add(deploy(InMemoryDatabaseVerticle.class.getName(), new JsonObject(), 1));
+        return Futures.all(deployed).mapEmpty();
+    }
+
+    private Future<String> deploy(String verticle, JsonObject config, int instances) {
+        final Promise<String> deployed = Promise.promise();
+        vertx.deployVerticle(verticle, new DeploymentOptions().setConfig(config).setInstances(instances), deployed);
+        return deployed.future();
+    }
+
+    private void measure(int clients, int connections, int fanOut, int recipients) {
+        final long warmup = TimeUnit.SECONDS.toMillis(intOption("warmup", 5));
+        final long duration = TimeUnit.SECONDS.toMillis(intOption("duration", 30));
+        vertx.eventBus().publish(START, (double) intOption("rate", 1000) / clients);
+
+        vertx.setTimer(warmup, warmedUp -> {
+            LoadClientVerticle.latencies.reset();
+            final long sentBefore = LoadClientVerticle.sent.sum();
+            final long receivedBefore = LoadClientVerticle.received.sum();
+            final long start = System.nanoTime();
+            log.info("Warmed up, measuring for {} s", TimeUnit.MILLISECONDS.toSeconds(duration));
+
+            vertx.setTimer(duration, finished -> {
+                final Histogram histogram = LoadClientVerticle.latencies.getIntervalHistogram();
+                final double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+                final long sent = LoadClientVerticle.sent.sum() - sentBefore;
+                final long received = LoadClientVerticle.received.sum() - receivedBefore;
+
+                System.out.printf("connections %d, fan-out %d, recipients %d%n", connections, fanOut, recipients);
+                System.out.printf("sent      %10d msg  %10.0f msg/s%n", sent, sent / seconds);
+                System.out.printf("received  %10d msg  %10.0f msg/s  (expected about %d)%n",
+                        received, received / seconds, sent * fanOut);
+                System.out.printf("latency   p50 %.2f ms  p99 %.2f ms  p999 %.2f ms  max %.2f ms%n",
+                        histogram.getValueAtPercentile(50) / 1000.0,
+                        histogram.getValueAtPercentile(99) / 1000.0,
+                        histogram.getValueAtPercentile(99.9) / 1000.0,
+                        histogram.getMaxValue() / 1000.0);
+                vertx.close();
+            });
+        });
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.getString(name)) : defaultValue;
+    }
+}
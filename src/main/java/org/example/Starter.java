@@ -1,18 +1,124 @@
 package org.example;
 
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Verticle;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.spi.cluster.hazelcast.HazelcastClusterManager;
+import org.example.data.MessageIds;
 import org.example.verticle.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Scanner;
 
 public class Starter {
-    public static void main(String[] args) {
-        deploy(Vertx.vertx());
+
+    private static final Logger log = LoggerFactory.getLogger(Starter.class);
+
+    private static final String DEFAULT_CONFIG = "config.json";
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    public static void main(String[] args) throws IOException {
+        final JsonObject config = readConfig(args.length > 0 ? args[0] : DEFAULT_CONFIG);
+        final JsonObject cluster = config.getJsonObject("cluster", new JsonObject());
+        if (!cluster.getBoolean("enabled", false)) {
+            deploy(Vertx.vertx(), config);
+            return;
+        }
+        // Nodes sharing a number would hand out the same message IDs
+        if (!cluster.containsKey("node")) {
+            throw new IllegalArgumentException("cluster.node must be set to a number unique in the cluster, from 0 to "
+                    + MessageIds.MAX_NODE);
+        }
+        MessageIds.setNode(cluster.getInteger("node"));
+        // The log keeps the data of one node, while the storage addresses are served cluster-wide
+        if ("log".equals(storageConfig(config).getString("backend"))) {
+            throw new IllegalArgumentException("storage.backend log cannot be used in a cluster, use mongo");
+        }
+
+        // Hazelcast reads cluster.xml from the classpath, falling back to multicast discovery
+        final VertxOptions options = new VertxOptions().setClusterManager(new HazelcastClusterManager());
+        options.getEventBusOptions().setClustered(true);
+        if (cluster.containsKey("host")) {
+            options.getEventBusOptions().setHost(cluster.getString("host"));
+        }
+        Vertx.clusteredVertx(options, clustered -> {
+            if (clustered.succeeded()) {
+                deploy(clustered.result(), config);
+            } else {
+                log.error("Failed to join the cluster", clustered.cause());
+            }
+        });
+    }
+
+    // Resolved against the working directory first, then the classpath
+    private static JsonObject readConfig(String file) throws IOException {
+        final Path path = Paths.get(file);
+        if (Files.exists(path)) {
+            return new JsonObject(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+        }
+        try (InputStream resource = Starter.class.getClassLoader().getResourceAsStream(file)) {
+            if (resource == null) {
+                throw new IOException("Config file not found: " + file);
+            }
+            return new JsonObject(new Scanner(resource, StandardCharsets.UTF_8.name()).useDelimiter("\\A").next());
+        }
+    }
+
+    private static JsonObject storageConfig(JsonObject config) {
+        return config.getJsonObject("storage", config.getJsonObject("mongo", new JsonObject()));
     }
 
-    private static void deploy(Vertx vertx) {
-        vertx.deployVerticle(new WsServerVerticle());
-        vertx.deployVerticle(new RestServerVerticle());
-        vertx.deployVerticle(new ClientServerVerticle());
-        vertx.deployVerticle(new RouterVerticle());
-        vertx.deployVerticle(new MongoDbVerticle());
+    private static void deploy(Vertx vertx, JsonObject config) {
+        deploy(vertx, WsServerVerticle.class, config.getJsonObject("ws"));
+        deploy(vertx, RestServerVerticle.class, config.getJsonObject("rest"));
+        // Shares the image directory with the REST server, one sweeper per node is enough
+        deploy(vertx, BlobSweeperVerticle.class, config.getJsonObject("rest", new JsonObject()).copy()
+                .put("instances", 1));
+        // Owns the thumbnail cache directory
+        deploy(vertx, ThumbnailVerticle.class, config.getJsonObject("thumbnails", new JsonObject()).copy()
+                .put("instances", 1));
+        deploy(vertx, ClientServerVerticle.class, config.getJsonObject("client"));
+        deploy(vertx, RouterVerticle.class, config.getJsonObject("router"));
+        // Keeps the cached history in its own state, so more instances would see different histories
+        deploy(vertx, HistoryCacheVerticle.class, config.getJsonObject("historyCache", new JsonObject()).copy()
+                .put("instances", 1));
+        // Keeps the queues of offline recipients in its own state
+        deploy(vertx, OfflineQueueVerticle.class, config.getJsonObject("offlineQueue", new JsonObject()).copy()
+                .put("instances", 1));
+        // Keeps the room members of the node in its own state
+        deploy(vertx, RoomVerticle.class, config.getJsonObject("rooms", new JsonObject()).copy()
+                .put("instances", 1));
+        // Holds the search index of the node
+        deploy(vertx, SearchVerticle.class, config.getJsonObject("search", new JsonObject()).copy()
+                .put("instances", 1));
+        deploy(vertx, StorageVerticle.class, storageConfig(config));
+        if (vertx.isClustered()) {
+            deploy(vertx, PresenceVerticle.class, new JsonObject().put("instances", 1));
+        }
+    }
+
+    private static void deploy(Vertx vertx, Class<? extends Verticle> verticle, JsonObject config) {
+        final JsonObject verticleConfig = config == null ? new JsonObject() : config;
+        final int instances = verticleConfig.getInteger("instances", 0);
+        final DeploymentOptions options = new DeploymentOptions()
+                .setConfig(verticleConfig)
+                .setInstances(instances > 0 ? instances : CORES);
+
+        vertx.deployVerticle(verticle.getName(), options, deployment -> {
+            if (deployment.succeeded()) {
+                log.info("Deployed {} instance(s) of {}", options.getInstances(), verticle.getSimpleName());
+            } else {
+                log.error("Failed to deploy " + verticle.getSimpleName(), deployment.cause());
+            }
+        });
     }
 }
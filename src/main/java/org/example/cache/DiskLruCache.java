@@ -0,0 +1,139 @@
+package org.example.cache;
+
+import io.vertx.core.Vertx;
+import org.example.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Files in a directory, named by their key, holding at most {@code maxBytes} in total. Adding a file evicts the least
+ * recently used ones until it fits; evicted files are deleted asynchronously. Only the index is kept in memory.
+ * <p>
+ * Not thread-safe: meant to be owned by a single verticle.
+ */
+public class DiskLruCache {
+
+    private static final Logger log = LoggerFactory.getLogger(DiskLruCache.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Vertx vertx;
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final LongAdder bytes;
+
+    public DiskLruCache(Vertx vertx, String name, String directory, long maxBytes) {
+        this.vertx = vertx;
+        this.directory = new File(directory);
+        this.maxBytes = maxBytes;
+        hits = Metrics.counter(name + "_hits_total");
+        misses = Metrics.counter(name + "_misses_total");
+        evictions = Metrics.counter(name + "_evictions_total");
+        bytes = Metrics.counter(name + "_bytes");
+    }
+
+    /**
+     * Indexes the files left by a previous run, oldest first. Blocks, so must not be called on an event loop.
+     */
+    public void load() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + directory);
+        }
+        final File[] files = directory.listFiles(File::isFile);
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                // Left by an interrupted write
+                file.delete();
+            } else {
+                add(file.getName(), file.length());
+            }
+        }
+        evict();
+        log.info("Indexed {} files of {} bytes in {}", sizes.size(), totalBytes, directory);
+    }
+
+    public String path(String key) {
+        return new File(directory, key).getPath();
+    }
+
+    /**
+     * Returns {@code true} if the file is cached and marks it as recently used.
+     */
+    public boolean get(String key) {
+        if (sizes.get(key) == null) {
+            misses.increment();
+            return false;
+        }
+        hits.increment();
+        return true;
+    }
+
+    /**
+     * Path to write a file to before moving it to {@link #path}, so a file is never seen half written.
+     */
+    public String tempPath(String key) {
+        return path(key) + "." + UUID.randomUUID() + TEMP_SUFFIX;
+    }
+
+    /**
+     * Registers a file written to {@link #path} of the key.
+     */
+    public void put(String key, long size) {
+        add(key, size);
+        evict();
+    }
+
+    public int size() {
+        return sizes.size();
+    }
+
+    public long totalBytes() {
+        return totalBytes;
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<String, Long>> eldest = sizes.entrySet().iterator();
+        // The most recently used file is kept even if it alone exceeds the limit
+        while (totalBytes > maxBytes && sizes.size() > 1) {
+            final Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            resize(-entry.getValue());
+            evictions.increment();
+            final String path = path(entry.getKey());
+            vertx.fileSystem().delete(path, deleted -> {
+                if (deleted.failed()) {
+                    log.warn("Failed to delete evicted file " + path, deleted.cause());
+                }
+            });
+        }
+    }
+
+    private void add(String key, long size) {
+        final Long previous = sizes.put(key, size);
+        resize(size - (previous == null ? 0 : previous));
+    }
+
+    private void resize(long delta) {
+        totalBytes += delta;
+        bytes.add(delta);
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.cache;
+
+import io.vertx.core.json.JsonObject;
+import org.example.metrics.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Image metadata by ID. Metadata never changes once saved, so found images stay until evicted, while unknown IDs are
+ * remembered for {@code negativeTtl} milliseconds only: the image may still be saved through another instance.
+ * Not thread-safe: meant to be owned by a single verticle.
+ */
+public class ImageMetadataCache {
+
+    private static final JsonObject NOT_FOUND = new JsonObject();
+
+    private final LruCache<String, Entry> entries;
+    private final long negativeTtl;
+    private final LongAdder negativeHits;
+
+    public ImageMetadataCache(String name, int maxEntries, long negativeTtl) {
+        this.entries = new LruCache<>(name, maxEntries);
+        this.negativeTtl = negativeTtl;
+        this.negativeHits = Metrics.counter(name + "_negative_hits_total");
+    }
+
+    /**
+     * Returns the metadata, a marker recognized by {@link #isNotFound} for a remembered unknown ID or {@code null}
+     * if the database has to be asked.
+     */
+    public JsonObject get(String id) {
+        final Entry entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.image != NOT_FOUND) {
+            return entry.image;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(id);
+            return null;
+        }
+        negativeHits.increment();
+        return NOT_FOUND;
+    }
+
+    public static boolean isNotFound(JsonObject image) {
+        return image == NOT_FOUND;
+    }
+
+    public void put(String id, JsonObject image) {
+        if (image == null) {
+            entries.put(id, new Entry(NOT_FOUND, System.currentTimeMillis() + negativeTtl));
+        } else {
+            entries.put(id, new Entry(image, Long.MAX_VALUE));
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        final JsonObject image;
+        final long expiresAt;
+
+        Entry(JsonObject image, long expiresAt) {
+            this.image = image;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
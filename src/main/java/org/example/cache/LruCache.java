@@ -0,0 +1,113 @@
+package org.example.cache;
+
+import org.example.metrics.Metrics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Map evicting the least recently used entries once their total weight exceeds {@code maxWeight}. Every entry weighs
+ * 1 unless a weigher is given, which bounds the number of entries. Not thread-safe: meant to be owned by a single
+ * verticle.
+ */
+public class LruCache<K, V> {
+
+    // In insertion order, an entry is moved to the end when it is used
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>();
+    private final long maxWeight;
+    private final ToLongFunction<? super V> weigher;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private long weight;
+
+    private static class Entry<V> {
+        final V value;
+        long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    public LruCache(String name, int maxEntries) {
+        this(name, maxEntries, value -> 1);
+    }
+
+    public LruCache(String name, long maxWeight, ToLongFunction<? super V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        hits = Metrics.counter(name + "_hits_total");
+        misses = Metrics.counter(name + "_misses_total");
+        evictions = Metrics.counter(name + "_evictions_total");
+    }
+
+    public V get(K key) {
+        final Entry<V> entry = entries.remove(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        entries.put(key, entry);
+        return entry.value;
+    }
+
+    /**
+     * Like {@link #get} but neither counted nor making the entry recently used.
+     */
+    public V peek(K key) {
+        final Entry<V> entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    public void put(K key, V value) {
+        remove(key);
+        final Entry<V> entry = new Entry<>(value, weigher.applyAsLong(value));
+        entries.put(key, entry);
+        weight += entry.weight;
+        evict();
+    }
+
+    /**
+     * Weighs the value of {@code key} again after it has been changed in place.
+     */
+    public void reweigh(K key) {
+        final Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            final long previous = entry.weight;
+            entry.weight = weigher.applyAsLong(entry.value);
+            weight += entry.weight - previous;
+            evict();
+        }
+    }
+
+    public V remove(K key) {
+        final Entry<V> entry = entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        weight -= entry.weight;
+        return entry.value;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long weight() {
+        return weight;
+    }
+
+    private void evict() {
+        final Iterator<Entry<V>> eldest = entries.values().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+}
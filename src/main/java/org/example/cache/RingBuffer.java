@@ -0,0 +1,40 @@
+package org.example.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the last {@code capacity} added elements, overwriting the oldest one when full.
+ */
+public class RingBuffer<T> {
+
+    private final Object[] elements;
+    private int next;
+    private int size;
+
+    public RingBuffer(int capacity) {
+        elements = new Object[capacity];
+    }
+
+    public void add(T element) {
+        elements[next] = element;
+        next = (next + 1) % elements.length;
+        if (size < elements.length) {
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<T> toList() {
+        final List<T> list = new ArrayList<>(size);
+        final int first = (next - size + elements.length) % elements.length;
+        for (int i = 0; i < size; i++) {
+            list.add((T) elements[(first + i) % elements.length]);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,303 @@
+package org.example.cluster;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.VertxInternal;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.AsyncMap;
+import org.example.verticle.util.Futures;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Cluster-wide directory of the nodes that have sockets connected for a token address.
+ * <p>
+ * Each address maps to a JSON object of node ID to the number of WebSocket verticle instances on that node holding
+ * sockets for it. Entries are updated with compare-and-set, and updates for the same address made through one
+ * directory are applied one at a time, coalescing the ones that arrive meanwhile. A failed update is applied again
+ * after {@code RETRY_DELAY} together with those. Not thread-safe: meant to be owned by a single verticle.
+ * <p>
+ * Every node also keeps the addresses it has registered in a map of its own, added before its count and removed once
+ * no instance of the node holds the address. A purge reads only the maps of the nodes that left.
+ */
+public class PresenceDirectory {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceDirectory.class);
+
+    private static final String MAP_NAME = "presence";
+    private static final String NODE_MAP_PREFIX = "presence-node-";
+    // Nodes that have a map of addresses
+    private static final String NODES_MAP_NAME = "presence-nodes";
+    private static final long RETRY_DELAY = 1000;
+
+    private final Vertx vertx;
+    private final String nodeId;
+    private final Map<String, Integer> pendingUpdates = new HashMap<>();
+    private AsyncMap<String, JsonObject> map;
+    private AsyncMap<String, Boolean> nodeAddresses;
+
+    public PresenceDirectory(Vertx vertx) {
+        this.vertx = vertx;
+        this.nodeId = ((VertxInternal) vertx).getNodeID();
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public void register(String address) {
+        update(address, 1);
+    }
+
+    public void unregister(String address) {
+        update(address, -1);
+    }
+
+    public void lookup(String address, Handler<AsyncResult<Set<String>>> handler) {
+        withMap(asyncMap -> asyncMap.get(address, asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+            } else {
+                final JsonObject nodes = asyncResult.result();
+                handler.handle(Future.succeededFuture(nodes == null ? Collections.emptySet() : nodes.fieldNames()));
+            }
+        }), failed -> handler.handle(Future.failedFuture(failed)));
+    }
+
+    /**
+     * Removes every node that is not in {@code liveNodes} from the directory. Replies with the number of addresses
+     * purged.
+     */
+    public void purge(Collection<String> liveNodes, Handler<AsyncResult<Integer>> handler) {
+        vertx.sharedData().<String, Boolean>getAsyncMap(NODES_MAP_NAME, asyncNodes -> {
+            if (asyncNodes.failed()) {
+                handler.handle(Future.failedFuture(asyncNodes.cause()));
+                return;
+            }
+            final AsyncMap<String, Boolean> nodes = asyncNodes.result();
+            nodes.keys(asyncKeys -> {
+                if (asyncKeys.failed()) {
+                    handler.handle(Future.failedFuture(asyncKeys.cause()));
+                    return;
+                }
+                final List<Future<Integer>> purges = new ArrayList<>();
+                for (String node : asyncKeys.result()) {
+                    if (!liveNodes.contains(node)) {
+                        purges.add(purgeNode(nodes, node));
+                    }
+                }
+                Futures.all(purges).setHandler(purged -> handler.handle(purged.map(counts ->
+                        counts.stream().mapToInt(Integer::intValue).sum())));
+            });
+        });
+    }
+
+    private Future<Integer> purgeNode(AsyncMap<String, Boolean> nodes, String node) {
+        final Promise<Integer> purged = Promise.promise();
+        vertx.sharedData().<String, Boolean>getAsyncMap(NODE_MAP_PREFIX + node, asyncAddresses -> {
+            if (asyncAddresses.failed()) {
+                purged.fail(asyncAddresses.cause());
+                return;
+            }
+            final AsyncMap<String, Boolean> addresses = asyncAddresses.result();
+            addresses.keys(asyncKeys -> {
+                if (asyncKeys.failed()) {
+                    purged.fail(asyncKeys.cause());
+                    return;
+                }
+                withMap(asyncMap -> {
+                    final List<Future<Void>> removals = new ArrayList<>();
+                    for (String address : asyncKeys.result()) {
+                        removals.add(Future.future(promise -> compute(asyncMap, address, current -> {
+                            if (current == null) {
+                                return null;
+                            }
+                            final JsonObject next = current.copy();
+                            next.remove(node);
+                            return next.isEmpty() ? null : next;
+                        }, promise)));
+                    }
+                    Futures.all(removals).setHandler(removed -> {
+                        if (removed.failed()) {
+                            // Still listed, so the next purge tries again
+                            purged.fail(removed.cause());
+                            return;
+                        }
+                        addresses.clear(cleared -> nodes.remove(node, forgotten ->
+                                purged.complete(asyncKeys.result().size())));
+                    });
+                }, purged::fail);
+            });
+        });
+        return purged.future();
+    }
+
+    private void update(String address, int delta) {
+        final Integer pending = pendingUpdates.get(address);
+        if (pending != null) {
+            pendingUpdates.put(address, pending + delta);
+            return;
+        }
+        pendingUpdates.put(address, 0);
+        apply(address, delta);
+    }
+
+    private void apply(String address, int delta) {
+        if (delta > 0) {
+            // Listed first, so a node that leaves meanwhile is still purged
+            index(address, true, indexed -> {
+                if (indexed.failed()) {
+                    log.error("Failed to index presence of " + address, indexed.cause());
+                }
+                applyCount(address, delta);
+            });
+        } else {
+            applyCount(address, delta);
+        }
+    }
+
+    private void applyCount(String address, int delta) {
+        // The count of this node as last computed, the compare-and-set may compute it more than once
+        final int[] count = new int[1];
+        withMap(asyncMap -> compute(asyncMap, address, current -> {
+            final JsonObject next = current == null ? new JsonObject() : current.copy();
+            count[0] = next.getInteger(nodeId, 0) + delta;
+            if (count[0] > 0) {
+                next.put(nodeId, count[0]);
+            } else {
+                next.remove(nodeId);
+            }
+            return next.isEmpty() ? null : next;
+        }, computed -> {
+            if (computed.failed()) {
+                log.error("Failed to update presence of " + address, computed.cause());
+                retry(address, delta);
+            } else if (count[0] <= 0) {
+                index(address, false, unindexed -> {
+                    if (unindexed.failed()) {
+                        log.warn("Failed to unindex presence of " + address, unindexed.cause());
+                    }
+                    applied(address);
+                });
+            } else {
+                applied(address);
+            }
+        }), failed -> {
+            log.error("Failed to update presence of " + address, failed);
+            retry(address, delta);
+        });
+    }
+
+    private void retry(String address, int delta) {
+        pendingUpdates.merge(address, delta, Integer::sum);
+        vertx.setTimer(RETRY_DELAY, ignored -> applied(address));
+    }
+
+    private void applied(String address) {
+        final int pending = pendingUpdates.remove(address);
+        if (pending != 0) {
+            pendingUpdates.put(address, 0);
+            apply(address, pending);
+        }
+    }
+
+    /**
+     * Adds the address to the map of this node or removes it.
+     */
+    private void index(String address, boolean present, Handler<AsyncResult<Void>> handler) {
+        withNodeAddresses(addresses -> {
+            if (present) {
+                addresses.put(address, true, handler);
+            } else {
+                addresses.remove(address, removed -> handler.handle(removed.mapEmpty()));
+            }
+        }, failed -> handler.handle(Future.failedFuture(failed)));
+    }
+
+    private static void compute(AsyncMap<String, JsonObject> asyncMap, String key, UnaryOperator<JsonObject> change,
+                                Handler<AsyncResult<Void>> handler) {
+        asyncMap.get(key, asyncGet -> {
+            if (asyncGet.failed()) {
+                handler.handle(Future.failedFuture(asyncGet.cause()));
+                return;
+            }
+
+            final JsonObject current = asyncGet.result();
+            final JsonObject next = change.apply(current);
+            final Handler<AsyncResult<Boolean>> retryIfChanged = asyncSet -> {
+                if (asyncSet.failed()) {
+                    handler.handle(Future.failedFuture(asyncSet.cause()));
+                } else if (asyncSet.result()) {
+                    handler.handle(Future.succeededFuture());
+                } else {
+                    compute(asyncMap, key, change, handler);
+                }
+            };
+
+            if (current == null && next == null) {
+                handler.handle(Future.succeededFuture());
+            } else if (current == null) {
+                asyncMap.putIfAbsent(key, next, asyncPut -> retryIfChanged.handle(asyncPut.map(Objects::isNull)));
+            } else if (next == null) {
+                asyncMap.removeIfPresent(key, current, retryIfChanged);
+            } else {
+                asyncMap.replaceIfPresent(key, current, next, retryIfChanged);
+            }
+        });
+    }
+
+    private void withNodeAddresses(Handler<AsyncMap<String, Boolean>> action, Handler<Throwable> failure) {
+        if (nodeAddresses != null) {
+            action.handle(nodeAddresses);
+            return;
+        }
+        vertx.sharedData().<String, Boolean>getAsyncMap(NODES_MAP_NAME, asyncNodes -> {
+            if (asyncNodes.failed()) {
+                failure.handle(asyncNodes.cause());
+                return;
+            }
+            asyncNodes.result().put(nodeId, true, listed -> {
+                if (listed.failed()) {
+                    failure.handle(listed.cause());
+                    return;
+                }
+                vertx.sharedData().<String, Boolean>getAsyncMap(NODE_MAP_PREFIX + nodeId, asyncMap -> {
+                    if (asyncMap.succeeded()) {
+                        nodeAddresses = asyncMap.result();
+                        action.handle(nodeAddresses);
+                    } else {
+                        failure.handle(asyncMap.cause());
+                    }
+                });
+            });
+        });
+    }
+
+    private void withMap(Handler<AsyncMap<String, JsonObject>> action, Handler<Throwable> failure) {
+        if (map != null) {
+            action.handle(map);
+            return;
+        }
+        vertx.sharedData().<String, JsonObject>getAsyncMap(MAP_NAME, asyncMap -> {
+            if (asyncMap.succeeded()) {
+                map = asyncMap.result();
+                action.handle(map);
+            } else {
+                failure.handle(asyncMap.cause());
+            }
+        });
+    }
+}
@@ -1,10 +1,72 @@
 package org.example.data;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
 
+/**
+ * A chat message. Decoded once where it enters the application and passed by reference between local verticles
+ * (see {@link DataCodec}), so it must not be modified after it has been sent over the event bus.
+ * <p>
+ * The {@code id} and {@code timestamp} are given by the server, see {@link #stamp}; clients cannot set them.
+ * Messages to a room are addressed to its name after {@link #ROOM_PREFIX}.
+ */
+@JsonIgnoreProperties(value = {"id", "timestamp"}, allowGetters = true)
 public class Data {
+
+    public static final String ROOM_PREFIX = "#";
+
     private String address;
     private String text;
+    // 0 until stamped
+    private long id;
+    private long timestamp;
+    // Encoded form, cached since the same message is written to every socket of the recipient or room
+    private String json;
+
+    /**
+     * Decodes a message from a client, ignoring any {@code id} and {@code timestamp} in it.
+     *
+     * @throws DecodeException if {@code json} is not a JSON object
+     */
+    public static Data decode(String json) {
+        // Jackson maps a JSON null to a null message
+        final Data data = json == null ? null : Json.decodeValue(json, Data.class);
+        if (data == null) {
+            throw new DecodeException("Message must be a JSON object");
+        }
+        return data;
+    }
+
+    public static Data fromJson(JsonObject json) {
+        final Data data = new Data();
+        data.address = json.getString("address");
+        data.text = json.getString("text");
+        data.id = json.getLong("id", 0L);
+        data.timestamp = json.getLong("timestamp", 0L);
+        return data;
+    }
+
+    /**
+     * A copy carrying a new {@link MessageIds ID} and the current time, or this message if it is already stamped.
+     */
+    public Data stamp() {
+        return isStamped() ? this : withStamp(MessageIds.next(), System.currentTimeMillis());
+    }
+
+    Data withStamp(long id, long timestamp) {
+        final Data stamped = new Data();
+        stamped.address = address;
+        stamped.text = text;
+        stamped.id = id;
+        stamped.timestamp = timestamp;
+        return stamped;
+    }
+
+    public boolean isStamped() {
+        return id != 0;
+    }
 
     public String getAddress() {
         return address;
@@ -12,6 +74,7 @@ public class Data {
 
     public void setAddress(String address) {
         this.address = address;
+        json = null;
     }
 
     public String getText() {
@@ -20,10 +83,50 @@ public class Data {
 
     public void setText(String text) {
         this.text = text;
+        json = null;
+    }
+
+    public boolean isForRoom() {
+        return address != null && address.startsWith(ROOM_PREFIX);
+    }
+
+    /**
+     * The room the message is sent to, see {@link #isForRoom}.
+     */
+    public String getRoom() {
+        return address.substring(ROOM_PREFIX.length());
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String encode() {
+        // Racy but benign: at worst the message is encoded more than once
+        String encoded = json;
+        if (encoded == null) {
+            encoded = toJson().encode();
+            json = encoded;
+        }
+        return encoded;
+    }
+
+    public JsonObject toJson() {
+        final JsonObject json = new JsonObject()
+                .put("address", address)
+                .put("text", text);
+        if (isStamped()) {
+            json.put("id", id).put("timestamp", timestamp);
+        }
+        return json;
     }
 
     @Override
     public String toString() {
-        return Json.encodePrettily(this);
+        return "Data{id=" + id + ", address='" + address + "', text='" + text + "'}";
     }
 }
@@ -0,0 +1,78 @@
+package org.example.data;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Passes {@link Data} by reference to local consumers and between cluster nodes as its ID and timestamp followed by
+ * length-prefixed UTF-8 fields.
+ */
+public class DataCodec implements MessageCodec<Data, Data> {
+
+    private static final int NULL = -1;
+
+    /**
+     * Registers the codec as the default one for {@link Data}, unless it is already registered.
+     */
+    public static void register(Vertx vertx) {
+        try {
+            vertx.eventBus().registerDefaultCodec(Data.class, new DataCodec());
+        } catch (IllegalStateException alreadyRegistered) {
+            // Registered by another verticle
+        }
+    }
+
+    @Override
+    public void encodeToWire(Buffer buffer, Data data) {
+        buffer.appendLong(data.getId()).appendLong(data.getTimestamp());
+        writeString(buffer, data.getAddress());
+        writeString(buffer, data.getText());
+    }
+
+    @Override
+    public Data decodeFromWire(int pos, Buffer buffer) {
+        final long id = buffer.getLong(pos);
+        final long timestamp = buffer.getLong(pos + 8);
+        pos += 16;
+        final Data data = new Data();
+        final int addressLength = buffer.getInt(pos);
+        pos += 4;
+        data.setAddress(readString(buffer, pos, addressLength));
+        pos += Math.max(addressLength, 0);
+        final int textLength = buffer.getInt(pos);
+        pos += 4;
+        data.setText(readString(buffer, pos, textLength));
+        return id == 0 ? data : data.withStamp(id, timestamp);
+    }
+
+    @Override
+    public Data transform(Data data) {
+        return data;
+    }
+
+    @Override
+    public String name() {
+        return "data";
+    }
+
+    @Override
+    public byte systemCodecID() {
+        return -1;
+    }
+
+    private static void writeString(Buffer buffer, String string) {
+        if (string == null) {
+            buffer.appendInt(NULL);
+            return;
+        }
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        buffer.appendInt(bytes.length).appendBytes(bytes);
+    }
+
+    private static String readString(Buffer buffer, int pos, int length) {
+        return length == NULL ? null : buffer.getString(pos, pos + length, StandardCharsets.UTF_8.name());
+    }
+}
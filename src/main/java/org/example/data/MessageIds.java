@@ -0,0 +1,43 @@
+package org.example.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message IDs increasing within the process and ordered by time across the cluster. An ID holds the milliseconds since
+ * {@link #EPOCH} in its high bits, a counter for the messages of the same millisecond, and the node number in the low
+ * 8 bits so nodes do not hand out the same ID. The counter borrows from the next millisecond when it overflows, so
+ * IDs never go back even if the clock does. The 41 bits of time last until 2093.
+ * <p>
+ * A single node may keep the default node number 0, nodes of a cluster must be given distinct ones, see
+ * {@link #setNode}.
+ */
+public class MessageIds {
+
+    // 2024-01-01T00:00:00Z
+    public static final long EPOCH = 1704067200000L;
+    public static final int MAX_NODE = 255;
+
+    private static final int NODE_BITS = 8;
+    private static final int COUNTER_BITS = 14;
+
+    private static final AtomicLong last = new AtomicLong();
+    private static volatile long node;
+
+    public static long next() {
+        final long first = System.currentTimeMillis() - EPOCH << COUNTER_BITS;
+        return last.updateAndGet(previous -> Math.max(previous + 1, first)) << NODE_BITS | node;
+    }
+
+    /**
+     * Sets the number of this node, unique in the cluster, before any message is stamped.
+     */
+    public static void setNode(int node) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("Node number must be from 0 to " + MAX_NODE + ": " + node);
+        }
+        MessageIds.node = node;
+    }
+
+    private MessageIds() {
+    }
+}
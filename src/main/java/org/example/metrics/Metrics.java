@@ -0,0 +1,158 @@
+package org.example.metrics;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide metrics. Counters end with {@code _total}, other counters are exposed as gauges. Labels are given as
+ * name and value pairs and must have a bounded set of values.
+ */
+public class Metrics {
+
+    private static final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final String JVM_ID = UUID.randomUUID().toString();
+
+    public static LongAdder counter(String name, String... labels) {
+        return counters.computeIfAbsent(name + labels(labels), ignored -> new LongAdder());
+    }
+
+    public static Histogram histogram(String name, String... labels) {
+        return histograms.computeIfAbsent(name + labels(labels), ignored -> new Histogram());
+    }
+
+    /**
+     * Wraps a reply handler of an event-bus request to record its latency and failures per address.
+     */
+    public static <T> Handler<AsyncResult<T>> timed(String address, Handler<AsyncResult<T>> handler) {
+        final long startTime = System.nanoTime();
+        return asyncResult -> {
+            histogram("eventbus_request_seconds", "address", address).recordSince(startTime);
+            if (asyncResult.failed()) {
+                counter("eventbus_request_failures_total", "address", address).increment();
+            }
+            handler.handle(asyncResult);
+        };
+    }
+
+    /**
+     * Current time to be passed along with a message, see {@link #elapsedNanos}.
+     */
+    public static String timestamp() {
+        return JVM_ID + ':' + System.nanoTime() + ':' + System.currentTimeMillis();
+    }
+
+    /**
+     * Time since a {@link #timestamp()}: precise within the same JVM, wall-clock milliseconds across the cluster.
+     */
+    public static long elapsedNanos(String timestamp) {
+        final String[] parts = timestamp.split(":");
+        final long elapsed = JVM_ID.equals(parts[0]) ?
+                System.nanoTime() - Long.parseLong(parts[1]) :
+                TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - Long.parseLong(parts[2]));
+        return Math.max(elapsed, 0);
+    }
+
+    /**
+     * Whether the {@link #timestamp()} was taken in this JVM, so {@link #elapsedNanos} does not depend on clocks.
+     */
+    public static boolean isLocal(String timestamp) {
+        return timestamp.startsWith(JVM_ID + ':');
+    }
+
+    public static JsonObject snapshot() {
+        final JsonObject snapshot = new JsonObject();
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            snapshot.put(counter.getKey(), counter.getValue().sum());
+        }
+        return snapshot;
+    }
+
+    /**
+     * All metrics in the Prometheus text exposition format.
+     */
+    public static String prometheus() {
+        final StringBuilder text = new StringBuilder();
+        String family = null;
+        for (Map.Entry<String, LongAdder> counter : sortedByFamily(counters).entrySet()) {
+            final String name = baseName(counter.getKey());
+            if (!name.equals(family)) {
+                family = name;
+                text.append("# TYPE ").append(name).append(name.endsWith("_total") ? " counter\n" : " gauge\n");
+            }
+            text.append(counter.getKey()).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+
+        family = null;
+        for (Map.Entry<String, Histogram> histogram : sortedByFamily(histograms).entrySet()) {
+            final String name = baseName(histogram.getKey());
+            final String labels = histogram.getKey().substring(name.length());
+            if (!name.equals(family)) {
+                family = name;
+                text.append("# TYPE ").append(name).append(" histogram\n");
+            }
+            final long[] counts = histogram.getValue().cumulativeCounts();
+            for (int i = 0; i < counts.length; i++) {
+                final String le = i < Histogram.BUCKETS.length ? Double.toString(Histogram.BUCKETS[i]) : "+Inf";
+                text.append(name).append("_bucket").append(withLabel(labels, "le", le))
+                        .append(' ').append(counts[i]).append('\n');
+            }
+            text.append(name).append("_sum").append(labels)
+                    .append(' ').append(histogram.getValue().sumSeconds()).append('\n');
+            text.append(name).append("_count").append(labels)
+                    .append(' ').append(counts[counts.length - 1]).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String labels(String... labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        final StringBuilder text = new StringBuilder("{");
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return text.append('}').toString();
+    }
+
+    /**
+     * Escapes a label value as the text format requires: backslash, double quote and line feed.
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        final String label = name + "=\"" + value + '"';
+        return labels.isEmpty() ? '{' + label + '}' : labels.substring(0, labels.length() - 1) + ',' + label + '}';
+    }
+
+    private static <T> Map<String, T> sortedByFamily(Map<String, T> metrics) {
+        final Map<String, T> sorted = new TreeMap<>(Comparator.comparing(Metrics::baseName)
+                .thenComparing(Comparator.naturalOrder()));
+        sorted.putAll(metrics);
+        return sorted;
+    }
+
+    private static String baseName(String key) {
+        final int labels = key.indexOf('{');
+        return labels < 0 ? key : key.substring(0, labels);
+    }
+
+    private Metrics() {
+    }
+}
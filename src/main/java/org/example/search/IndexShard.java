@@ -0,0 +1,153 @@
+package org.example.search;
+
+import org.example.data.Data;
+import org.example.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Part of a {@link SearchIndex}: documents numbered in the order they were added and a {@link PostingList} per term.
+ * Searches share a read lock, additions take the write lock only to append the terms prepared beforehand.
+ */
+class IndexShard {
+
+    private static final LongAdder documentCount = Metrics.counter("search_documents");
+    private static final LongAdder termCount = Metrics.counter("search_terms");
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private Data[] documents = new Data[16];
+    private int size;
+
+    void add(List<Data> messages) {
+        final List<Collection<String>> terms = new ArrayList<>(messages.size());
+        for (Data data : messages) {
+            terms.add(SearchIndex.terms(data.getText(), data.getAddress()));
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < messages.size(); i++) {
+                if (size == documents.length) {
+                    documents = Arrays.copyOf(documents, size * 2);
+                }
+                final int doc = size++;
+                documents[doc] = messages.get(i);
+                for (String term : terms.get(i)) {
+                    PostingList list = postings.get(term);
+                    if (list == null) {
+                        list = new PostingList();
+                        postings.put(term, list);
+                        termCount.increment();
+                    }
+                    list.add(doc);
+                }
+            }
+            documentCount.add(messages.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The last {@code limit} documents added that hold every term, last first. The shortest posting list drives the
+     * search backwards and the others are only probed, so the cost follows the rarest term and stops at the limit.
+     */
+    List<Data> search(Collection<String> terms, int limit) {
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            final List<PostingList> lists = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                final PostingList list = postings.get(term);
+                if (list == null) {
+                    return Collections.emptyList();
+                }
+                lists.add(list);
+            }
+            lists.sort(Comparator.comparingInt(PostingList::size));
+
+            final PostingList driver = lists.get(0);
+            final BlockReader[] probes = new BlockReader[lists.size() - 1];
+            for (int i = 0; i < probes.length; i++) {
+                probes[i] = new BlockReader(lists.get(i + 1));
+            }
+            final List<Data> found = new ArrayList<>(Math.min(limit, driver.size()));
+            final int[] docs = new int[PostingList.BLOCK_SIZE];
+            for (int block = driver.blockOf(Integer.MAX_VALUE); block >= 0; block--) {
+                for (int i = driver.decode(block, docs) - 1; i >= 0; i--) {
+                    if (containedInAll(probes, docs[i])) {
+                        found.add(documents[docs[i]]);
+                        if (found.size() == limit) {
+                            return found;
+                        }
+                    }
+                }
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            documentCount.add(-size);
+            termCount.add(-postings.size());
+            postings.clear();
+            documents = new Data[16];
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static boolean containedInAll(BlockReader[] probes, int doc) {
+        for (BlockReader probe : probes) {
+            if (!probe.contains(doc)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keeps the last decoded block of a list, probes come in decreasing order and mostly hit the same block.
+     */
+    private static class BlockReader {
+
+        private final PostingList list;
+        private final int[] docs = new int[PostingList.BLOCK_SIZE];
+        private int block = -1;
+        private int count;
+
+        BlockReader(PostingList list) {
+            this.list = list;
+        }
+
+        boolean contains(int doc) {
+            final int docBlock = list.blockOf(doc);
+            if (docBlock < 0) {
+                return false;
+            }
+            if (docBlock != block) {
+                count = list.decode(docBlock, docs);
+                block = docBlock;
+            }
+            return Arrays.binarySearch(docs, 0, count, doc) >= 0;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.search;
+
+import java.util.Arrays;
+
+/**
+ * Increasing document numbers, compressed as variable-length deltas in blocks of {@link #BLOCK_SIZE}. The first
+ * document of each block is kept uncompressed, so a block can be found by binary search and decoded on its own.
+ * <p>
+ * Not thread-safe, see {@link IndexShard}.
+ */
+class PostingList {
+
+    static final int BLOCK_SIZE = 128;
+
+    private byte[] bytes = new byte[4];
+    private int length;
+    private int[] blockFirstDocs = new int[1];
+    private int[] blockOffsets = new int[1];
+    private int blocks;
+    private int size;
+    private int lastDoc = -1;
+
+    /**
+     * Appends a document, which must be greater than the last one.
+     */
+    void add(int doc) {
+        if (doc <= lastDoc) {
+            throw new IllegalArgumentException("Expected a document after " + lastDoc + ", actual: " + doc);
+        }
+        if (size % BLOCK_SIZE == 0) {
+            if (blocks == blockFirstDocs.length) {
+                blockFirstDocs = Arrays.copyOf(blockFirstDocs, blocks * 2);
+                blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+            }
+            blockFirstDocs[blocks] = doc;
+            blockOffsets[blocks] = length;
+            blocks++;
+        } else {
+            writeVarInt(doc - lastDoc);
+        }
+        lastDoc = doc;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * The block that would hold the document, {@code -1} if the document is before the first one.
+     */
+    int blockOf(int doc) {
+        int low = 0;
+        int high = blocks - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (blockFirstDocs[middle] <= doc) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Decodes the documents of a block into {@code docs}, which must hold {@link #BLOCK_SIZE} of them, and returns
+     * their number.
+     */
+    int decode(int block, int[] docs) {
+        final int count = block == blocks - 1 ? size - block * BLOCK_SIZE : BLOCK_SIZE;
+        int doc = blockFirstDocs[block];
+        docs[0] = doc;
+        int position = blockOffsets[block];
+        for (int i = 1; i < count; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                delta |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            doc += delta;
+            docs[i] = doc;
+        }
+        return count;
+    }
+
+    private void writeVarInt(int value) {
+        if (length + 5 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+        }
+        while ((value & ~0x7f) != 0) {
+            bytes[length++] = (byte) (value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.search;
+
+import org.example.data.Data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * In-memory inverted index over the text of messages, split into shards by the address of the message. A search
+ * matches the messages holding every token of the query, most recent first; a search within an address only needs
+ * the shard of that address.
+ * <p>
+ * Shards can be updated and searched from different threads, see {@link IndexShard}.
+ */
+public class SearchIndex {
+
+    // Tokens have no punctuation, so this never collides with one
+    private static final String ADDRESS_PREFIX = "@";
+
+    private final IndexShard[] shards;
+
+    public SearchIndex(int shards) {
+        this.shards = new IndexShard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new IndexShard();
+        }
+    }
+
+    /**
+     * The tokens of the text and, unless it is {@code null}, a term restricting the search to the address.
+     */
+    public static Collection<String> terms(String text, String address) {
+        final Set<String> terms = Tokenizer.tokens(text);
+        if (address != null) {
+            terms.add(ADDRESS_PREFIX + address);
+        }
+        return terms;
+    }
+
+    /**
+     * Combines the results of several shards, keeping the {@code limit} most recent ones.
+     */
+    public static List<Data> merge(List<List<Data>> results, int limit) {
+        final List<Data> merged = new ArrayList<>();
+        results.forEach(merged::addAll);
+        merged.sort(Comparator.comparingLong(Data::getId).reversed());
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+
+    public int shards() {
+        return shards.length;
+    }
+
+    public int shardOf(String address) {
+        return address == null ? 0 : (address.hashCode() & Integer.MAX_VALUE) % shards.length;
+    }
+
+    /**
+     * Blocks other users of the shard while the messages are added, must not be called on an event loop.
+     */
+    public void add(int shard, List<Data> messages) {
+        shards[shard].add(messages);
+    }
+
+    /**
+     * See {@link #terms} for the terms and {@link #merge} to combine the results of several shards.
+     */
+    public List<Data> search(int shard, Collection<String> terms, int limit) {
+        return shards[shard].search(terms, limit);
+    }
+
+    public void clear(int shard) {
+        shards[shard].clear();
+    }
+}
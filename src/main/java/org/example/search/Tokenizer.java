@@ -0,0 +1,45 @@
+package org.example.search;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Splits text into lower-case runs of letters and digits, in any script. Longer runs than {@link #MAX_TOKEN_LENGTH}
+ * are cut, the same way for messages and queries.
+ */
+class Tokenizer {
+
+    static final int MAX_TOKEN_LENGTH = 64;
+
+    /**
+     * The distinct tokens of the text in the order they first appear.
+     */
+    static Set<String> tokens(String text) {
+        final Set<String> tokens = new LinkedHashSet<>();
+        if (text == null) {
+            return tokens;
+        }
+        final StringBuilder token = new StringBuilder();
+        int length = 0;
+        for (int i = 0; i < text.length(); ) {
+            final int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (length++ < MAX_TOKEN_LENGTH) {
+                    token.appendCodePoint(Character.toLowerCase(codePoint));
+                }
+            } else if (length > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+                length = 0;
+            }
+        }
+        if (length > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    private Tokenizer() {
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.storage;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.file.CopyOptions;
+import org.example.metrics.Metrics;
+
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Image files named by the SHA-256 of their content, so identical uploads share one file. Blobs are spread over
+ * {@code <directory>/ab/cd/<sha256>} to keep directories small. Uploads are written to {@code <directory>/tmp} first
+ * and moved into place once their hash is known.
+ * <p>
+ * Blobs are never deleted here: the {@code BlobSweeperVerticle} removes the ones no image refers to.
+ */
+public class BlobStore {
+
+    public static final String TEMP_DIRECTORY = "tmp";
+
+    private static final LongAdder stored = Metrics.counter("image_blobs_stored_total");
+    private static final LongAdder duplicates = Metrics.counter("image_blob_duplicates_total");
+
+    private final Vertx vertx;
+    private final String directory;
+
+    public BlobStore(Vertx vertx, String directory) {
+        this.vertx = vertx;
+        this.directory = directory;
+    }
+
+    public String directory() {
+        return directory;
+    }
+
+    public String tempDirectory() {
+        return Paths.get(directory, TEMP_DIRECTORY).toString();
+    }
+
+    public String newTempPath() {
+        return Paths.get(directory, TEMP_DIRECTORY, UUID.randomUUID().toString()).toString();
+    }
+
+    public String path(String sha256) {
+        return Paths.get(directory, sha256.substring(0, 2), sha256.substring(2, 4), sha256).toString();
+    }
+
+    /**
+     * Moves a fully written temporary file to the blob of its content and completes with the path of the blob.
+     * <p>
+     * When the blob already exists the temporary file still replaces it: the content is the same, and the fresh
+     * modification time keeps the sweeper away from a blob that is about to be referenced again.
+     */
+    public void store(String tempPath, String sha256, Handler<AsyncResult<String>> handler) {
+        final String path = path(sha256);
+        vertx.fileSystem().mkdirs(Paths.get(path).getParent().toString(), created -> {
+            if (created.failed()) {
+                handler.handle(Future.failedFuture(created.cause()));
+                return;
+            }
+            vertx.fileSystem().exists(path, exists -> {
+                if (exists.succeeded() && exists.result()) {
+                    duplicates.increment();
+                } else {
+                    stored.increment();
+                }
+                vertx.fileSystem().move(tempPath, path, new CopyOptions().setReplaceExisting(true).setAtomicMove(true),
+                        moved -> handler.handle(moved.map(path)));
+            });
+        });
+    }
+
+    public static boolean isBlobName(String name) {
+        return name.length() == 64 && name.chars().allMatch(c -> c >= '0' && c <= '9' || c >= 'a' && c <= 'f');
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.storage;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.streams.ReadStream;
+
+import java.util.Iterator;
+
+/**
+ * Emits the items of an iterator on a context, at most {@code batchSize} items per event-loop tick so that a long
+ * stream does not hold up the loop. Honours pause, resume and fetch; setting a {@code null} handler stops the stream.
+ */
+public class IteratorReadStream<T> implements ReadStream<T> {
+
+    private final Context context;
+    private final Iterator<T> iterator;
+    private final int batchSize;
+    private Handler<T> handler;
+    private Handler<Void> endHandler;
+    private Handler<Throwable> exceptionHandler;
+    private long demand = Long.MAX_VALUE;
+    private boolean scheduled;
+    private boolean ended;
+
+    public IteratorReadStream(Context context, Iterator<T> iterator, int batchSize) {
+        this.context = context;
+        this.iterator = iterator;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public IteratorReadStream<T> exceptionHandler(Handler<Throwable> handler) {
+        exceptionHandler = handler;
+        return this;
+    }
+
+    @Override
+    public IteratorReadStream<T> handler(Handler<T> handler) {
+        this.handler = handler;
+        if (handler == null) {
+            ended = true;
+        } else {
+            schedule();
+        }
+        return this;
+    }
+
+    @Override
+    public IteratorReadStream<T> pause() {
+        demand = 0;
+        return this;
+    }
+
+    @Override
+    public IteratorReadStream<T> resume() {
+        return fetch(Long.MAX_VALUE);
+    }
+
+    @Override
+    public IteratorReadStream<T> fetch(long amount) {
+        demand = Long.MAX_VALUE - demand > amount ? demand + amount : Long.MAX_VALUE;
+        schedule();
+        return this;
+    }
+
+    @Override
+    public IteratorReadStream<T> endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        return this;
+    }
+
+    private void schedule() {
+        if (!scheduled && !ended && handler != null && demand > 0) {
+            scheduled = true;
+            context.runOnContext(ignored -> emit());
+        }
+    }
+
+    private void emit() {
+        scheduled = false;
+        try {
+            for (int i = 0; i < batchSize && !ended && demand > 0; i++) {
+                if (!iterator.hasNext()) {
+                    ended = true;
+                    if (endHandler != null) {
+                        endHandler.handle(null);
+                    }
+                    return;
+                }
+                if (demand != Long.MAX_VALUE) {
+                    demand--;
+                }
+                handler.handle(iterator.next());
+            }
+        } catch (RuntimeException e) {
+            ended = true;
+            if (exceptionHandler != null) {
+                exceptionHandler.handle(e);
+            }
+            return;
+        }
+        schedule();
+    }
+}
@@ -0,0 +1,201 @@
+package org.example.storage;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.IndexOptions;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.UpdateOptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class MongoStorage implements Storage {
+
+    private static final String MESSAGE_COLLECTION = "message";
+    private static final String IMAGE_COLLECTION = "image";
+    private static final String BLOB_COLLECTION = "blob";
+    private static final String OFFLINE_COLLECTION = "offline_message";
+    private static final String ROOM_MEMBER_COLLECTION = "room_member";
+
+    private final MongoClient client;
+
+    public MongoStorage(Vertx vertx, JsonObject config) {
+        client = MongoClient.createShared(vertx, config);
+    }
+
+    /**
+     * Creates the indexes the queries rely on, if they do not exist yet.
+     */
+    public void createIndexes(Handler<AsyncResult<Void>> done) {
+        final Future<Void> messages = Future.future(promise -> client.createIndex(MESSAGE_COLLECTION,
+                new JsonObject().put("address", 1).put("id", -1), promise));
+        final Future<Void> offline = Future.future(promise -> client.createIndex(OFFLINE_COLLECTION,
+                new JsonObject().put("address", 1).put("seq", 1), promise));
+        final Future<Void> roomMembers = Future.future(promise -> client.createIndexWithOptions(ROOM_MEMBER_COLLECTION,
+                new JsonObject().put("room", 1).put("member", 1), new IndexOptions().unique(true), promise));
+        CompositeFuture.all(messages, offline, roomMembers).<Void>mapEmpty().setHandler(done);
+    }
+
+    @Override
+    public String name() {
+        return "mongo";
+    }
+
+    @Override
+    public void saveMessages(List<JsonObject> messages, Handler<AsyncResult<Void>> done) {
+        final List<BulkOperation> operations = new ArrayList<>(messages.size());
+        for (JsonObject message : messages) {
+            operations.add(BulkOperation.createInsert(message));
+        }
+        client.bulkWrite(MESSAGE_COLLECTION, operations, asyncResult -> done.handle(asyncResult.mapEmpty()));
+    }
+
+    @Override
+    public void recentMessages(String address, long before, int limit,
+                               Handler<AsyncResult<List<JsonObject>>> handler) {
+        final JsonObject query = new JsonObject().put("address", address);
+        if (before != Long.MAX_VALUE) {
+            query.put("id", new JsonObject().put("$lt", before));
+        }
+        // Served by the {address, id} index, without it every page would scan the collection
+        final FindOptions options = new FindOptions()
+                .setFields(new JsonObject().put("_id", 0))
+                .setSort(new JsonObject().put("id", -1))
+                .setLimit(limit);
+        client.findWithOptions(MESSAGE_COLLECTION, query, options, asyncResult -> {
+            if (asyncResult.succeeded()) {
+                Collections.reverse(asyncResult.result());
+            }
+            handler.handle(asyncResult);
+        });
+    }
+
+    @Override
+    public ReadStream<JsonObject> history(int batchSize) {
+        final FindOptions options = new FindOptions().setBatchSize(batchSize);
+        return client.findBatchWithOptions(MESSAGE_COLLECTION, new JsonObject(), options);
+    }
+
+    @Override
+    public void saveOfflineMessages(List<JsonObject> messages, Handler<AsyncResult<Void>> done) {
+        final List<BulkOperation> operations = new ArrayList<>(messages.size());
+        for (JsonObject message : messages) {
+            operations.add(BulkOperation.createInsert(message));
+        }
+        client.bulkWrite(OFFLINE_COLLECTION, operations, asyncResult -> done.handle(asyncResult.mapEmpty()));
+    }
+
+    @Override
+    public void offlineMessages(String address, int limit, Handler<AsyncResult<List<JsonObject>>> handler) {
+        final FindOptions options = new FindOptions()
+                .setFields(new JsonObject().put("_id", 0))
+                .setSort(new JsonObject().put("seq", 1))
+                .setLimit(limit);
+        client.findWithOptions(OFFLINE_COLLECTION, new JsonObject().put("address", address), options, handler);
+    }
+
+    @Override
+    public void trimOfflineMessages(String address, List<Long> seqs, Handler<AsyncResult<Void>> done) {
+        final JsonObject query = new JsonObject()
+                .put("address", address)
+                .put("seq", new JsonObject().put("$in", new JsonArray(seqs)));
+        client.removeDocuments(OFFLINE_COLLECTION, query, asyncResult -> done.handle(asyncResult.mapEmpty()));
+    }
+
+    @Override
+    public void saveRoomMember(String room, String member, boolean joined, Handler<AsyncResult<Void>> done) {
+        final JsonObject query = new JsonObject().put("room", room).put("member", member);
+        if (joined) {
+            client.updateCollectionWithOptions(ROOM_MEMBER_COLLECTION, query, new JsonObject().put("$set", query),
+                    new UpdateOptions().setUpsert(true), asyncResult -> done.handle(asyncResult.mapEmpty()));
+        } else {
+            client.removeDocuments(ROOM_MEMBER_COLLECTION, query, asyncResult -> done.handle(asyncResult.mapEmpty()));
+        }
+    }
+
+    @Override
+    public void roomMembers(Handler<AsyncResult<List<JsonObject>>> handler) {
+        final FindOptions options = new FindOptions().setFields(new JsonObject().put("_id", 0));
+        client.findWithOptions(ROOM_MEMBER_COLLECTION, new JsonObject(), options, handler);
+    }
+
+    /**
+     * The reference is counted before the image is inserted: if the insert fails the blob is kept for good rather
+     * than swept while an image points to it.
+     */
+    @Override
+    public void saveImage(JsonObject image, Handler<AsyncResult<String>> handler) {
+        final String sha256 = image.getString("sha256");
+        if (sha256 == null) {
+            insertImage(image, handler);
+            return;
+        }
+        client.updateCollectionWithOptions(BLOB_COLLECTION, new JsonObject().put("_id", sha256),
+                new JsonObject().put("$inc", new JsonObject().put("references", 1)),
+                new UpdateOptions().setUpsert(true), counted -> {
+                    if (counted.failed()) {
+                        handler.handle(Future.failedFuture(counted.cause()));
+                    } else {
+                        insertImage(image, handler);
+                    }
+                });
+    }
+
+    @Override
+    public void blobReferences(String sha256, Handler<AsyncResult<Long>> handler) {
+        client.findOne(BLOB_COLLECTION, new JsonObject().put("_id", sha256), null, asyncResult ->
+                handler.handle(asyncResult.map(blob -> blob == null ? 0L : blob.getLong("references", 0L))));
+    }
+
+    private void insertImage(JsonObject image, Handler<AsyncResult<String>> handler) {
+        client.insert(IMAGE_COLLECTION, image, asyncResult -> handler.handle(asyncResult.succeeded() ?
+                Future.succeededFuture(asyncResult.result() == null ?
+                        image.getString("_id") :
+                        asyncResult.result()) :
+                Future.failedFuture(asyncResult.cause())));
+    }
+
+    @Override
+    public void findImage(String id, Handler<AsyncResult<JsonObject>> handler) {
+        client.findOne(IMAGE_COLLECTION, new JsonObject().put("_id", id), null, handler);
+    }
+
+    @Override
+    public void listImages(String after, int limit, Handler<AsyncResult<List<JsonObject>>> handler) {
+        client.findWithOptions(IMAGE_COLLECTION, imagesAfter(after), imageListOptions(limit), handler);
+    }
+
+    @Override
+    public ReadStream<JsonObject> streamImages(String after, int limit, int batchSize) {
+        return client.findBatchWithOptions(IMAGE_COLLECTION, imagesAfter(after),
+                imageListOptions(limit).setBatchSize(batchSize));
+    }
+
+    @Override
+    public void close(Handler<AsyncResult<Void>> done) {
+        client.close();
+        done.handle(Future.succeededFuture());
+    }
+
+    private static JsonObject imagesAfter(String after) {
+        return after == null ?
+                new JsonObject() :
+                new JsonObject().put("_id", new JsonObject().put("$gt", after));
+    }
+
+    private static FindOptions imageListOptions(int limit) {
+        return new FindOptions()
+                .setFields(IMAGE_LIST_FIELDS)
+                .setSort(new JsonObject().put("_id", 1))
+                .setLimit(limit);
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.storage;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+
+import java.util.List;
+
+/**
+ * Persistence behind the {@code DATABASE_*} and {@code GET_HISTORY} event-bus addresses, see
+ * {@link org.example.verticle.StorageVerticle}. Handlers are called on the caller's context.
+ */
+public interface Storage {
+
+    JsonObject IMAGE_LIST_FIELDS = new JsonObject()
+            .put("_id", 1)
+            .put("fileName", 1)
+            .put("contentType", 1)
+            .put("size", 1);
+
+    /**
+     * Name used in metrics and logs.
+     */
+    String name();
+
+    /**
+     * Completes once the messages are durable as far as the backend guarantees it.
+     */
+    void saveMessages(List<JsonObject> messages, Handler<AsyncResult<Void>> done);
+
+    /**
+     * The last {@code limit} messages sent to the address with an {@code id} below {@code before}, oldest first.
+     * Pass {@link Long#MAX_VALUE} for the latest messages; messages saved before IDs were given may only show
+     * up there.
+     */
+    void recentMessages(String address, long before, int limit, Handler<AsyncResult<List<JsonObject>>> handler);
+
+    /**
+     * Every stored message in the order they were saved.
+     */
+    ReadStream<JsonObject> history(int batchSize);
+
+    /**
+     * Keeps messages for recipients that were offline. Each one holds the recipient {@code address}, a {@code seq}
+     * increasing per address and the {@code message}.
+     */
+    void saveOfflineMessages(List<JsonObject> messages, Handler<AsyncResult<Void>> done);
+
+    /**
+     * The first {@code limit} offline messages kept for the address, in {@code seq} order.
+     */
+    void offlineMessages(String address, int limit, Handler<AsyncResult<List<JsonObject>>> handler);
+
+    /**
+     * Removes the offline messages of the address with the given {@code seqs}.
+     */
+    void trimOfflineMessages(String address, List<Long> seqs, Handler<AsyncResult<Void>> done);
+
+    /**
+     * Adds the member to the room, or removes it if {@code joined} is {@code false}. Repeating either has no effect.
+     */
+    void saveRoomMember(String room, String member, boolean joined, Handler<AsyncResult<Void>> done);
+
+    /**
+     * Every member of every room, each one as its {@code room} and {@code member}.
+     */
+    void roomMembers(Handler<AsyncResult<List<JsonObject>>> handler);
+
+    /**
+     * Completes with the ID given to the image. Counts a reference to the blob named by its {@code sha256}, see
+     * {@link #blobReferences}.
+     */
+    void saveImage(JsonObject image, Handler<AsyncResult<String>> handler);
+
+    /**
+     * Completes with {@code null} if there is no such image.
+     */
+    void findImage(String id, Handler<AsyncResult<JsonObject>> handler);
+
+    /**
+     * Up to {@code limit} images with IDs greater than {@code after} (may be {@code null}) ordered by ID, with only
+     * the {@link #IMAGE_LIST_FIELDS}.
+     */
+    void listImages(String after, int limit, Handler<AsyncResult<List<JsonObject>>> handler);
+
+    /**
+     * The same as {@link #listImages} as a stream.
+     */
+    ReadStream<JsonObject> streamImages(String after, int limit, int batchSize);
+
+    /**
+     * Number of saved images stored in the blob with this SHA-256, {@code 0} for an unknown blob.
+     */
+    void blobReferences(String sha256, Handler<AsyncResult<Long>> handler);
+
+    void close(Handler<AsyncResult<Void>> done);
+}
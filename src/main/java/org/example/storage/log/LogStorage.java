@@ -0,0 +1,598 @@
+package org.example.storage.log;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import org.example.storage.IteratorReadStream;
+import org.example.storage.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embedded {@link Storage} keeping messages, images, offline messages and room members in {@link SegmentedLog}s under
+ * one directory. The position of every message is indexed by address and the position of every image by ID; the
+ * indexes live in memory and are rebuilt by reading the logs when the storage is opened. Trimming offline messages
+ * appends a record that drops them from the index, the log itself is never compacted. Room members are small enough
+ * to be kept in memory outright, their log records every join and leave.
+ * <p>
+ * Writes go to the memory-mapped segments on the caller's thread. A background thread forces them to disk every
+ * {@code fsyncInterval} milliseconds and completes all the saves covered by that sync at once, so many writers share
+ * one fsync. With a negative interval saves complete as soon as they are written and the OS decides when the pages
+ * reach the disk. The same thread creates the next segment of each log ahead of time.
+ * <p>
+ * All verticle instances using the same directory share one instance, see {@link #acquire}.
+ */
+public class LogStorage implements Storage {
+
+    private static final Logger log = LoggerFactory.getLogger(LogStorage.class);
+
+    private static final String DEFAULT_DIRECTORY = "data/log";
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final long DEFAULT_FSYNC_INTERVAL = 5;
+
+    private static final Map<Path, LogStorage> shared = new HashMap<>();
+
+    private final Vertx vertx;
+    private final Path directory;
+    private final SegmentedLog messages;
+    private final SegmentedLog images;
+    private final SegmentedLog offline;
+    private final SegmentedLog rooms;
+    private final Map<String, PositionList> messageIndex = new HashMap<>();
+    private final TreeMap<String, Long> imageIndex = new TreeMap<>();
+    // Positions of the offline messages of each address by seq
+    private final Map<String, TreeMap<Long, Long>> offlineIndex = new HashMap<>();
+    private final Map<String, Set<String>> roomMembers = new HashMap<>();
+    // Guarded by imageIndex
+    private final Map<String, Long> blobReferences = new HashMap<>();
+    private final ArrayDeque<SyncWaiter> syncWaiters = new ArrayDeque<>();
+    private final ScheduledExecutorService syncer;
+    private final long fsyncInterval;
+    private long lastImageSeconds;
+    private long imageCounter;
+    private int references;
+
+    private static class SyncWaiter {
+        final SegmentedLog log;
+        final long position;
+        final Context context;
+        final Handler<AsyncResult<Void>> handler;
+
+        SyncWaiter(SegmentedLog log, long position, Context context, Handler<AsyncResult<Void>> handler) {
+            this.log = log;
+            this.position = position;
+            this.context = context;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * Opens the storage configured by {@code config}, or returns the instance already open for its directory. Blocks
+     * while the logs are read, so must not be called on an event loop. Each call must be paired with a
+     * {@link #close}.
+     */
+    public static LogStorage acquire(Vertx vertx, JsonObject config) throws IOException {
+        final Path directory = Paths.get(config.getString("directory", DEFAULT_DIRECTORY)).toAbsolutePath();
+        synchronized (shared) {
+            LogStorage storage = shared.get(directory);
+            if (storage == null) {
+                storage = new LogStorage(vertx, directory,
+                        config.getInteger("segmentSize", DEFAULT_SEGMENT_SIZE),
+                        config.getLong("fsyncInterval", DEFAULT_FSYNC_INTERVAL));
+                shared.put(directory, storage);
+            }
+            storage.references++;
+            return storage;
+        }
+    }
+
+    LogStorage(Vertx vertx, Path directory, int segmentSize, long fsyncInterval) throws IOException {
+        this.vertx = vertx;
+        this.directory = directory;
+        this.fsyncInterval = fsyncInterval;
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "log-storage-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long startTime = System.currentTimeMillis();
+        try {
+            messages = new SegmentedLog(directory.resolve("messages"), segmentSize, syncer);
+            images = new SegmentedLog(directory.resolve("images"), segmentSize, syncer);
+            offline = new SegmentedLog(directory.resolve("offline"), segmentSize, syncer);
+            rooms = new SegmentedLog(directory.resolve("rooms"), segmentSize, syncer);
+        } catch (IOException | RuntimeException e) {
+            syncer.shutdown();
+            throw e;
+        }
+        final int messageCount = rebuildMessageIndex();
+        rebuildImageIndex();
+        rebuildOfflineIndex();
+        rebuildRoomMembers();
+        log.info("Opened {} with {} messages and {} images in {} ms", directory, messageCount, imageIndex.size(),
+                System.currentTimeMillis() - startTime);
+
+        if (fsyncInterval >= 0) {
+            syncer.scheduleWithFixedDelay(this::sync, fsyncInterval, Math.max(fsyncInterval, 1),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "log";
+    }
+
+    @Override
+    public void saveMessages(List<JsonObject> batch, Handler<AsyncResult<Void>> done) {
+        long position = -1;
+        try {
+            for (JsonObject message : batch) {
+                final byte[] payload = message.toBuffer().getBytes();
+                synchronized (messageIndex) {
+                    position = messages.append(payload);
+                    messageIndex.computeIfAbsent(message.getString("address"), address -> new PositionList())
+                            .add(message.getLong("id", 0L), position);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            done.handle(Future.failedFuture(e));
+            return;
+        }
+        whenSynced(messages, position, done);
+    }
+
+    @Override
+    public void recentMessages(String address, long before, int limit,
+                               Handler<AsyncResult<List<JsonObject>>> handler) {
+        final long[] positions;
+        synchronized (messageIndex) {
+            final PositionList list = messageIndex.get(address);
+            positions = list == null ? new long[0] : list.before(before, limit);
+        }
+        final List<JsonObject> result = new ArrayList<>(positions.length);
+        for (long position : positions) {
+            result.add(decode(messages.read(position).payload()));
+        }
+        handler.handle(Future.succeededFuture(result));
+    }
+
+    @Override
+    public ReadStream<JsonObject> history(int batchSize) {
+        return new IteratorReadStream<>(vertx.getOrCreateContext(), new Iterator<JsonObject>() {
+            // Messages saved after the replay has started are not part of it
+            private final long end = messages.end();
+            private SegmentedLog.Record next = read(messages.start());
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public JsonObject next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                final JsonObject message = decode(next.payload());
+                next = read(next.next());
+                return message;
+            }
+
+            private SegmentedLog.Record read(long position) {
+                final SegmentedLog.Record record = messages.read(position);
+                return record != null && record.position() < end ? record : null;
+            }
+        }, batchSize);
+    }
+
+    @Override
+    public void saveOfflineMessages(List<JsonObject> batch, Handler<AsyncResult<Void>> done) {
+        long position = -1;
+        try {
+            synchronized (offlineIndex) {
+                for (JsonObject message : batch) {
+                    position = offline.append(message.toBuffer().getBytes());
+                    indexOffline(message, position);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            done.handle(Future.failedFuture(e));
+            return;
+        }
+        whenSynced(offline, position, done);
+    }
+
+    @Override
+    public void offlineMessages(String address, int limit, Handler<AsyncResult<List<JsonObject>>> handler) {
+        final List<Long> positions = new ArrayList<>();
+        synchronized (offlineIndex) {
+            final TreeMap<Long, Long> index = offlineIndex.get(address);
+            if (index != null) {
+                for (Long position : index.values()) {
+                    if (positions.size() == limit) {
+                        break;
+                    }
+                    positions.add(position);
+                }
+            }
+        }
+        final List<JsonObject> result = new ArrayList<>(positions.size());
+        for (long position : positions) {
+            result.add(decode(offline.read(position).payload()));
+        }
+        handler.handle(Future.succeededFuture(result));
+    }
+
+    @Override
+    public void trimOfflineMessages(String address, List<Long> seqs, Handler<AsyncResult<Void>> done) {
+        final long position;
+        try {
+            synchronized (offlineIndex) {
+                final JsonObject trim = new JsonObject().put("address", address).put("trim", new JsonArray(seqs));
+                position = offline.append(trim.toBuffer().getBytes());
+                indexOffline(trim, position);
+            }
+        } catch (IOException | RuntimeException e) {
+            done.handle(Future.failedFuture(e));
+            return;
+        }
+        whenSynced(offline, position, done);
+    }
+
+    @Override
+    public void saveRoomMember(String room, String member, boolean joined, Handler<AsyncResult<Void>> done) {
+        final long position;
+        try {
+            synchronized (roomMembers) {
+                final JsonObject record = new JsonObject()
+                        .put("room", room)
+                        .put("member", member)
+                        .put("joined", joined);
+                position = rooms.append(record.toBuffer().getBytes());
+                applyRoomMember(record);
+            }
+        } catch (IOException | RuntimeException e) {
+            done.handle(Future.failedFuture(e));
+            return;
+        }
+        whenSynced(rooms, position, done);
+    }
+
+    @Override
+    public void roomMembers(Handler<AsyncResult<List<JsonObject>>> handler) {
+        final List<JsonObject> result = new ArrayList<>();
+        synchronized (roomMembers) {
+            roomMembers.forEach((room, members) -> members.forEach(member ->
+                    result.add(new JsonObject().put("room", room).put("member", member))));
+        }
+        handler.handle(Future.succeededFuture(result));
+    }
+
+    @Override
+    public void saveImage(JsonObject image, Handler<AsyncResult<String>> handler) {
+        final long position;
+        final String id;
+        try {
+            synchronized (imageIndex) {
+                id = image.containsKey("_id") ? image.getString("_id") : nextImageId();
+                if (imageIndex.containsKey(id)) {
+                    handler.handle(Future.failedFuture("Duplicate image ID: " + id));
+                    return;
+                }
+                position = images.append(image.copy().put("_id", id).toBuffer().getBytes());
+                imageIndex.put(id, position);
+                countBlobReference(image.getString("sha256"));
+            }
+        } catch (IOException | RuntimeException e) {
+            handler.handle(Future.failedFuture(e));
+            return;
+        }
+        whenSynced(images, position, synced -> handler.handle(synced.map(id)));
+    }
+
+    @Override
+    public void findImage(String id, Handler<AsyncResult<JsonObject>> handler) {
+        final Long position;
+        synchronized (imageIndex) {
+            position = imageIndex.get(id);
+        }
+        handler.handle(Future.succeededFuture(position == null ? null : decode(images.read(position).payload())));
+    }
+
+    @Override
+    public void listImages(String after, int limit, Handler<AsyncResult<List<JsonObject>>> handler) {
+        final List<JsonObject> result = new ArrayList<>();
+        imagesAfter(after, limit).forEachRemaining(result::add);
+        handler.handle(Future.succeededFuture(result));
+    }
+
+    @Override
+    public ReadStream<JsonObject> streamImages(String after, int limit, int batchSize) {
+        return new IteratorReadStream<>(vertx.getOrCreateContext(), imagesAfter(after, limit), batchSize);
+    }
+
+    @Override
+    public void blobReferences(String sha256, Handler<AsyncResult<Long>> handler) {
+        final long references;
+        synchronized (imageIndex) {
+            references = blobReferences.getOrDefault(sha256, 0L);
+        }
+        handler.handle(Future.succeededFuture(references));
+    }
+
+    @Override
+    public void close(Handler<AsyncResult<Void>> done) {
+        synchronized (shared) {
+            if (--references > 0) {
+                done.handle(Future.succeededFuture());
+                return;
+            }
+            shared.remove(directory);
+        }
+        vertx.executeBlocking(promise -> {
+            syncer.shutdown();
+            try {
+                messages.close();
+                images.close();
+                offline.close();
+                rooms.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            completeSyncWaiters();
+            promise.complete();
+        }, done);
+    }
+
+    private Iterator<JsonObject> imagesAfter(String after, int limit) {
+        final List<Long> positions = new ArrayList<>(Math.min(limit, 1024));
+        synchronized (imageIndex) {
+            final Map<String, Long> page = after == null ? imageIndex : imageIndex.tailMap(after, false);
+            for (Long position : page.values()) {
+                if (positions.size() == limit) {
+                    break;
+                }
+                positions.add(position);
+            }
+        }
+        final Iterator<Long> iterator = positions.iterator();
+        return new Iterator<JsonObject>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public JsonObject next() {
+                final JsonObject image = decode(images.read(iterator.next()).payload());
+                final JsonObject fields = new JsonObject();
+                for (String field : IMAGE_LIST_FIELDS.fieldNames()) {
+                    if (image.containsKey(field)) {
+                        fields.put(field, image.getValue(field));
+                    }
+                }
+                return fields;
+            }
+        };
+    }
+
+    private void whenSynced(SegmentedLog log, long position, Handler<AsyncResult<Void>> handler) {
+        if (fsyncInterval < 0 || position < 0 || log.synced() > position) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        final SyncWaiter waiter = new SyncWaiter(log, position, vertx.getOrCreateContext(), handler);
+        synchronized (syncWaiters) {
+            syncWaiters.add(waiter);
+        }
+    }
+
+    private void sync() {
+        try {
+            messages.sync();
+            images.sync();
+            offline.sync();
+            rooms.sync();
+        } catch (RuntimeException e) {
+            log.error("Failed to sync " + directory, e);
+            failSyncWaiters(e);
+            return;
+        }
+        completeSyncWaiters();
+    }
+
+    // Whether the pages reached the disk is unknown, so none of the waiting saves can be reported durable
+    private void failSyncWaiters(Throwable cause) {
+        final List<SyncWaiter> failed;
+        synchronized (syncWaiters) {
+            failed = new ArrayList<>(syncWaiters);
+            syncWaiters.clear();
+        }
+        for (SyncWaiter waiter : failed) {
+            waiter.context.runOnContext(ignored -> waiter.handler.handle(Future.failedFuture(cause)));
+        }
+    }
+
+    private void completeSyncWaiters() {
+        final List<SyncWaiter> completed = new ArrayList<>();
+        synchronized (syncWaiters) {
+            final Iterator<SyncWaiter> iterator = syncWaiters.iterator();
+            while (iterator.hasNext()) {
+                final SyncWaiter waiter = iterator.next();
+                if (waiter.log.synced() > waiter.position) {
+                    iterator.remove();
+                    completed.add(waiter);
+                }
+            }
+        }
+        for (SyncWaiter waiter : completed) {
+            waiter.context.runOnContext(ignored -> waiter.handler.handle(Future.succeededFuture()));
+        }
+    }
+
+    private int rebuildMessageIndex() {
+        int count = 0;
+        for (SegmentedLog.Record record = messages.read(messages.start()); record != null;
+             record = messages.read(record.next())) {
+            final JsonObject message = decode(record.payload());
+            messageIndex.computeIfAbsent(message.getString("address"), address -> new PositionList())
+                    .add(message.getLong("id", 0L), record.position());
+            count++;
+        }
+        return count;
+    }
+
+    private void rebuildImageIndex() {
+        for (SegmentedLog.Record record = images.read(images.start()); record != null;
+             record = images.read(record.next())) {
+            final JsonObject image = decode(record.payload());
+            final String id = image.getString("_id");
+            imageIndex.put(id, record.position());
+            countBlobReference(image.getString("sha256"));
+            if (id.length() == 24) {
+                final long seconds = Long.parseLong(id.substring(0, 8), 16);
+                if (seconds >= lastImageSeconds) {
+                    lastImageSeconds = seconds;
+                    imageCounter = Long.parseUnsignedLong(id.substring(8), 16);
+                }
+            }
+        }
+    }
+
+    private void rebuildOfflineIndex() {
+        for (SegmentedLog.Record record = offline.read(offline.start()); record != null;
+             record = offline.read(record.next())) {
+            indexOffline(decode(record.payload()), record.position());
+        }
+    }
+
+    private void indexOffline(JsonObject record, long position) {
+        final String address = record.getString("address");
+        if (record.containsKey("trim")) {
+            final TreeMap<Long, Long> index = offlineIndex.get(address);
+            if (index != null) {
+                for (Object seq : record.getJsonArray("trim")) {
+                    index.remove(((Number) seq).longValue());
+                }
+                if (index.isEmpty()) {
+                    offlineIndex.remove(address);
+                }
+            }
+        } else {
+            offlineIndex.computeIfAbsent(address, ignored -> new TreeMap<>()).put(record.getLong("seq"), position);
+        }
+    }
+
+    private void rebuildRoomMembers() {
+        for (SegmentedLog.Record record = rooms.read(rooms.start()); record != null;
+             record = rooms.read(record.next())) {
+            applyRoomMember(decode(record.payload()));
+        }
+    }
+
+    private void applyRoomMember(JsonObject record) {
+        final String room = record.getString("room");
+        if (record.getBoolean("joined")) {
+            roomMembers.computeIfAbsent(room, ignored -> new LinkedHashSet<>()).add(record.getString("member"));
+            return;
+        }
+        final Set<String> members = roomMembers.get(room);
+        if (members != null && members.remove(record.getString("member")) && members.isEmpty()) {
+            roomMembers.remove(room);
+        }
+    }
+
+    private void countBlobReference(String sha256) {
+        if (sha256 != null) {
+            blobReferences.merge(sha256, 1L, Long::sum);
+        }
+    }
+
+    /**
+     * IDs look like Mongo's: 24 hex digits starting with the creation time, so they sort in the order of creation.
+     */
+    private String nextImageId() {
+        final long seconds = System.currentTimeMillis() / 1000;
+        if (seconds > lastImageSeconds) {
+            lastImageSeconds = seconds;
+            imageCounter = 0;
+        } else {
+            imageCounter++;
+        }
+        return String.format("%08x%016x", lastImageSeconds, imageCounter);
+    }
+
+    private static JsonObject decode(byte[] payload) {
+        return new JsonObject(Buffer.buffer(payload));
+    }
+
+    /**
+     * Positions of messages ordered by ID in growable arrays, so the index does not box a {@code Long} per message.
+     * Messages are saved in about the order of their IDs, so an insert rarely moves more than a few entries.
+     */
+    private static class PositionList {
+        private long[] ids = new long[8];
+        private long[] positions = new long[8];
+        private int size;
+
+        void add(long id, long position) {
+            if (size == positions.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            int index = size;
+            while (index > 0 && ids[index - 1] > id) {
+                index--;
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            System.arraycopy(positions, index, positions, index + 1, size - index);
+            ids[index] = id;
+            positions[index] = position;
+            size++;
+        }
+
+        /**
+         * Positions of the last {@code count} messages with IDs below {@code before}, in ID order.
+         */
+        long[] before(long before, int count) {
+            // Index of the first ID not below before
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (ids[middle] < before) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return Arrays.copyOfRange(positions, Math.max(0, low - count), low);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package org.example.storage.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of byte records stored in memory-mapped segment files of {@code segmentSize} bytes. A record is
+ * written as its length, the CRC32 of its payload and the payload, and never spans segments: when it does not fit into
+ * the active segment a new segment is started. Existing segments keep the size they were created with, so the
+ * segment size can be changed between runs. Given an executor, the log creates the next segment on it once the active
+ * one is half full, so appends do not wait for the file to be allocated and mapped.
+ * <p>
+ * Records are addressed by their position, which is the base of their segment plus their offset in it. Appends are
+ * visible to readers immediately but only durable after {@link #sync()}. When the log is opened the last records are
+ * checked and anything after the first torn or corrupted record is discarded and zeroed.
+ * <p>
+ * Thread-safe: appends are serialized, reads and syncs may run concurrently with them.
+ */
+public class SegmentedLog implements Closeable {
+
+    private static final int HEADER_SIZE = 8;
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Set<Segment> dirty = new LinkedHashSet<>();
+    private final Executor preallocator;
+    private Segment active;
+    // Segment following the active one, created ahead of time
+    private Segment next;
+    private boolean preallocating;
+    private boolean closed;
+    private volatile long end;
+    private volatile long synced;
+
+    public static class Record {
+        private final long position;
+        private final byte[] payload;
+        private final long next;
+
+        Record(long position, byte[] payload, long next) {
+            this.position = position;
+            this.payload = payload;
+            this.next = next;
+        }
+
+        public long position() {
+            return position;
+        }
+
+        public byte[] payload() {
+            return payload;
+        }
+
+        /**
+         * Position to read the following record from.
+         */
+        public long next() {
+            return next;
+        }
+    }
+
+    private static class Segment {
+        final long base;
+        final RandomAccessFile file;
+        final MappedByteBuffer buffer;
+        // Written before the log's end is advanced, so readers that checked the end see it
+        int size;
+
+        Segment(long base, RandomAccessFile file, MappedByteBuffer buffer) {
+            this.base = base;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    public SegmentedLog(Path directory, int segmentSize) throws IOException {
+        this(directory, segmentSize, null);
+    }
+
+    /**
+     * @param preallocator runs the creation of the next segment, or {@code null} to create it when it is needed
+     */
+    public SegmentedLog(Path directory, int segmentSize, Executor preallocator) throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.preallocator = preallocator;
+        Files.createDirectories(directory);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                final long base = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                segments.put(base, open(base));
+            }
+        }
+        for (Segment segment : segments.values()) {
+            recover(segment);
+        }
+        active = segments.isEmpty() ? create(0) : segments.lastEntry().getValue();
+        segments.put(active.base, active);
+        // Appends stopping short of a discarded record would otherwise let recovery read on into its remains
+        if (clearTail(active)) {
+            dirty.add(active);
+        }
+        end = active.base + active.size;
+        synced = end;
+    }
+
+    /**
+     * Returns the position of the record.
+     */
+    public synchronized long append(byte[] payload) throws IOException {
+        // Recovery takes a zero length for the end of the segment
+        if (payload.length == 0) {
+            throw new IllegalArgumentException("Record is empty");
+        }
+        if (HEADER_SIZE + payload.length > segmentSize) {
+            throw new IllegalArgumentException("Record of " + payload.length + " bytes does not fit into a segment");
+        }
+        if (active.size + HEADER_SIZE + payload.length > active.buffer.capacity()) {
+            roll();
+        }
+
+        final int offset = active.size;
+        final ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(offset);
+        buffer.putInt(payload.length).putInt(crc(payload)).put(payload);
+        active.size = buffer.position();
+        dirty.add(active);
+        end = active.base + active.size;
+        if (preallocator != null && next == null && !preallocating && active.size > active.buffer.capacity() / 2) {
+            preallocating = true;
+            try {
+                preallocator.execute(this::preallocate);
+            } catch (RejectedExecutionException e) {
+                preallocating = false;
+            }
+        }
+        return active.base + offset;
+    }
+
+    /**
+     * Reads the record at {@code position}, which must be the position of a record, the {@link Record#next()}
+     * position of one or {@link #start()}. Returns {@code null} at the end of the log.
+     */
+    public Record read(long position) {
+        final long limit = end;
+        Map.Entry<Long, Segment> entry = segments(position);
+        while (entry != null) {
+            final Segment segment = entry.getValue();
+            final int offset = (int) Math.max(0, position - segment.base);
+            if (segment.base + offset >= limit) {
+                return null;
+            }
+            if (offset < segment.size) {
+                final ByteBuffer buffer = segment.buffer.duplicate();
+                final int length = buffer.getInt(offset);
+                final byte[] payload = new byte[length];
+                buffer.position(offset + HEADER_SIZE);
+                buffer.get(payload);
+                return new Record(segment.base + offset, payload, segment.base + offset + HEADER_SIZE + length);
+            }
+            // The rest of the segment is unused, continue with the next one
+            entry = higherSegment(segment.base);
+            position = entry == null ? position : entry.getKey();
+        }
+        return null;
+    }
+
+    public synchronized long start() {
+        return segments.firstKey();
+    }
+
+    public long end() {
+        return end;
+    }
+
+    /**
+     * Position up to which the log is known to be durable.
+     */
+    public long synced() {
+        return synced;
+    }
+
+    /**
+     * Forces the appended records to disk and returns the position up to which the log is durable.
+     */
+    public long sync() {
+        final List<Segment> unsynced;
+        final long position;
+        synchronized (this) {
+            unsynced = new ArrayList<>(dirty);
+            dirty.clear();
+            position = end;
+        }
+        try {
+            for (Segment segment : unsynced) {
+                segment.buffer.force();
+            }
+        } catch (RuntimeException e) {
+            // Forced again by the next sync
+            synchronized (this) {
+                dirty.addAll(unsynced);
+            }
+            throw e;
+        }
+        if (position > synced) {
+            synced = position;
+        }
+        return synced;
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        synchronized (this) {
+            closed = true;
+            for (Segment segment : segments.values()) {
+                segment.file.close();
+            }
+            if (next != null) {
+                next.file.close();
+                next = null;
+            }
+        }
+    }
+
+    private synchronized Map.Entry<Long, Segment> segments(long position) {
+        final Map.Entry<Long, Segment> entry = segments.floorEntry(position);
+        return entry == null ? segments.firstEntry() : entry;
+    }
+
+    private synchronized Map.Entry<Long, Segment> higherSegment(long base) {
+        return segments.higherEntry(base);
+    }
+
+    private void roll() throws IOException {
+        final Segment segment = next != null ? next : create(active.base + active.buffer.capacity());
+        next = null;
+        segments.put(segment.base, segment);
+        active = segment;
+    }
+
+    private void preallocate() {
+        final long base;
+        synchronized (this) {
+            base = active.base + active.buffer.capacity();
+        }
+        Segment segment;
+        try {
+            segment = create(base);
+        } catch (IOException | RuntimeException e) {
+            // Left to the roll, which reports the failure to the append
+            segment = null;
+        }
+        synchronized (this) {
+            preallocating = false;
+            // The log may have been closed or rolled over by an append that could not wait
+            if (segment != null && (closed || base != active.base + active.buffer.capacity())) {
+                closeQuietly(segment);
+                segment = null;
+            }
+            next = segment;
+        }
+    }
+
+    private Segment create(long base) throws IOException {
+        return map(base, true);
+    }
+
+    private Segment open(long base) throws IOException {
+        return map(base, false);
+    }
+
+    private Segment map(long base, boolean create) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(
+                directory.resolve(String.format("%020d%s", base, SUFFIX)).toFile(), "rw");
+        try {
+            // An existing segment is mapped at its own size, setting ours could cut off its records
+            if (create || file.length() == 0) {
+                file.setLength(segmentSize);
+            }
+            final long size = file.length();
+            return new Segment(base, file, file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static void closeQuietly(Segment segment) {
+        try {
+            segment.file.close();
+        } catch (IOException ignored) {
+            // Nothing was written to it
+        }
+    }
+
+    private void recover(Segment segment) {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        int offset = 0;
+        while (offset + HEADER_SIZE <= buffer.capacity()) {
+            final int length = buffer.getInt(offset);
+            if (length <= 0 || offset + HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            final byte[] payload = new byte[length];
+            buffer.position(offset + HEADER_SIZE);
+            buffer.get(payload);
+            if (crc(payload) != buffer.getInt(offset + 4)) {
+                break;
+            }
+            offset += HEADER_SIZE + length;
+        }
+        segment.size = offset;
+    }
+
+    private static boolean clearTail(Segment segment) {
+        boolean cleared = false;
+        for (int offset = segment.size; offset < segment.buffer.capacity(); offset++) {
+            if (segment.buffer.get(offset) != 0) {
+                segment.buffer.put(offset, (byte) 0);
+                cleared = true;
+            }
+        }
+        return cleared;
+    }
+
+    private static int crc(byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+}
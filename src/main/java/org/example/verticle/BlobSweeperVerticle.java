@@ -0,0 +1,144 @@
+package org.example.verticle;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.file.FileProps;
+import io.vertx.core.json.JsonObject;
+import org.example.metrics.Metrics;
+import org.example.storage.BlobStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import static org.example.verticle.util.Addresses.DATABASE_BLOB_REFERENCES;
+import static org.example.verticle.util.ReplyMessages.error;
+import static org.example.verticle.util.ReplyMessages.getResult;
+import static org.example.verticle.util.ReplyMessages.isError;
+
+/**
+ * Deletes the image blobs no saved image refers to, see {@link BlobStore}. Every {@code blobSweepInterval}
+ * milliseconds one of the 256 top-level blob directories is swept, one file at a time with asynchronous file system
+ * calls, so a full pass takes 256 intervals. Temporary files left by interrupted uploads are swept once per pass.
+ * <p>
+ * Files modified within {@code blobGracePeriod} milliseconds are left alone, they may belong to an upload that has
+ * not been saved yet. Must be deployed as a single instance.
+ */
+public class BlobSweeperVerticle extends AbstractVerticle {
+
+    private static final Logger log = LoggerFactory.getLogger(BlobSweeperVerticle.class);
+
+    private static final String DEFAULT_IMAGE_DIRECTORY = "file-uploads";
+    private static final long DEFAULT_SWEEP_INTERVAL = 10_000;
+    private static final long DEFAULT_GRACE_PERIOD = 3_600_000;
+
+    private static final LongAdder swept = Metrics.counter("image_blobs_swept_total");
+    private static final LongAdder sweptTemp = Metrics.counter("image_temp_files_swept_total");
+    private static final LongAdder errors = Metrics.counter("image_blob_sweep_errors_total");
+
+    private BlobStore blobs;
+    private long sweepInterval;
+    private long gracePeriod;
+    private int nextPrefix;
+
+    @Override
+    public void start() {
+        blobs = new BlobStore(vertx, config().getString("imageDirectory", DEFAULT_IMAGE_DIRECTORY));
+        sweepInterval = config().getLong("blobSweepInterval", DEFAULT_SWEEP_INTERVAL);
+        gracePeriod = config().getLong("blobGracePeriod", DEFAULT_GRACE_PERIOD);
+        scheduleStep();
+    }
+
+    private void scheduleStep() {
+        vertx.setTimer(sweepInterval, ignored -> step());
+    }
+
+    private void step() {
+        final int prefix = nextPrefix;
+        nextPrefix = (nextPrefix + 1) % 256;
+        final Handler<Void> next = ignored -> scheduleStep();
+        sweepBlobs(Paths.get(blobs.directory(), String.format("%02x", prefix)).toString(),
+                prefix == 0 ? ignored -> sweepTempFiles(next) : next);
+    }
+
+    private void sweepBlobs(String directory, Handler<Void> done) {
+        readDir(directory, subdirectories -> forEach(subdirectories, (subdirectory, next) ->
+                readDir(subdirectory, files -> forEach(files, this::sweepBlob, next)), done));
+    }
+
+    private void sweepBlob(String path, Handler<Void> done) {
+        final String sha256 = Paths.get(path).getFileName().toString();
+        if (!BlobStore.isBlobName(sha256)) {
+            done.handle(null);
+            return;
+        }
+        whenOld(path, done, () -> vertx.eventBus().send(DATABASE_BLOB_REFERENCES, sha256,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    final JsonObject result = asyncResult.succeeded() ?
+                            asyncResult.result().body() :
+                            error(asyncResult.cause());
+                    if (isError(result)) {
+                        errors.increment();
+                        log.warn("Failed to count the references to blob {}: {}", sha256, result);
+                        done.handle(null);
+                    } else if (getResult(result).getLong("references") > 0) {
+                        done.handle(null);
+                    } else {
+                        // An upload of the same content may have refreshed the blob while it was being counted
+                        whenOld(path, done, () -> delete(path, swept, done));
+                    }
+                }));
+    }
+
+    private void sweepTempFiles(Handler<Void> done) {
+        readDir(blobs.tempDirectory(), files -> forEach(files, (path, next) ->
+                whenOld(path, next, () -> delete(path, sweptTemp, next)), done));
+    }
+
+    private void whenOld(String path, Handler<Void> otherwise, Runnable action) {
+        vertx.fileSystem().props(path, asyncProps -> {
+            final FileProps props = asyncProps.succeeded() ? asyncProps.result() : null;
+            if (props != null && props.isRegularFile()
+                    && props.lastModifiedTime() < System.currentTimeMillis() - gracePeriod) {
+                action.run();
+            } else {
+                otherwise.handle(null);
+            }
+        });
+    }
+
+    private void delete(String path, LongAdder counter, Handler<Void> done) {
+        vertx.fileSystem().delete(path, deleted -> {
+            if (deleted.succeeded()) {
+                counter.increment();
+            } else {
+                errors.increment();
+                log.warn("Failed to delete " + path, deleted.cause());
+            }
+            done.handle(null);
+        });
+    }
+
+    /**
+     * A missing directory is the same as an empty one.
+     */
+    private void readDir(String directory, Handler<Iterator<String>> handler) {
+        vertx.fileSystem().readDir(directory, asyncResult -> handler.handle(asyncResult.succeeded() ?
+                asyncResult.result().iterator() :
+                Collections.emptyIterator()));
+    }
+
+    private static void forEach(Iterator<String> items, BiConsumer<String, Handler<Void>> action, Handler<Void> done) {
+        if (items.hasNext()) {
+            action.accept(items.next(), ignored -> forEach(items, action, done));
+        } else {
+            done.handle(null);
+        }
+    }
+}
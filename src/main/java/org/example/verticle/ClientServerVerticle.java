@@ -19,6 +19,6 @@ public class ClientServerVerticle extends AbstractVerticle {
                 );
         httpServer.requestHandler(httpRouter::accept);
 
-        httpServer.listen(8082);
+        httpServer.listen(config().getInteger("port", 8082));
     }
 }
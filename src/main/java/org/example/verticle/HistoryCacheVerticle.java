@@ -0,0 +1,167 @@
+package org.example.verticle;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.example.cache.LruCache;
+import org.example.cache.RingBuffer;
+import org.example.data.Data;
+import org.example.data.DataCodec;
+import org.example.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_GET_RECENT;
+import static org.example.verticle.util.Addresses.GET_RECENT_HISTORY;
+import static org.example.verticle.util.Addresses.HISTORY_CACHE_PUT;
+import static org.example.verticle.util.ReplyMessages.error;
+import static org.example.verticle.util.ReplyMessages.getResult;
+import static org.example.verticle.util.ReplyMessages.isError;
+import static org.example.verticle.util.ReplyMessages.success;
+
+/**
+ * Serves the last messages sent to an address from memory. An address is loaded from the database on the first
+ * request and kept up to date from the routing flow afterwards; least recently requested addresses are evicted once
+ * the cached messages take more than {@code maxBytes} by estimate. Must be deployed as a single instance.
+ * <p>
+ * The last messages routed to addresses that are not cached are kept as well, within {@code recentBytes}: they may
+ * still be waiting in the storage's write-behind queue when the address is loaded, so they are merged into what the
+ * database returns.
+ */
+public class HistoryCacheVerticle extends AbstractVerticle {
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryCacheVerticle.class);
+
+    private static final int DEFAULT_MESSAGES_PER_ADDRESS = 50;
+    private static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+    private static final long DEFAULT_RECENT_BYTES = 8 * 1024 * 1024;
+    // Headers and fields of a message and its strings
+    private static final long MESSAGE_OVERHEAD = 96;
+
+    private int messagesPerAddress;
+    private LruCache<String, RingBuffer<Data>> cache;
+    // Messages routed to addresses that are not cached
+    private LruCache<String, RingBuffer<Data>> recent;
+    // Requests waiting for their address to be loaded
+    private final Map<String, List<Message<String>>> loadingRequests = new HashMap<>();
+
+    @Override
+    public void start() {
+        messagesPerAddress = config().getInteger("messagesPerAddress", DEFAULT_MESSAGES_PER_ADDRESS);
+        DataCodec.register(vertx);
+        cache = new LruCache<>("history_cache", config().getLong("maxBytes", DEFAULT_MAX_BYTES),
+                HistoryCacheVerticle::estimateSize);
+        recent = new LruCache<>("history_cache_recent", config().getLong("recentBytes", DEFAULT_RECENT_BYTES),
+                HistoryCacheVerticle::estimateSize);
+        vertx.eventBus().consumer(HISTORY_CACHE_PUT, this::put);
+        vertx.eventBus().consumer(GET_RECENT_HISTORY, this::getRecentHistory);
+    }
+
+    private void put(Message<Data> message) {
+        final Data data = message.body();
+        final String address = data.getAddress();
+        final RingBuffer<Data> messages = cache.peek(address);
+        if (messages != null) {
+            messages.add(data);
+            cache.reweigh(address);
+            return;
+        }
+        RingBuffer<Data> routed = recent.peek(address);
+        if (routed == null) {
+            routed = new RingBuffer<>(messagesPerAddress);
+        }
+        routed.add(data);
+        recent.put(address, routed);
+    }
+
+    private void getRecentHistory(Message<String> message) {
+        final String address = message.body();
+        final RingBuffer<Data> messages = cache.get(address);
+        if (messages != null) {
+            message.reply(toReply(messages));
+            return;
+        }
+
+        final List<Message<String>> waiting = loadingRequests.get(address);
+        if (waiting != null) {
+            waiting.add(message);
+            return;
+        }
+
+        final List<Message<String>> requests = new ArrayList<>();
+        requests.add(message);
+        loadingRequests.put(address, requests);
+
+        final JsonObject query = new JsonObject()
+                .put("address", address)
+                .put("limit", messagesPerAddress);
+        vertx.eventBus().send(DATABASE_MESSAGE_GET_RECENT, query, Metrics.timed(DATABASE_MESSAGE_GET_RECENT,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    loadingRequests.remove(address);
+                    final JsonObject result = asyncResult.succeeded() ?
+                            asyncResult.result().body() :
+                            error(asyncResult.cause());
+
+                    if (isError(result)) {
+                        log.error("Failed to load recent history for address: {}", address);
+                        requests.forEach(request -> request.reply(result));
+                        return;
+                    }
+
+                    final List<Data> merged = new ArrayList<>();
+                    final Set<Long> storedIds = new HashSet<>();
+                    for (Object stored : getResult(result).getJsonArray("messages")) {
+                        final Data data = Data.fromJson((JsonObject) stored);
+                        merged.add(data);
+                        storedIds.add(data.getId());
+                    }
+                    // Routed messages may or may not have been saved by the time the query ran
+                    final RingBuffer<Data> routed = recent.remove(address);
+                    if (routed != null) {
+                        for (Data data : routed.toList()) {
+                            if (!storedIds.contains(data.getId())) {
+                                merged.add(data);
+                            }
+                        }
+                        merged.sort(Comparator.comparingLong(Data::getId));
+                    }
+                    final RingBuffer<Data> loaded = new RingBuffer<>(messagesPerAddress);
+                    merged.forEach(loaded::add);
+                    cache.put(address, loaded);
+
+                    final JsonObject reply = toReply(loaded);
+                    requests.forEach(request -> request.reply(reply));
+                }));
+    }
+
+    private static long estimateSize(RingBuffer<Data> messages) {
+        long size = 0;
+        for (Data data : messages.toList()) {
+            // UTF-16 characters, once in the fields and once in the cached encoding
+            size += MESSAGE_OVERHEAD + 4L * (length(data.getAddress()) + length(data.getText()));
+        }
+        return size;
+    }
+
+    private static int length(String text) {
+        return text == null ? 0 : text.length();
+    }
+
+    private static JsonObject toReply(RingBuffer<Data> messages) {
+        final JsonArray array = new JsonArray();
+        for (Data data : messages.toList()) {
+            array.add(data.toJson());
+        }
+        return success(new JsonObject().put("messages", array));
+    }
+}
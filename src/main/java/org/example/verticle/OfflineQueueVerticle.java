@@ -0,0 +1,251 @@
+package org.example.verticle;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.example.data.Data;
+import org.example.data.DataCodec;
+import org.example.data.MessageIds;
+import org.example.metrics.Metrics;
+import org.example.verticle.util.LocalPresence;
+import org.example.verticle.util.RateLimitedLogger;
+import org.example.verticle.util.WriteBehindQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.example.verticle.util.Addresses.DATABASE_OFFLINE_GET;
+import static org.example.verticle.util.Addresses.DATABASE_OFFLINE_SAVE;
+import static org.example.verticle.util.Addresses.DATABASE_OFFLINE_TRIM;
+import static org.example.verticle.util.Addresses.OFFLINE_QUEUE_ACK;
+import static org.example.verticle.util.Addresses.OFFLINE_QUEUE_PUT;
+import static org.example.verticle.util.Addresses.OFFLINE_QUEUE_REPLAY;
+import static org.example.verticle.util.ReplyMessages.error;
+import static org.example.verticle.util.ReplyMessages.getResult;
+import static org.example.verticle.util.ReplyMessages.isError;
+import static org.example.verticle.util.ReplyMessages.success;
+
+/**
+ * Messages routed to a token address without a connected socket, replayed to the next socket of the address. Each
+ * address keeps up to {@code memoryLimit} messages in memory and all addresses together at most
+ * {@code maxMemoryMessages}; past that messages are spilled to storage in batches. Messages are numbered by a
+ * {@code seq}, a {@link MessageIds message ID} so it is unique in the cluster, and only dropped once the socket
+ * acknowledges that their replay was written, so they survive a socket that closes during the replay. Stored messages
+ * are dropped by their seqs: those of other nodes need not sort after the replayed ones.
+ * <p>
+ * Must be deployed as a single instance per node. In clustered mode every message is spilled, the recipient may
+ * connect to any node.
+ */
+public class OfflineQueueVerticle extends AbstractVerticle {
+
+    private static final Logger log = LoggerFactory.getLogger(OfflineQueueVerticle.class);
+
+    private static final int DEFAULT_MEMORY_LIMIT = 100;
+    private static final int DEFAULT_MAX_MEMORY_MESSAGES = 100_000;
+    private static final int DEFAULT_MAX_REPLAY = 1000;
+    private static final int DEFAULT_SPILL_BATCH_SIZE = 100;
+    private static final long DEFAULT_SPILL_FLUSH_INTERVAL = 50;
+    private static final int DEFAULT_SPILL_QUEUE_SIZE = 10_000;
+
+    private static final LongAdder inMemory = Metrics.counter("offline_messages_in_memory");
+    private static final LongAdder replayed = Metrics.counter("offline_messages_replayed_total");
+    private static final LongAdder dropped = Metrics.counter("offline_messages_dropped_total");
+
+    private final RateLimitedLogger dropLog = new RateLimitedLogger(log, 10, 1000);
+    // Messages of each address in seq order, as {seq, message}
+    private final Map<String, ArrayDeque<JsonObject>> memory = new HashMap<>();
+    // Messages of each address on their way to storage, replays of the address wait for them
+    private final Map<String, Integer> spilling = new HashMap<>();
+    private final Map<String, List<Message<String>>> waitingReplays = new HashMap<>();
+    private WriteBehindQueue<JsonObject> spills;
+    // Only used in standalone mode
+    private LocalPresence presence;
+    private int memoryLimit;
+    private int maxMemoryMessages;
+    private int maxReplay;
+    private int memoryMessages;
+
+    @Override
+    public void start() {
+        memoryLimit = vertx.isClustered() ? 0 : config().getInteger("memoryLimit", DEFAULT_MEMORY_LIMIT);
+        maxMemoryMessages = config().getInteger("maxMemoryMessages", DEFAULT_MAX_MEMORY_MESSAGES);
+        maxReplay = config().getInteger("maxReplay", DEFAULT_MAX_REPLAY);
+        spills = new WriteBehindQueue<>(vertx, "offline_spill",
+                config().getInteger("spillBatchSize", DEFAULT_SPILL_BATCH_SIZE),
+                config().getLong("spillFlushInterval", DEFAULT_SPILL_FLUSH_INTERVAL),
+                config().getInteger("spillQueueSize", DEFAULT_SPILL_QUEUE_SIZE),
+                this::writeSpills);
+        if (!vertx.isClustered()) {
+            presence = new LocalPresence(vertx);
+        }
+        DataCodec.register(vertx);
+        vertx.eventBus().localConsumer(OFFLINE_QUEUE_PUT, this::put);
+        vertx.eventBus().localConsumer(OFFLINE_QUEUE_REPLAY, this::replay);
+        vertx.eventBus().localConsumer(OFFLINE_QUEUE_ACK, this::ack);
+    }
+
+    @Override
+    public void stop(Promise<Void> stopPromise) {
+        // Whatever is still in memory goes to storage rather than being lost
+        memory.forEach((address, queue) -> queue.forEach(entry -> spill(address, entry)));
+        spills.close(closed -> stopPromise.complete());
+    }
+
+    private void put(Message<Data> message) {
+        final Data data = message.body();
+        final String address = "/token/" + data.getAddress();
+        if (presence != null && presence.isConnected(address)) {
+            // Connected since the router looked, the socket has asked for its replay already
+            vertx.eventBus().publish(address, data, new DeliveryOptions().setLocalOnly(true));
+            return;
+        }
+
+        final JsonObject entry = new JsonObject().put("seq", MessageIds.next()).put("message", data.toJson());
+        final ArrayDeque<JsonObject> queue = memory.get(address);
+        if ((queue == null ? 0 : queue.size()) < memoryLimit && memoryMessages < maxMemoryMessages) {
+            memory.computeIfAbsent(address, ignored -> new ArrayDeque<>()).addLast(entry);
+            memoryMessages++;
+            inMemory.increment();
+        } else {
+            spill(address, entry);
+        }
+    }
+
+    /**
+     * Replies with the oldest queued messages of the address, {@code more} if there are others, and the {@code ack}
+     * to send back once the messages are written.
+     */
+    private void replay(Message<String> message) {
+        final String address = message.body();
+        if (spilling.containsKey(address)) {
+            waitingReplays.computeIfAbsent(address, ignored -> new ArrayList<>()).add(message);
+            return;
+        }
+
+        final JsonObject request = new JsonObject().put("address", address).put("limit", maxReplay);
+        vertx.eventBus().send(DATABASE_OFFLINE_GET, request, Metrics.timed(DATABASE_OFFLINE_GET,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    final JsonObject result = asyncResult.succeeded() ?
+                            asyncResult.result().body() :
+                            error(asyncResult.cause());
+                    if (isError(result)) {
+                        message.reply(result);
+                        return;
+                    }
+
+                    final JsonArray stored = getResult(result).getJsonArray("messages");
+                    final boolean more = stored.size() >= maxReplay;
+                    final long storedUpTo = stored.isEmpty() ? -1 : stored.getJsonObject(stored.size() - 1)
+                            .getLong("seq");
+                    final List<JsonObject> entries = new ArrayList<>(stored.size());
+                    final JsonArray storedSeqs = new JsonArray();
+                    for (int i = 0; i < stored.size(); i++) {
+                        entries.add(stored.getJsonObject(i));
+                        storedSeqs.add(stored.getJsonObject(i).getLong("seq"));
+                    }
+                    // Messages after the stored ones that did not fit wait for the next replay
+                    long memoryUpTo = -1;
+                    for (JsonObject entry : memory.getOrDefault(address, new ArrayDeque<>())) {
+                        if (more && entry.getLong("seq") > storedUpTo) {
+                            break;
+                        }
+                        entries.add(entry);
+                        memoryUpTo = entry.getLong("seq");
+                    }
+                    entries.sort(Comparator.comparingLong(entry -> entry.getLong("seq")));
+
+                    final JsonArray messages = new JsonArray();
+                    for (JsonObject entry : entries) {
+                        messages.add(entry.getJsonObject("message"));
+                    }
+                    replayed.add(messages.size());
+                    message.reply(success(new JsonObject()
+                            .put("messages", messages)
+                            .put("more", more)
+                            .put("ack", new JsonObject()
+                                    .put("address", address)
+                                    .put("stored", storedSeqs)
+                                    .put("memory", memoryUpTo))));
+                }));
+    }
+
+    private void ack(Message<JsonObject> message) {
+        final JsonObject ack = message.body();
+        final String address = ack.getString("address");
+        final ArrayDeque<JsonObject> queue = memory.get(address);
+        if (queue != null) {
+            final long memoryUpTo = ack.getLong("memory");
+            while (!queue.isEmpty() && queue.peekFirst().getLong("seq") <= memoryUpTo) {
+                queue.pollFirst();
+                memoryMessages--;
+                inMemory.decrement();
+            }
+            if (queue.isEmpty()) {
+                memory.remove(address);
+            }
+        }
+
+        final JsonArray storedSeqs = ack.getJsonArray("stored");
+        if (storedSeqs.isEmpty()) {
+            message.reply(success(null));
+            return;
+        }
+        final JsonObject request = new JsonObject().put("address", address).put("seqs", storedSeqs);
+        vertx.eventBus().send(DATABASE_OFFLINE_TRIM, request, Metrics.timed(DATABASE_OFFLINE_TRIM,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> message.reply(asyncResult.succeeded() ?
+                        asyncResult.result().body() :
+                        error(asyncResult.cause()))));
+    }
+
+    private void spill(String address, JsonObject entry) {
+        final boolean queued = spills.offer(entry.put("address", address), flushed -> {
+            if (flushed.failed()) {
+                dropped.increment();
+                dropLog.warn("Failed to spill offline message for {}: {}", address, flushed.cause().getMessage());
+            }
+            spilled(address);
+        });
+        if (queued) {
+            spilling.merge(address, 1, Integer::sum);
+        } else {
+            dropped.increment();
+            dropLog.warn("Offline spill queue is full, dropping message for {}", address);
+        }
+    }
+
+    private void spilled(String address) {
+        if (spilling.merge(address, -1, Integer::sum) > 0) {
+            return;
+        }
+        spilling.remove(address);
+        final List<Message<String>> replays = waitingReplays.remove(address);
+        if (replays != null) {
+            replays.forEach(this::replay);
+        }
+    }
+
+    private void writeSpills(List<JsonObject> batch, Handler<AsyncResult<Void>> done) {
+        final JsonObject request = new JsonObject().put("messages", new JsonArray(batch));
+        vertx.eventBus().send(DATABASE_OFFLINE_SAVE, request, Metrics.timed(DATABASE_OFFLINE_SAVE,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    final JsonObject result = asyncResult.succeeded() ?
+                            asyncResult.result().body() :
+                            error(asyncResult.cause());
+                    done.handle(isError(result) ? Future.failedFuture(result.getString("error")) :
+                            Future.succeededFuture());
+                }));
+    }
+}
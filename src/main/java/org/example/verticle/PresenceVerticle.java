@@ -0,0 +1,66 @@
+package org.example.verticle;
+
+import com.hazelcast.core.Cluster;
+import com.hazelcast.core.MembershipAdapter;
+import com.hazelcast.core.MembershipEvent;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.impl.VertxInternal;
+import io.vertx.core.spi.cluster.ClusterManager;
+import io.vertx.spi.cluster.hazelcast.HazelcastClusterManager;
+import org.example.cluster.PresenceDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Removes nodes that have left the cluster from the presence directory. Deployed once per node in clustered mode;
+ * only the oldest node of the cluster purges.
+ */
+public class PresenceVerticle extends AbstractVerticle {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceVerticle.class);
+
+    private PresenceDirectory presence;
+    private ClusterManager clusterManager;
+    private String membershipListener;
+
+    @Override
+    public void start() {
+        presence = new PresenceDirectory(vertx);
+        clusterManager = ((VertxInternal) vertx).getClusterManager();
+        if (clusterManager instanceof HazelcastClusterManager) {
+            final Cluster cluster = ((HazelcastClusterManager) clusterManager).getHazelcastInstance().getCluster();
+            membershipListener = cluster.addMembershipListener(new MembershipAdapter() {
+                @Override
+                public void memberRemoved(MembershipEvent event) {
+                    context.runOnContext(ignored -> purge());
+                }
+            });
+        }
+        // Nodes may have died while no node was left to clean up after them
+        purge();
+    }
+
+    @Override
+    public void stop() {
+        if (membershipListener != null) {
+            ((HazelcastClusterManager) clusterManager).getHazelcastInstance().getCluster()
+                    .removeMembershipListener(membershipListener);
+        }
+    }
+
+    private void purge() {
+        final List<String> nodes = clusterManager.getNodes();
+        if (nodes.isEmpty() || !nodes.get(0).equals(presence.nodeId())) {
+            return;
+        }
+        presence.purge(nodes, purged -> {
+            if (purged.failed()) {
+                log.error("Failed to purge presence directory", purged.cause());
+            } else if (purged.result() > 0) {
+                log.info("Purged {} addresses of nodes that left the cluster", purged.result());
+            }
+        });
+    }
+}
@@ -3,31 +3,54 @@ package org.example.verticle;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
-import io.vertx.core.file.AsyncFile;
-import io.vertx.core.file.FileSystem;
-import io.vertx.core.file.OpenOptions;
 import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonObject;
-import io.vertx.core.streams.Pump;
-import io.vertx.ext.web.FileUpload;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
+import org.example.cache.ImageMetadataCache;
+import org.example.data.Data;
+import org.example.data.DataCodec;
+import org.example.metrics.Metrics;
+import org.example.storage.BlobStore;
+import org.example.verticle.util.ByteRange;
+import org.example.verticle.util.ChunkedStreams;
+import org.example.verticle.util.Hashes;
+import org.example.verticle.util.LoadShedder;
+import org.example.verticle.util.StreamingUpload;
+import org.example.verticle.util.Thumbnails;
+import org.example.verticle.util.TokenBuckets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import static org.example.verticle.util.Addresses.DATABASE_IMAGE_GET;
-import static org.example.verticle.util.Addresses.DATABASE_IMAGE_GET_ALL_IDS;
+import static org.example.verticle.util.Addresses.DATABASE_IMAGE_LIST;
 import static org.example.verticle.util.Addresses.DATABASE_IMAGE_SAVE;
+import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_GET_RECENT;
 import static org.example.verticle.util.Addresses.GET_HISTORY;
+import static org.example.verticle.util.Addresses.GET_RECENT_HISTORY;
+import static org.example.verticle.util.Addresses.IMAGE_THUMBNAIL;
+import static org.example.verticle.util.Addresses.ROOM_MEMBERS;
+import static org.example.verticle.util.Addresses.ROOM_MEMBER_SAVE;
 import static org.example.verticle.util.Addresses.ROUTER;
+import static org.example.verticle.util.Addresses.SEARCH;
+import static org.example.verticle.util.Headers.RECEIVED_AT;
 import static org.example.verticle.util.ReplyMessages.error;
 import static org.example.verticle.util.ReplyMessages.getResult;
 import static org.example.verticle.util.ReplyMessages.isError;
@@ -36,88 +59,513 @@ public class RestServerVerticle extends AbstractVerticle {
 
     private static final Logger log = LoggerFactory.getLogger(RestServerVerticle.class);
 
+    // Uploaded images are never modified, the ETag is the hash of the content
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private static final int MAX_IMAGE_PAGE_SIZE = 1000;
+    private static final int DEFAULT_HISTORY_PAGE_SIZE = 50;
+    private static final int MAX_HISTORY_PAGE_SIZE = 1000;
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_SEARCH_LIMIT = 100;
+    private static final int DEFAULT_IMAGE_CACHE_SIZE = 10000;
+    private static final long DEFAULT_IMAGE_CACHE_NEGATIVE_TTL = 5000;
+    private static final String DEFAULT_IMAGE_DIRECTORY = "file-uploads";
+    private static final long DEFAULT_MAX_IMAGE_SIZE = 10 * 1024 * 1024;
+    private static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 16;
+    private static final long DEFAULT_MAX_MESSAGE_SIZE = 64 * 1024;
+    private static final double DEFAULT_RATE_LIMIT = 20;
+    private static final int DEFAULT_RATE_BURST = 40;
+    // Several clients may share a host
+    private static final double DEFAULT_HOST_RATE_LIMIT = 100;
+    private static final int DEFAULT_HOST_RATE_BURST = 200;
+    private static final long DEFAULT_MAX_ROUTER_LAG = 1000;
+    private static final long DEFAULT_MAX_STORAGE_BACKLOG = 8000;
+    private static final String MULTIPART = "multipart/form-data";
+    private static final int MAX_THUMBNAIL_SIZE = 4096;
+    private static final int[] INVALID_THUMBNAIL_SIZE = {};
+
+    // Shared by all instances, the limit is for the whole process
+    private static final AtomicInteger uploadsInProgress = new AtomicInteger();
+    private static final LongAdder uploadsGauge = Metrics.counter("image_uploads_in_progress");
+
+    private ImageMetadataCache imageCache;
+    private BlobStore blobs;
+    private long maxImageSize;
+    private int maxConcurrentUploads;
+    // Null if rate limiting is disabled
+    private TokenBuckets rateLimits;
+    private TokenBuckets hostRateLimits;
+    private LoadShedder loadShedder;
+
     @Override
-    public void start() {
+    public void start(Promise<Void> startPromise) {
+        DataCodec.register(vertx);
+        imageCache = new ImageMetadataCache("image_cache",
+                config().getInteger("imageCacheSize", DEFAULT_IMAGE_CACHE_SIZE),
+                config().getLong("imageCacheNegativeTtl", DEFAULT_IMAGE_CACHE_NEGATIVE_TTL));
+        blobs = new BlobStore(vertx, config().getString("imageDirectory", DEFAULT_IMAGE_DIRECTORY));
+        maxImageSize = config().getLong("maxImageSize", DEFAULT_MAX_IMAGE_SIZE);
+        maxConcurrentUploads = config().getInteger("maxConcurrentUploads", DEFAULT_MAX_CONCURRENT_UPLOADS);
+        final double rateLimit = config().getDouble("rateLimit", DEFAULT_RATE_LIMIT);
+        rateLimits = rateLimit > 0 ?
+                TokenBuckets.shared(vertx, "rest", rateLimit, config().getInteger("rateBurst", DEFAULT_RATE_BURST)) :
+                null;
+        final double hostRateLimit = config().getDouble("hostRateLimit", DEFAULT_HOST_RATE_LIMIT);
+        hostRateLimits = hostRateLimit > 0 ?
+                TokenBuckets.shared(vertx, "rest-host", hostRateLimit,
+                        config().getInteger("hostRateBurst", DEFAULT_HOST_RATE_BURST)) :
+                null;
+        loadShedder = new LoadShedder(config().getLong("maxRouterLag", DEFAULT_MAX_ROUTER_LAG),
+                config().getLong("maxStorageBacklog", DEFAULT_MAX_STORAGE_BACKLOG));
+        vertx.fileSystem().mkdirsBlocking(blobs.tempDirectory());
         HttpServer httpServer = vertx.createHttpServer();
         Router httpRouter = Router.router(vertx);
-        httpRouter.route().handler(BodyHandler.create());
+        // Only messages are buffered, images are streamed to their file by uploadImage
+        // Messages are admitted before their body is read
         httpRouter.post("/sendMessage")
-                .handler(request -> {
-                    vertx.eventBus().send(ROUTER, request.getBodyAsString());
-                    request.response().end("ok");
-                });
-        httpRouter.get("/getHistory")
-                .handler(request ->
-                        vertx.eventBus().send(GET_HISTORY, request.getBodyAsString(), result ->
-                                request.response().end(result.result().body().toString())
-                        )
+                .handler(this::admitMessage)
+                .handler(BodyHandler.create(false)
+                        .setBodyLimit(config().getLong("maxMessageSize", DEFAULT_MAX_MESSAGE_SIZE)))
+                .handler(this::sendMessage);
+        httpRouter.get("/getHistory").handler(this::getHistory);
+        httpRouter.get("/history/:address").handler(this::getHistoryPage);
+        httpRouter.get("/search").handler(this::search);
+        httpRouter.get("/rooms/:room/members").handler(this::getRoomMembers);
+        httpRouter.put("/rooms/:room/members/:member").handler(context -> saveRoomMember(context, true));
+        httpRouter.delete("/rooms/:room/members/:member").handler(context -> saveRoomMember(context, false));
+        httpRouter.get("/stats")
+                .handler(request -> request.response()
+                        .putHeader("Content-Type", "application/json")
+                        .end(Metrics.snapshot().encode())
+                );
+        httpRouter.get("/metrics")
+                .handler(request -> request.response()
+                        .putHeader("Content-Type", "text/plain; version=0.0.4")
+                        .end(Metrics.prometheus())
                 );
         httpRouter.post("/images").handler(this::uploadImage);
-        httpRouter.get("/images").handler(this::getAllImageIds);
+        httpRouter.get("/images").handler(this::listImages);
         httpRouter.get("/images/:id").handler(this::getImage);
         httpServer.requestHandler(httpRouter::accept);
-        httpServer.listen(8081);
+        httpServer.listen(config().getInteger("port", 8081), listen -> {
+            if (listen.succeeded()) {
+                startPromise.complete();
+            } else {
+                startPromise.fail(listen.cause());
+            }
+        });
     }
 
-    private void getImage(RoutingContext context) {
-        final String imageId = context.request().getParam("id");
-        if (imageId == null) {
+    /**
+     * Sheds messages while the server is behind and limits the rate per client host and, on top of that, per
+     * {@code token} parameter. The token is chosen by the client, so it cannot lift the limit of the host.
+     */
+    private void admitMessage(RoutingContext context) {
+        final String shed = loadShedder.shed();
+        if (shed != null) {
+            rejectMessage(context, HttpResponseStatus.SERVICE_UNAVAILABLE, shed, "Server is overloaded", 1000);
+            return;
+        }
+        final String token = context.request().getParam("token");
+        long retryAfter = hostRateLimits == null ? 0 : hostRateLimits.tryAcquire(
+                context.request().remoteAddress().host());
+        if (retryAfter == 0 && token != null && rateLimits != null) {
+            retryAfter = rateLimits.tryAcquire(token);
+        }
+        if (retryAfter > 0) {
+            rejectMessage(context, HttpResponseStatus.TOO_MANY_REQUESTS, "rate_limit", "Rate limit exceeded",
+                    retryAfter);
+            return;
+        }
+        context.next();
+    }
+
+    private void rejectMessage(RoutingContext context, HttpResponseStatus status, String reason, String message,
+                               long retryAfter) {
+        Metrics.counter("messages_rejected_total", "edge", "rest", "reason", reason).increment();
+        context.response()
+                .setStatusCode(status.code())
+                .putHeader("Content-Type", "application/json")
+                .putHeader("Retry-After", String.valueOf((retryAfter + 999) / 1000))
+                .end(error(message).put("retryAfter", retryAfter).encodePrettily());
+    }
+
+    private void sendMessage(RoutingContext context) {
+        final Data data;
+        try {
+            data = Data.decode(context.getBodyAsString());
+        } catch (DecodeException e) {
             context.response()
                     .setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
                     .putHeader("Content-Type", "application/json")
-                    .end(error("Missing required parameter: id").encodePrettily());
+                    .end(error("Malformed message: " + e.getMessage()).encodePrettily());
             return;
         }
 
-        vertx.eventBus().send(DATABASE_IMAGE_GET, imageId, (AsyncResult<Message<JsonObject>> asyncResult) -> {
-            final JsonObject result = asyncResult.result().body();
+        final DeliveryOptions options = new DeliveryOptions().addHeader(RECEIVED_AT, Metrics.timestamp());
+        vertx.eventBus().send(ROUTER, data, options, Metrics.timed(ROUTER,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    final JsonObject result = asyncResult.succeeded() ?
+                            asyncResult.result().body() :
+                            error(asyncResult.cause());
+                    if (isError(result)) {
+                        context.response()
+                                .setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                                .putHeader("Content-Type", "application/json")
+                                .end(result.encodePrettily());
+                    } else {
+                        context.response().end("ok");
+                    }
+                }));
+    }
 
-            if (isError(result)) {
+    private void getHistory(RoutingContext context) {
+        final String address = context.request().getParam("address");
+        if (address == null) {
+            ChunkedStreams.toResponse(vertx, GET_HISTORY, new JsonObject(), context.response());
+            return;
+        }
+
+        // Every node caches the history routed in the whole cluster
+        final DeliveryOptions options = new DeliveryOptions().setLocalOnly(true);
+        vertx.eventBus().send(GET_RECENT_HISTORY, address, options, Metrics.timed(GET_RECENT_HISTORY,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    final JsonObject result = asyncResult.succeeded() ?
+                            asyncResult.result().body() :
+                            error(asyncResult.cause());
+                    if (isError(result)) {
+                        context.response()
+                                .setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                                .putHeader("Content-Type", "application/json")
+                                .end(result.encodePrettily());
+                        return;
+                    }
+                    context.response()
+                            .putHeader("Content-Type", ChunkedStreams.NDJSON)
+                            .end(ChunkedStreams.toNdjson(getResult(result).getJsonArray("messages")));
+                }));
+    }
+
+    /**
+     * A page of the messages sent to an address before the {@code before} cursor. Pages go from the newest messages to
+     * the oldest, the messages within a page are oldest first. Replies with the page and the {@code next} cursor to the
+     * older page.
+     */
+    private void getHistoryPage(RoutingContext context) {
+        final JsonObject request = new JsonObject()
+                .put("address", context.request().getParam("address"))
+                .put("limit", DEFAULT_HISTORY_PAGE_SIZE);
+        final String limit = context.request().getParam("limit");
+        if (limit != null) {
+            final int pageSize = parsePageSize(limit, MAX_HISTORY_PAGE_SIZE);
+            if (pageSize < 1) {
                 context.response()
-                        .setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                        .setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
+                        .putHeader("Content-Type", "application/json")
+                        .end(error("Expected limit from 1 to " + MAX_HISTORY_PAGE_SIZE + ", actual: " + limit)
+                                .encodePrettily());
+                return;
+            }
+            request.put("limit", pageSize);
+        }
+        final String before = context.request().getParam("before");
+        if (before != null) {
+            try {
+                request.put("before", Long.parseLong(before));
+            } catch (NumberFormatException e) {
+                context.response()
+                        .setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
                         .putHeader("Content-Type", "application/json")
-                        .end(result.encodePrettily());
+                        .end(error("Invalid cursor: " + before).encodePrettily());
                 return;
             }
+        }
 
-            final JsonObject imageFile = getResult(result);
+        vertx.eventBus().send(DATABASE_MESSAGE_GET_RECENT, request, Metrics.timed(DATABASE_MESSAGE_GET_RECENT,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    final JsonObject result = asyncResult.succeeded() ?
+                            asyncResult.result().body() :
+                            error(asyncResult.cause());
+                    context.response()
+                            .setStatusCode(isError(result) ?
+                                    HttpResponseStatus.INTERNAL_SERVER_ERROR.code() :
+                                    HttpResponseStatus.OK.code())
+                            .putHeader("Content-Type", "application/json")
+                            .end(result.encode());
+                }));
+    }
 
-            if (imageFile == null) {
+    /**
+     * The most recent messages holding every word of {@code q}, within the {@code address} if given.
+     */
+    private void search(RoutingContext context) {
+        final String query = context.request().getParam("q");
+        if (query == null || query.trim().isEmpty()) {
+            context.response()
+                    .setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
+                    .putHeader("Content-Type", "application/json")
+                    .end(error("Missing required parameter: q").encodePrettily());
+            return;
+        }
+        final JsonObject request = new JsonObject()
+                .put("q", query)
+                .put("address", context.request().getParam("address"))
+                .put("limit", DEFAULT_SEARCH_LIMIT);
+        final String limit = context.request().getParam("limit");
+        if (limit != null) {
+            final int resultCount = parsePageSize(limit, MAX_SEARCH_LIMIT);
+            if (resultCount < 1) {
                 context.response()
-                        .setStatusCode(HttpResponseStatus.NOT_FOUND.code())
+                        .setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
                         .putHeader("Content-Type", "application/json")
-                        .end(error("Failed to find image by ID: " + imageId).encodePrettily());
+                        .end(error("Expected limit from 1 to " + MAX_SEARCH_LIMIT + ", actual: " + limit)
+                                .encodePrettily());
                 return;
             }
+            request.put("limit", resultCount);
+        }
 
-            vertx.fileSystem().open(imageFile.getString("uploadedFileName"), new OpenOptions(), asyncRead -> {
-                if (asyncRead.failed()) {
+        // Every node indexes the messages saved in the whole cluster
+        final DeliveryOptions options = new DeliveryOptions().setLocalOnly(true);
+        vertx.eventBus().send(SEARCH, request, options, Metrics.timed(SEARCH,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    final JsonObject result = asyncResult.succeeded() ?
+                            asyncResult.result().body() :
+                            error(asyncResult.cause());
                     context.response()
-                            .setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                            .setStatusCode(isError(result) ?
+                                    HttpResponseStatus.INTERNAL_SERVER_ERROR.code() :
+                                    HttpResponseStatus.OK.code())
                             .putHeader("Content-Type", "application/json")
-                            .end(error(asyncRead.cause()).encodePrettily());
-                    return;
+                            .end(result.encode());
+                }));
+    }
+
+    private void getRoomMembers(RoutingContext context) {
+        final DeliveryOptions options = new DeliveryOptions().setLocalOnly(true);
+        vertx.eventBus().send(ROOM_MEMBERS, context.request().getParam("room"), options, Metrics.timed(ROOM_MEMBERS,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> replyRoomMembers(context, asyncResult)));
+    }
+
+    /**
+     * Adds the member token to the room, or removes it. Messages sent to the room afterwards reach its sockets.
+     */
+    private void saveRoomMember(RoutingContext context, boolean joined) {
+        final JsonObject change = new JsonObject()
+                .put("room", context.request().getParam("room"))
+                .put("member", context.request().getParam("member"))
+                .put("joined", joined);
+        final DeliveryOptions options = new DeliveryOptions().setLocalOnly(true);
+        vertx.eventBus().send(ROOM_MEMBER_SAVE, change, options, Metrics.timed(ROOM_MEMBER_SAVE,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> replyRoomMembers(context, asyncResult)));
+    }
+
+    private static void replyRoomMembers(RoutingContext context, AsyncResult<Message<JsonObject>> asyncResult) {
+        final JsonObject result = asyncResult.succeeded() ?
+                asyncResult.result().body() :
+                error(asyncResult.cause());
+        context.response()
+                .setStatusCode(isError(result) ?
+                        HttpResponseStatus.INTERNAL_SERVER_ERROR.code() :
+                        HttpResponseStatus.OK.code())
+                .putHeader("Content-Type", "application/json")
+                .end(result.encode());
+    }
+
+    private void getImage(RoutingContext context) {
+        final String imageId = context.request().getParam("id");
+        if (imageId == null) {
+            context.response()
+                    .setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
+                    .putHeader("Content-Type", "application/json")
+                    .end(error("Missing required parameter: id").encodePrettily());
+            return;
+        }
+
+        final int[] thumbnailSize = parseThumbnailSize(context.request());
+        if (thumbnailSize == INVALID_THUMBNAIL_SIZE) {
+            context.response()
+                    .setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
+                    .putHeader("Content-Type", "application/json")
+                    .end(error("Expected w and h from 1 to " + MAX_THUMBNAIL_SIZE).encodePrettily());
+            return;
+        }
+
+        final JsonObject cached = imageCache.get(imageId);
+        if (cached != null) {
+            sendImage(context, imageId, ImageMetadataCache.isNotFound(cached) ? null : cached, thumbnailSize);
+            return;
+        }
+
+        vertx.eventBus().send(DATABASE_IMAGE_GET, imageId, Metrics.timed(DATABASE_IMAGE_GET,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    final JsonObject result = asyncResult.succeeded() ?
+                            asyncResult.result().body() :
+                            error(asyncResult.cause());
+
+                    if (isError(result)) {
+                        context.response()
+                                .setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                                .putHeader("Content-Type", "application/json")
+                                .end(result.encodePrettily());
+                        return;
+                    }
+
+                    final JsonObject imageFile = getResult(result);
+                    imageCache.put(imageId, imageFile);
+                    sendImage(context, imageId, imageFile, thumbnailSize);
+                }));
+    }
+
+    private void sendImage(RoutingContext context, String imageId, JsonObject imageFile, int[] thumbnailSize) {
+        if (imageFile == null) {
+            context.response()
+                    .setStatusCode(HttpResponseStatus.NOT_FOUND.code())
+                    .putHeader("Content-Type", "application/json")
+                    .end(error("Failed to find image by ID: " + imageId).encodePrettily());
+            return;
+        }
+
+        if (imageFile.getString("sha256") != null) {
+            sendImageOrThumbnail(context, imageFile, thumbnailSize);
+            return;
+        }
+        // Uploaded before hashes were stored
+        Hashes.sha256(vertx, imageFile.getString("uploadedFileName"), asyncHash -> {
+            if (asyncHash.failed()) {
+                context.response()
+                        .setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                        .putHeader("Content-Type", "application/json")
+                        .end(error(asyncHash.cause()).encodePrettily());
+                return;
+            }
+            // Cached metadata is shared with later requests
+            imageFile.put("sha256", asyncHash.result());
+            sendImageOrThumbnail(context, imageFile, thumbnailSize);
+        });
+    }
+
+    private void sendImageOrThumbnail(RoutingContext context, JsonObject imageFile, int[] thumbnailSize) {
+        // Other formats cannot be resized and are sent as they are
+        if (thumbnailSize == null || !Thumbnails.SUPPORTED_TYPES.contains(imageFile.getString("contentType"))) {
+            sendImageFile(context, imageFile);
+            return;
+        }
+
+        final JsonObject request = new JsonObject()
+                .put("source", imageFile.getString("uploadedFileName"))
+                .put("sha256", imageFile.getString("sha256"))
+                .put("contentType", imageFile.getString("contentType"))
+                .put("width", thumbnailSize[0])
+                .put("height", thumbnailSize[1]);
+        // Thumbnails are cached on the local disk
+        final DeliveryOptions options = new DeliveryOptions().setLocalOnly(true);
+        vertx.eventBus().send(IMAGE_THUMBNAIL, request, options, Metrics.timed(IMAGE_THUMBNAIL,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    final JsonObject result = asyncResult.succeeded() ?
+                            asyncResult.result().body() :
+                            error(asyncResult.cause());
+                    if (isError(result)) {
+                        context.response()
+                                .setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                                .putHeader("Content-Type", "application/json")
+                                .end(result.encodePrettily());
+                        return;
+                    }
+                    final JsonObject thumbnail = getResult(result);
+                    sendImageFile(context, new JsonObject()
+                            .put("uploadedFileName", thumbnail.getString("path"))
+                            .put("sha256", thumbnail.getString("variant"))
+                            .put("fileName", imageFile.getString("fileName"))
+                            .put("contentType", thumbnail.getString("contentType")));
+                }));
+    }
+
+    /**
+     * Returns {@code null} if neither {@code w} nor {@code h} is given, a missing one does not limit the size.
+     */
+    private static int[] parseThumbnailSize(HttpServerRequest request) {
+        final String width = request.getParam("w");
+        final String height = request.getParam("h");
+        if (width == null && height == null) {
+            return null;
+        }
+        try {
+            final int[] size = {
+                    width == null ? MAX_THUMBNAIL_SIZE : Integer.parseInt(width),
+                    height == null ? MAX_THUMBNAIL_SIZE : Integer.parseInt(height)
+            };
+            for (int dimension : size) {
+                if (dimension < 1 || dimension > MAX_THUMBNAIL_SIZE) {
+                    return INVALID_THUMBNAIL_SIZE;
                 }
+            }
+            return size;
+        } catch (NumberFormatException e) {
+            return INVALID_THUMBNAIL_SIZE;
+        }
+    }
 
-                final String disposition = "attachment; filename*=UTF-8''" +
-                        encode(imageFile.getString("fileName"));
+    private void sendImageFile(RoutingContext context, JsonObject imageFile) {
+        final String path = imageFile.getString("uploadedFileName");
+        final String etag = "\"" + imageFile.getString("sha256") + "\"";
+        final HttpServerRequest request = context.request();
+        final HttpServerResponse response = context.response()
+                .putHeader("ETag", etag)
+                .putHeader("Cache-Control", CACHE_CONTROL);
+
+        if (matchesEtag(request.getHeader("If-None-Match"), etag)) {
+            response.setStatusCode(HttpResponseStatus.NOT_MODIFIED.code()).end();
+            return;
+        }
 
-                final HttpServerResponse response = context.response()
-                        .putHeader("Content-Type", imageFile.getString("contentType"))
-                        .putHeader("Content-Disposition", disposition);
+        vertx.fileSystem().props(path, asyncProps -> {
+            if (asyncProps.failed()) {
+                response.headers().remove("ETag").remove("Cache-Control");
+                response.setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                        .putHeader("Content-Type", "application/json")
+                        .end(error(asyncProps.cause()).encodePrettily());
+                return;
+            }
 
-                response.setChunked(true);
+            final long size = asyncProps.result().size();
+            final String disposition = "attachment; filename*=UTF-8''" + encode(imageFile.getString("fileName"));
+            response.putHeader("Content-Type", imageFile.getString("contentType"))
+                    .putHeader("Content-Disposition", disposition)
+                    .putHeader("Accept-Ranges", "bytes");
 
-                final AsyncFile asyncFile = asyncRead.result();
-                asyncFile.endHandler(ignored -> {
-                    asyncFile.close();
-                    response.end();
-                });
+            // A range of a different representation than the client already has would corrupt it
+            final String ifRange = request.getHeader("If-Range");
+            final ByteRange range = ifRange == null || ifRange.equals(etag) ?
+                    ByteRange.parse(request.getHeader("Range"), size) :
+                    null;
 
-                Pump.pump(asyncFile, response).start();
-            });
+            if (range == ByteRange.UNSATISFIABLE) {
+                response.setStatusCode(HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE.code())
+                        .putHeader("Content-Range", "bytes */" + size)
+                        .end();
+            } else if (range != null) {
+                response.setStatusCode(HttpResponseStatus.PARTIAL_CONTENT.code())
+                        .putHeader("Content-Range", range.contentRange(size))
+                        .sendFile(path, range.start(), range.length());
+            } else {
+                response.sendFile(path);
+            }
         });
+    }
 
+    private static boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            final String tag = candidate.trim();
+            // If-None-Match uses the weak comparison
+            if (tag.equals("*") || tag.equals(etag) || tag.startsWith("W/") && tag.substring(2).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private static String encode(String string) {
@@ -128,74 +576,249 @@ public class RestServerVerticle extends AbstractVerticle {
         }
     }
 
-    private void getAllImageIds(RoutingContext context) {
-        vertx.eventBus().send(DATABASE_IMAGE_GET_ALL_IDS, null,
+    private void listImages(RoutingContext context) {
+        final JsonObject request = new JsonObject().put("after", context.request().getParam("after"));
+        final String limit = context.request().getParam("limit");
+        if (limit != null) {
+            final int pageSize = parsePageSize(limit, MAX_IMAGE_PAGE_SIZE);
+            if (pageSize < 1) {
+                context.response()
+                        .setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
+                        .putHeader("Content-Type", "application/json")
+                        .end(error("Expected limit from 1 to " + MAX_IMAGE_PAGE_SIZE + ", actual: " + limit)
+                                .encodePrettily());
+                return;
+            }
+            request.put("limit", pageSize);
+        }
+
+        final String accept = context.request().getHeader("Accept");
+        if (accept != null && accept.contains(ChunkedStreams.NDJSON)) {
+            ChunkedStreams.toResponse(vertx, DATABASE_IMAGE_LIST, request, context.response());
+            return;
+        }
+
+        vertx.eventBus().send(DATABASE_IMAGE_LIST, request, Metrics.timed(DATABASE_IMAGE_LIST,
                 (AsyncResult<Message<JsonObject>> asyncResult) -> {
-                    final JsonObject result = asyncResult.result().body();
+                    final JsonObject result = asyncResult.succeeded() ?
+                            asyncResult.result().body() :
+                            error(asyncResult.cause());
                     context.response()
                             .setStatusCode(isError(result) ?
                                     HttpResponseStatus.INTERNAL_SERVER_ERROR.code() :
                                     HttpResponseStatus.OK.code())
                             .putHeader("Content-Type", "application/json")
-                            .end(result.encodePrettily());
-                });
+                            .end(result.encode());
+                }));
+    }
+
+    private static int parsePageSize(String limit, int max) {
+        try {
+            final int pageSize = Integer.parseInt(limit);
+            return pageSize <= max ? pageSize : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     private void uploadImage(RoutingContext context) {
-        final Set<FileUpload> fileUploads = context.fileUploads();
-        if (fileUploads.size() != 1) {
-            deleteFileUploads(context);
-            context.response()
-                    .setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
-                    .putHeader("Content-Type", "application/json")
-                    .end(error("Multiple image upload is not supported").encodePrettily());
+        final HttpServerRequest request = context.request();
+        final String contentType = request.getHeader("Content-Type");
+        final boolean multipart = contentType != null && contentType.toLowerCase().startsWith(MULTIPART);
+        if (!multipart && !isImage(contentType)) {
+            rejectUpload(context, HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE, "content_type",
+                    "Expected Content-Type: image, actual: " + contentType);
+            return;
+        }
+        // A multipart body is larger than the image, so its length is only checked while streaming
+        if (!multipart && contentLength(request) > maxImageSize) {
+            rejectUpload(context, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, "size",
+                    "Image is larger than " + maxImageSize + " bytes");
+            return;
+        }
+        if (uploadsInProgress.incrementAndGet() > maxConcurrentUploads) {
+            uploadsInProgress.decrementAndGet();
+            context.response().putHeader("Retry-After", "1");
+            rejectUpload(context, HttpResponseStatus.SERVICE_UNAVAILABLE, "concurrency",
+                    "Too many uploads in progress");
             return;
         }
 
-        final FileUpload fileUpload = fileUploads.iterator().next();
-        final String contentType = fileUpload.contentType();
-        if (!contentType.startsWith("image/")) {
-            deleteFileUploads(context);
-            context.response().setStatusCode(HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE.code())
-                    .putHeader("Content-Type", "application/json")
-                    .end(error("Expected Content-Type: image, actual: " + contentType).encodePrettily());
+        uploadsGauge.increment();
+        final boolean[] released = {false};
+        final Handler<Void> release = ignored -> {
+            if (!released[0]) {
+                released[0] = true;
+                uploadsInProgress.decrementAndGet();
+                uploadsGauge.decrement();
+            }
+        };
+        context.addBodyEndHandler(release);
+        context.response().closeHandler(release);
+
+        if (multipart) {
+            receiveMultipart(context);
             return;
         }
+        final String fileName = request.getParam("fileName");
+        StreamingUpload.receive(vertx, request, blobs.newTempPath(), maxImageSize, uploaded -> {
+            if (uploaded.failed()) {
+                failUpload(context, uploaded.cause());
+                return;
+            }
+            saveImage(context, imageMessage(uploaded.result(), fileName == null ? "image" : fileName, contentType));
+        });
+    }
 
-        final JsonObject imageMessage = new JsonObject()
-                .put("uploadedFileName", fileUpload.uploadedFileName())
-                .put("fileName", fileUpload.fileName())
-                .put("size", fileUpload.size())
-                .put("contentType", fileUpload.contentType());
+    /**
+     * Streams the file parts of a multipart form, the content type of each part is checked before it is written.
+     */
+    private void receiveMultipart(RoutingContext context) {
+        final HttpServerRequest request = context.request();
+        final List<Future<JsonObject>> images = new ArrayList<>();
 
-        vertx.eventBus().send(DATABASE_IMAGE_SAVE, imageMessage, (AsyncResult<Message<JsonObject>> async) -> {
-            final JsonObject result = async.result().body();
-            if (isError(result)) {
-                deleteFileUploads(context);
-                context.response().setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code());
+        request.setExpectMultipart(true);
+        request.uploadHandler(upload -> {
+            final Promise<JsonObject> image = Promise.promise();
+            images.add(image.future());
+            if (images.size() > 1 || !isImage(upload.contentType())) {
+                // Answered once the whole form is read
+                upload.handler(ignored -> {
+                });
+                image.fail(upload.contentType());
+                return;
             }
-            context.response()
-                    .putHeader("Content-Type", "application/json")
-                    .end(result.encodePrettily());
+            StreamingUpload.receive(vertx, upload, blobs.newTempPath(), maxImageSize, uploaded -> {
+                if (uploaded.failed()) {
+                    failUpload(context, uploaded.cause());
+                    image.fail(uploaded.cause());
+                } else {
+                    image.complete(imageMessage(uploaded.result(), upload.filename(), upload.contentType()));
+                }
+            });
+        });
+        request.endHandler(ignored -> {
+            if (context.response().ended()) {
+                deleteUploads(images);
+            } else if (images.size() > 1) {
+                deleteUploads(images);
+                rejectUpload(context, HttpResponseStatus.BAD_REQUEST, "count",
+                        "Multiple image upload is not supported");
+            } else if (images.isEmpty()) {
+                rejectUpload(context, HttpResponseStatus.BAD_REQUEST, "count", "Missing image file");
+            } else if (images.get(0).failed()) {
+                rejectUpload(context, HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE, "content_type",
+                        "Expected Content-Type: image, actual: " + images.get(0).cause().getMessage());
+            } else {
+                images.get(0).setHandler(image -> {
+                    if (image.succeeded()) {
+                        saveImage(context, image.result());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Moves the upload to its blob and saves the image. The blob may be shared with other images, so it is left to
+     * the {@link BlobSweeperVerticle} if the image cannot be saved.
+     */
+    private void saveImage(RoutingContext context, JsonObject imageMessage) {
+        final String tempPath = imageMessage.getString("uploadedFileName");
+        blobs.store(tempPath, imageMessage.getString("sha256"), stored -> {
+            if (stored.failed()) {
+                deleteFile(tempPath);
+                failUpload(context, stored.cause());
+                return;
+            }
+            imageMessage.put("uploadedFileName", stored.result());
+            sendImageSave(context, imageMessage);
         });
     }
 
-    private void deleteFileUploads(RoutingContext context) {
-        for (FileUpload fileUpload : context.fileUploads()) {
-            FileSystem fileSystem = context.vertx().fileSystem();
-            String uploadedFileName = fileUpload.uploadedFileName();
-            fileSystem.exists(uploadedFileName, existResult -> {
-                if (existResult.failed()) {
-                    log.warn("Could not detect if uploaded file exists, not deleting: " + uploadedFileName,
-                            existResult.cause());
-                } else if (existResult.result()) {
-                    fileSystem.delete(uploadedFileName, deleteResult -> {
-                        if (deleteResult.failed()) {
-                            log.warn("Delete of uploaded file failed: " + uploadedFileName, deleteResult.cause());
-                        }
-                    });
+    private void sendImageSave(RoutingContext context, JsonObject imageMessage) {
+        vertx.eventBus().send(DATABASE_IMAGE_SAVE, imageMessage, Metrics.timed(DATABASE_IMAGE_SAVE,
+                (AsyncResult<Message<JsonObject>> async) -> {
+                    final JsonObject result = async.succeeded() ? async.result().body() : error(async.cause());
+                    if (isError(result)) {
+                        context.response().setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code());
+                    } else {
+                        final JsonObject image = getResult(result);
+                        imageCache.put(image.getString("_id"), image);
+                    }
+                    context.response()
+                            .putHeader("Content-Type", "application/json")
+                            .end(result.encodePrettily());
+                }));
+    }
+
+    private void failUpload(RoutingContext context, Throwable cause) {
+        if (context.response().ended()) {
+            return;
+        }
+        if (cause instanceof StreamingUpload.TooLargeException) {
+            rejectUpload(context, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, "size", cause.getMessage());
+            return;
+        }
+        log.warn("Failed to receive image", cause);
+        context.response()
+                .setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                .putHeader("Content-Type", "application/json")
+                .end(error(cause).encodePrettily());
+    }
+
+    private void rejectUpload(RoutingContext context, HttpResponseStatus status, String reason, String message) {
+        Metrics.counter("image_uploads_rejected_total", "reason", reason).increment();
+        final HttpServerRequest request = context.request();
+        final HttpServerResponse response = context.response()
+                .setStatusCode(status.code())
+                .putHeader("Content-Type", "application/json");
+        if (request.isEnded()) {
+            response.end(error(message).encodePrettily());
+        } else {
+            // Do not wait for the rest of a body that is not going to be stored
+            response.putHeader("Connection", "close")
+                    .end(error(message).encodePrettily(), ended -> request.connection().close());
+        }
+    }
+
+    private JsonObject imageMessage(StreamingUpload.Result upload, String fileName, String contentType) {
+        return new JsonObject()
+                .put("uploadedFileName", upload.path())
+                .put("fileName", fileName)
+                .put("size", upload.size())
+                .put("contentType", contentType)
+                .put("sha256", upload.sha256());
+    }
+
+    private static boolean isImage(String contentType) {
+        return contentType != null && contentType.toLowerCase().startsWith("image/");
+    }
+
+    private static long contentLength(HttpServerRequest request) {
+        try {
+            final String contentLength = request.getHeader("Content-Length");
+            return contentLength == null ? -1 : Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void deleteUploads(List<Future<JsonObject>> images) {
+        for (Future<JsonObject> image : images) {
+            image.setHandler(asyncResult -> {
+                if (asyncResult.succeeded()) {
+                    deleteFile(asyncResult.result().getString("uploadedFileName"));
                 }
             });
         }
     }
+
+    private void deleteFile(String path) {
+        vertx.fileSystem().delete(path, deleteResult -> {
+            if (deleteResult.failed()) {
+                log.warn("Delete of uploaded file failed: " + path, deleteResult.cause());
+            }
+        });
+    }
 }
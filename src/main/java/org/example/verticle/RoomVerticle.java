@@ -0,0 +1,164 @@
+package org.example.verticle;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.example.data.Data;
+import org.example.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.example.verticle.util.Addresses.DATABASE_ROOM_MEMBER_LIST;
+import static org.example.verticle.util.Addresses.DATABASE_ROOM_MEMBER_SAVE;
+import static org.example.verticle.util.Addresses.ROOM_MEMBERS;
+import static org.example.verticle.util.Addresses.ROOM_MEMBERSHIPS;
+import static org.example.verticle.util.Addresses.ROOM_MEMBER_CHANGED;
+import static org.example.verticle.util.Addresses.ROOM_MEMBER_SAVE;
+import static org.example.verticle.util.Addresses.ROOM_MEMBER_SYNC;
+import static org.example.verticle.util.ReplyMessages.error;
+import static org.example.verticle.util.ReplyMessages.getResult;
+import static org.example.verticle.util.ReplyMessages.isError;
+import static org.example.verticle.util.ReplyMessages.success;
+
+/**
+ * Members of the rooms, see {@link Data#ROOM_PREFIX}. Every node keeps all of them in memory, loaded from storage at
+ * startup. A change is saved first and then published to the room verticle of every node, which passes it on to the
+ * WebSocket verticles of its node in {@code ROOM_MEMBER_CHANGED}. Those ask for the rooms of a token when its first
+ * socket connects and follow the changes from then on; both come from this verticle, so they arrive in order.
+ * <p>
+ * Requests wait until the members are loaded. Must be deployed as a single instance per node.
+ */
+public class RoomVerticle extends AbstractVerticle {
+
+    private static final Logger log = LoggerFactory.getLogger(RoomVerticle.class);
+
+    private static final long DEFAULT_LOAD_RETRY_INTERVAL = 5000;
+
+    private static final LongAdder memberships = Metrics.counter("room_memberships");
+
+    private final Map<String, Set<String>> roomMembers = new HashMap<>();
+    private final Map<String, Set<String>> memberRooms = new HashMap<>();
+    // Null once loaded
+    private List<Runnable> waiting = new ArrayList<>();
+    private long loadRetryInterval;
+
+    @Override
+    public void start() {
+        loadRetryInterval = config().getLong("loadRetryInterval", DEFAULT_LOAD_RETRY_INTERVAL);
+        vertx.eventBus().localConsumer(ROOM_MEMBER_SAVE, this::save);
+        vertx.eventBus().localConsumer(ROOM_MEMBERS, this::getMembers);
+        vertx.eventBus().localConsumer(ROOM_MEMBERSHIPS, this::getRooms);
+        vertx.eventBus().consumer(ROOM_MEMBER_SYNC, this::sync);
+        load();
+    }
+
+    private void load() {
+        vertx.eventBus().send(DATABASE_ROOM_MEMBER_LIST, null, Metrics.timed(DATABASE_ROOM_MEMBER_LIST,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    final JsonObject result = asyncResult.succeeded() ?
+                            asyncResult.result().body() :
+                            error(asyncResult.cause());
+                    if (isError(result)) {
+                        log.warn("Failed to load room members, retrying: {}", result.getString("error"));
+                        vertx.setTimer(loadRetryInterval, ignored -> load());
+                        return;
+                    }
+                    for (Object entry : getResult(result).getJsonArray("members")) {
+                        final JsonObject member = (JsonObject) entry;
+                        add(member.getString("room"), member.getString("member"));
+                    }
+                    log.info("Loaded {} room members", memberRooms.values().stream().mapToInt(Set::size).sum());
+                    final List<Runnable> requests = waiting;
+                    waiting = null;
+                    requests.forEach(Runnable::run);
+                }));
+    }
+
+    /**
+     * Expects the {@code room}, the {@code member} token and whether it {@code joined} or left.
+     */
+    private void save(Message<JsonObject> message) {
+        final JsonObject change = message.body();
+        vertx.eventBus().send(DATABASE_ROOM_MEMBER_SAVE, change, Metrics.timed(DATABASE_ROOM_MEMBER_SAVE,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    final JsonObject result = asyncResult.succeeded() ?
+                            asyncResult.result().body() :
+                            error(asyncResult.cause());
+                    if (!isError(result)) {
+                        vertx.eventBus().publish(ROOM_MEMBER_SYNC, change);
+                    }
+                    message.reply(result);
+                }));
+    }
+
+    private void sync(Message<JsonObject> message) {
+        if (waiting != null) {
+            // Applied after the loaded members, which may or may not include it
+            waiting.add(() -> sync(message));
+            return;
+        }
+        final JsonObject change = message.body();
+        final String room = change.getString("room");
+        final String member = change.getString("member");
+        final boolean changed = change.getBoolean("joined") ? add(room, member) : remove(room, member);
+        if (changed) {
+            vertx.eventBus().publish(ROOM_MEMBER_CHANGED, change, new DeliveryOptions().setLocalOnly(true));
+        }
+    }
+
+    private void getMembers(Message<String> message) {
+        if (waiting != null) {
+            waiting.add(() -> getMembers(message));
+            return;
+        }
+        final Set<String> members = roomMembers.getOrDefault(message.body(), Collections.emptySet());
+        message.reply(success(new JsonObject().put("members", new JsonArray(new ArrayList<>(members)))));
+    }
+
+    private void getRooms(Message<String> message) {
+        if (waiting != null) {
+            waiting.add(() -> getRooms(message));
+            return;
+        }
+        final Set<String> rooms = memberRooms.getOrDefault(message.body(), Collections.emptySet());
+        message.reply(success(new JsonObject().put("rooms", new JsonArray(new ArrayList<>(rooms)))));
+    }
+
+    private boolean add(String room, String member) {
+        if (!roomMembers.computeIfAbsent(room, ignored -> new HashSet<>()).add(member)) {
+            return false;
+        }
+        memberRooms.computeIfAbsent(member, ignored -> new HashSet<>()).add(room);
+        memberships.increment();
+        return true;
+    }
+
+    private boolean remove(String room, String member) {
+        final Set<String> members = roomMembers.get(room);
+        if (members == null || !members.remove(member)) {
+            return false;
+        }
+        if (members.isEmpty()) {
+            roomMembers.remove(room);
+        }
+        final Set<String> rooms = memberRooms.get(member);
+        rooms.remove(room);
+        if (rooms.isEmpty()) {
+            memberRooms.remove(member);
+        }
+        memberships.decrement();
+        return true;
+    }
+}
@@ -1,28 +1,132 @@
 package org.example.verticle;
 
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.MultiMap;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
-import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import org.example.cluster.PresenceDirectory;
 import org.example.data.Data;
+import org.example.data.DataCodec;
+import org.example.metrics.Metrics;
+import org.example.verticle.util.LoadShedder;
+import org.example.verticle.util.LocalPresence;
+import org.example.verticle.util.RateLimitedLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_SAVE;
+import static org.example.verticle.util.Addresses.HISTORY_CACHE_PUT;
+import static org.example.verticle.util.Addresses.OFFLINE_QUEUE_PUT;
+import static org.example.verticle.util.Addresses.ROOM_DELIVER;
 import static org.example.verticle.util.Addresses.ROUTER;
+import static org.example.verticle.util.Addresses.node;
+import static org.example.verticle.util.Headers.ORIGIN;
+import static org.example.verticle.util.Headers.RECEIVED_AT;
+import static org.example.verticle.util.Headers.TOKEN;
+import static org.example.verticle.util.ReplyMessages.error;
 
 public class RouterVerticle extends AbstractVerticle {
+
+    private static final Logger log = LoggerFactory.getLogger(RouterVerticle.class);
+    private static final String[] FORWARDED_HEADERS = {ORIGIN, RECEIVED_AT};
+
+    private final RateLimitedLogger routerLog = new RateLimitedLogger(log, 10, 1000);
+
+    // Only used in clustered mode
+    private PresenceDirectory presence;
+    // Only used in standalone mode
+    private LocalPresence localPresence;
+
     @Override
     public void start() {
+        DataCodec.register(vertx);
+        if (vertx.isClustered()) {
+            presence = new PresenceDirectory(vertx);
+        } else {
+            localPresence = new LocalPresence(vertx);
+        }
         vertx.eventBus().consumer(ROUTER, this::router);
     }
 
-    private void router(Message<String> message) {
-        if (message.body() != null && !message.body().isEmpty()) {
-            System.out.println("Router message: " + message.body());
-            Data data = Json.decodeValue(message.body(), Data.class);
-            System.out.println(data);
-            vertx.eventBus().send("/token/" + data.getAddress(), message.body());
+    private void router(Message<Data> message) {
+        final String receivedAt = message.headers().get(RECEIVED_AT);
+        if (receivedAt != null) {
+            LoadShedder.routed(receivedAt);
+        }
+        if (message.body() != null && message.body().getAddress() != null) {
+            // Stamped by the WebSocket verticle already if it came from a socket
+            final Data data = message.body().stamp();
+            routerLog.debug("Router message to {}", data.getAddress());
+            if (data.isForRoom()) {
+                // Members that are offline read the room history instead
+                vertx.eventBus().publish(ROOM_DELIVER, data, withHeaders(new DeliveryOptions(), message.headers()));
+            } else {
+                deliver("/token/" + data.getAddress(), data, message.headers());
+            }
+            vertx.eventBus().publish(HISTORY_CACHE_PUT, data);
+
+            // Save message in database once, even for a room, acknowledging the sender if it expects a reply
+            if (message.replyAddress() == null) {
+                vertx.eventBus().send(DATABASE_MESSAGE_SAVE, data);
+            } else {
+                vertx.eventBus().send(DATABASE_MESSAGE_SAVE, data, Metrics.timed(DATABASE_MESSAGE_SAVE,
+                        (AsyncResult<Message<JsonObject>> saved) ->
+                                message.reply(saved.succeeded() ? saved.result().body() : error(saved.cause()))));
+            }
+        } else {
+            message.reply(error("Empty message"));
+        }
+    }
+
+    private void deliver(String address, Data body, MultiMap headers) {
+        if (presence == null) {
+            if (localPresence.isConnected(address)) {
+                publishLocally(address, body, headers);
+            } else {
+                queueOffline(body);
+            }
+            return;
+        }
+
+        presence.lookup(address, nodes -> {
+            if (nodes.failed()) {
+                log.error("Failed to look up presence of " + address, nodes.cause());
+                return;
+            }
+            if (nodes.result().isEmpty()) {
+                queueOffline(body);
+            }
+            for (String node : nodes.result()) {
+                if (node.equals(presence.nodeId())) {
+                    publishLocally(address, body, headers);
+                } else {
+                    final DeliveryOptions options = withHeaders(new DeliveryOptions(), headers)
+                            .addHeader(TOKEN, address);
+                    vertx.eventBus().send(node(node), body, options);
+                }
+            }
+        });
+    }
+
+    private void publishLocally(String address, Data body, MultiMap headers) {
+        // Published so that every socket of the recipient receives it, whichever verticle instance owns it
+        final DeliveryOptions options = withHeaders(new DeliveryOptions().setLocalOnly(true), headers);
+        vertx.eventBus().publish(address, body, options);
+    }
+
+    private void queueOffline(Data body) {
+        vertx.eventBus().send(OFFLINE_QUEUE_PUT, body, new DeliveryOptions().setLocalOnly(true));
+    }
 
-            // Save message in database
-            vertx.eventBus().send(DATABASE_MESSAGE_SAVE, message.body());
+    private static DeliveryOptions withHeaders(DeliveryOptions options, MultiMap headers) {
+        for (String header : FORWARDED_HEADERS) {
+            final String value = headers.get(header);
+            if (value != null) {
+                options.addHeader(header, value);
+            }
         }
+        return options;
     }
 }
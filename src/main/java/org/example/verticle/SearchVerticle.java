@@ -0,0 +1,211 @@
+package org.example.verticle;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.example.data.Data;
+import org.example.metrics.Histogram;
+import org.example.metrics.Metrics;
+import org.example.search.SearchIndex;
+import org.example.verticle.util.ChunkedStreams;
+import org.example.verticle.util.Futures;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.example.verticle.util.Addresses.GET_HISTORY;
+import static org.example.verticle.util.Addresses.SEARCH;
+import static org.example.verticle.util.Addresses.SEARCH_INDEX_ADD;
+import static org.example.verticle.util.ReplyMessages.error;
+import static org.example.verticle.util.ReplyMessages.success;
+
+/**
+ * Full-text search over the stored messages, see {@link SearchIndex}. The index is rebuilt from the whole history at
+ * startup and then fed with the batches the storage verticles publish once saved, so every node indexes every
+ * message. The updates of a shard run in order on a thread of its own, searches on a worker pool with a thread per
+ * shard.
+ * <p>
+ * Messages saved during the rebuild are held back until it ends, unless the history already had them. Searches are
+ * served meanwhile from what is indexed so far. Must be deployed as a single instance per node.
+ */
+public class SearchVerticle extends AbstractVerticle {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchVerticle.class);
+
+    private static final int DEFAULT_SHARDS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_LIMIT = 20;
+    private static final long DEFAULT_REBUILD_RETRY_INTERVAL = 5000;
+
+    private static final Histogram queryTime = Metrics.histogram("search_query_seconds");
+    private static final Histogram updateTime = Metrics.histogram("search_update_seconds");
+
+    private SearchIndex index;
+    // A single thread each, so the updates of a shard are added in order
+    private final List<WorkerExecutor> writers = new ArrayList<>();
+    private WorkerExecutor executor;
+    private long rebuildRetryInterval;
+    // Only while rebuilding: saved messages held back and those of them the history had
+    private List<Data> heldBack = new ArrayList<>();
+    private final Set<Long> heldBackIds = new HashSet<>();
+    private final Set<Long> rebuiltIds = new HashSet<>();
+
+    @Override
+    public void start() {
+        final int shards = config().getInteger("shards", 0);
+        index = new SearchIndex(shards > 0 ? shards : DEFAULT_SHARDS);
+        executor = vertx.createSharedWorkerExecutor("search", index.shards());
+        for (int i = 0; i < index.shards(); i++) {
+            writers.add(vertx.createSharedWorkerExecutor("search-writer-" + i, 1));
+        }
+        rebuildRetryInterval = config().getLong("rebuildRetryInterval", DEFAULT_REBUILD_RETRY_INTERVAL);
+        vertx.eventBus().consumer(SEARCH_INDEX_ADD, this::add);
+        vertx.eventBus().localConsumer(SEARCH, this::search);
+        rebuild();
+    }
+
+    @Override
+    public void stop() {
+        executor.close();
+        writers.forEach(WorkerExecutor::close);
+    }
+
+    private void add(Message<JsonObject> message) {
+        final List<Data> messages = toData(message.body().getJsonArray("messages"));
+        if (heldBack == null) {
+            update(messages, ignored -> {
+            });
+            return;
+        }
+        for (Data data : messages) {
+            heldBack.add(data);
+            heldBackIds.add(data.getId());
+        }
+    }
+
+    private void rebuild() {
+        final long startTime = System.nanoTime();
+        ChunkedStreams.receive(vertx, GET_HISTORY, new JsonObject(), (items, next) -> {
+            final List<Data> messages = toData(items);
+            for (Data data : messages) {
+                if (heldBackIds.contains(data.getId())) {
+                    rebuiltIds.add(data.getId());
+                }
+            }
+            update(messages, next);
+        }, rebuilt -> {
+            if (rebuilt.failed()) {
+                log.warn("Failed to rebuild the search index, retrying: {}", rebuilt.cause().getMessage());
+                final List<Future<Void>> clears = new ArrayList<>();
+                for (int i = 0; i < index.shards(); i++) {
+                    final int shard = i;
+                    clears.add(Future.future(promise -> writers.get(shard).executeBlocking(blocking -> {
+                        index.clear(shard);
+                        blocking.complete();
+                    }, false, promise)));
+                }
+                Futures.all(clears).setHandler(cleared -> {
+                    rebuiltIds.clear();
+                    vertx.setTimer(rebuildRetryInterval, ignored -> rebuild());
+                });
+                return;
+            }
+            final List<Data> saved = new ArrayList<>(heldBack.size());
+            for (Data data : heldBack) {
+                if (!rebuiltIds.contains(data.getId())) {
+                    saved.add(data);
+                }
+            }
+            heldBack = null;
+            heldBackIds.clear();
+            rebuiltIds.clear();
+            update(saved, ignored -> log.info("Rebuilt the search index in {} ms",
+                    (System.nanoTime() - startTime) / 1_000_000));
+        });
+    }
+
+    /**
+     * Adds the messages to their shards in parallel. Not ordered, since the executors of the shards keep the order: a
+     * single thread takes the tasks of its queue in turn, while ordered tasks would queue behind other shards.
+     */
+    private void update(List<Data> messages, Handler<Void> done) {
+        final List<List<Data>> byShard = new ArrayList<>(index.shards());
+        for (int i = 0; i < index.shards(); i++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (Data data : messages) {
+            byShard.get(index.shardOf(data.getAddress())).add(data);
+        }
+
+        final List<Future<Void>> updates = new ArrayList<>();
+        for (int i = 0; i < byShard.size(); i++) {
+            final int shard = i;
+            final List<Data> shardMessages = byShard.get(i);
+            if (shardMessages.isEmpty()) {
+                continue;
+            }
+            updates.add(Future.future(promise -> writers.get(shard).executeBlocking(blocking -> {
+                final long startTime = System.nanoTime();
+                index.add(shard, shardMessages);
+                updateTime.recordSince(startTime);
+                blocking.complete();
+            }, false, promise)));
+        }
+        Futures.all(updates).setHandler(updated -> {
+            if (updated.failed()) {
+                log.error("Failed to index " + messages.size() + " messages", updated.cause());
+            }
+            done.handle(null);
+        });
+    }
+
+    /**
+     * Expects the query in {@code q}, an optional {@code address} to search within and the {@code limit} of results.
+     * Replies with the most recent matching {@code messages} first.
+     */
+    private void search(Message<JsonObject> message) {
+        final long startTime = System.nanoTime();
+        final String address = message.body().getString("address");
+        final int limit = message.body().getInteger("limit", DEFAULT_LIMIT);
+        final Collection<String> terms = SearchIndex.terms(message.body().getString("q"), address);
+
+        final List<Future<List<Data>>> searches = new ArrayList<>();
+        for (int i = 0; i < index.shards(); i++) {
+            if (address != null && i != index.shardOf(address)) {
+                continue;
+            }
+            final int shard = i;
+            searches.add(Future.future(promise -> executor.executeBlocking(blocking ->
+                    blocking.complete(index.search(shard, terms, limit)), false, promise)));
+        }
+        Futures.all(searches).setHandler((AsyncResult<List<List<Data>>> searched) -> {
+            if (searched.failed()) {
+                message.reply(error(searched.cause()));
+                return;
+            }
+            final JsonArray messages = new JsonArray();
+            for (Data data : SearchIndex.merge(searched.result(), limit)) {
+                messages.add(data.toJson());
+            }
+            queryTime.recordSince(startTime);
+            message.reply(success(new JsonObject().put("messages", messages)));
+        });
+    }
+
+    private static List<Data> toData(JsonArray array) {
+        final List<Data> messages = new ArrayList<>(array.size());
+        for (int i = 0; i < array.size(); i++) {
+            messages.add(Data.fromJson(array.getJsonObject(i)));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,302 @@
+package org.example.verticle;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.example.data.Data;
+import org.example.data.DataCodec;
+import org.example.metrics.Metrics;
+import org.example.storage.MongoStorage;
+import org.example.storage.Storage;
+import org.example.storage.log.LogStorage;
+import org.example.verticle.util.ChunkedStreams;
+import org.example.verticle.util.WriteBehindQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.example.verticle.util.Addresses.DATABASE_BLOB_REFERENCES;
+import static org.example.verticle.util.Addresses.DATABASE_IMAGE_GET;
+import static org.example.verticle.util.Addresses.DATABASE_IMAGE_LIST;
+import static org.example.verticle.util.Addresses.DATABASE_IMAGE_SAVE;
+import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_GET_RECENT;
+import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_SAVE;
+import static org.example.verticle.util.Addresses.DATABASE_OFFLINE_GET;
+import static org.example.verticle.util.Addresses.DATABASE_OFFLINE_SAVE;
+import static org.example.verticle.util.Addresses.DATABASE_OFFLINE_TRIM;
+import static org.example.verticle.util.Addresses.DATABASE_ROOM_MEMBER_LIST;
+import static org.example.verticle.util.Addresses.DATABASE_ROOM_MEMBER_SAVE;
+import static org.example.verticle.util.Addresses.GET_HISTORY;
+import static org.example.verticle.util.Addresses.SEARCH_INDEX_ADD;
+import static org.example.verticle.util.ChunkedStreams.STREAM_ADDRESS;
+import static org.example.verticle.util.ReplyMessages.error;
+import static org.example.verticle.util.ReplyMessages.success;
+
+/**
+ * Serves the {@code DATABASE_*} and {@code GET_HISTORY} addresses from the {@link Storage} selected by the
+ * {@code backend} setting: {@code mongo} or the embedded {@code log}.
+ */
+public class StorageVerticle extends AbstractVerticle {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageVerticle.class);
+
+    private static final String MONGO = "mongo";
+    private static final String LOG = "log";
+
+    private static final int DEFAULT_HISTORY_BATCH_SIZE = 500;
+    private static final long DEFAULT_HISTORY_ACK_TIMEOUT = 30_000;
+    private static final int DEFAULT_MESSAGE_BATCH_SIZE = 100;
+    private static final long DEFAULT_MESSAGE_FLUSH_INTERVAL = 50;
+    private static final int DEFAULT_MESSAGE_QUEUE_SIZE = 10_000;
+    private static final int DEFAULT_IMAGE_PAGE_SIZE = 100;
+    private static final int MAX_IMAGE_PAGE_SIZE = 1000;
+    private static final String ACK_AFTER_FLUSH = "ack-after-flush";
+    private static final String FIRE_AND_FORGET = "fire-and-forget";
+
+    private Storage storage;
+    private int historyBatchSize;
+    private long historyAckTimeout;
+    private WriteBehindQueue<JsonObject> messageQueue;
+    private boolean ackAfterFlush;
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        historyBatchSize = config().getInteger("historyBatchSize", DEFAULT_HISTORY_BATCH_SIZE);
+        historyAckTimeout = config().getLong("historyAckTimeout", DEFAULT_HISTORY_ACK_TIMEOUT);
+        ackAfterFlush = ACK_AFTER_FLUSH.equals(config().getString("messageDurability", FIRE_AND_FORGET));
+
+        createStorage(created -> {
+            if (created.failed()) {
+                startPromise.fail(created.cause());
+                return;
+            }
+            storage = created.result();
+            messageQueue = new WriteBehindQueue<>(vertx, "storage_message",
+                    config().getInteger("messageBatchSize", DEFAULT_MESSAGE_BATCH_SIZE),
+                    config().getLong("messageFlushInterval", DEFAULT_MESSAGE_FLUSH_INTERVAL),
+                    config().getInteger("messageQueueSize", DEFAULT_MESSAGE_QUEUE_SIZE),
+                    this::insertMessages);
+            DataCodec.register(vertx);
+            vertx.eventBus().consumer(DATABASE_MESSAGE_SAVE, this::saveMessage);
+            vertx.eventBus().consumer(GET_HISTORY, this::getHistory);
+            vertx.eventBus().consumer(DATABASE_MESSAGE_GET_RECENT, this::getRecentMessages);
+            vertx.eventBus().consumer(DATABASE_IMAGE_SAVE, this::saveImage);
+            vertx.eventBus().consumer(DATABASE_IMAGE_GET, this::getImageById);
+            vertx.eventBus().consumer(DATABASE_IMAGE_LIST, this::listImages);
+            vertx.eventBus().consumer(DATABASE_BLOB_REFERENCES, this::getBlobReferences);
+            vertx.eventBus().consumer(DATABASE_OFFLINE_SAVE, this::saveOfflineMessages);
+            vertx.eventBus().consumer(DATABASE_OFFLINE_GET, this::getOfflineMessages);
+            vertx.eventBus().consumer(DATABASE_OFFLINE_TRIM, this::trimOfflineMessages);
+            vertx.eventBus().consumer(DATABASE_ROOM_MEMBER_SAVE, this::saveRoomMember);
+            vertx.eventBus().consumer(DATABASE_ROOM_MEMBER_LIST, this::listRoomMembers);
+            startPromise.complete();
+        });
+    }
+
+    @Override
+    public void stop(Promise<Void> stopPromise) {
+        if (storage == null) {
+            stopPromise.complete();
+            return;
+        }
+        messageQueue.close(closed -> storage.close(stopPromise));
+    }
+
+    private void createStorage(Handler<AsyncResult<Storage>> handler) {
+        final String backend = config().getString("backend", MONGO);
+        switch (backend) {
+            case MONGO:
+                final MongoStorage mongo = new MongoStorage(vertx, config().getJsonObject("client",
+                        new JsonObject().put("db_name", "my_DB")));
+                mongo.createIndexes(created -> handler.handle(created.map(mongo)));
+                break;
+            case LOG:
+                // Reading the log to rebuild its index blocks
+                vertx.executeBlocking(promise -> {
+                    try {
+                        promise.complete(LogStorage.acquire(vertx, config().getJsonObject(LOG, new JsonObject())));
+                    } catch (Exception e) {
+                        promise.fail(e);
+                    }
+                }, handler);
+                break;
+            default:
+                handler.handle(Future.failedFuture("Unknown storage backend: " + backend));
+        }
+    }
+
+    private void getHistory(Message<JsonObject> message) {
+        ChunkedStreams.send(vertx, message, storage.history(historyBatchSize), historyBatchSize, historyAckTimeout);
+    }
+
+    /**
+     * Replies with the last {@code limit} messages of the {@code address} before the optional {@code before} ID, and
+     * the cursor to the previous page in {@code next}, {@code null} on the last page. The cursor is a string since
+     * IDs do not fit in a JavaScript number.
+     */
+    private void getRecentMessages(Message<JsonObject> message) {
+        final int limit = message.body().getInteger("limit");
+        storage.recentMessages(message.body().getString("address"), message.body().getLong("before", Long.MAX_VALUE),
+                limit, timed("find_recent_messages", asyncResult -> {
+                    if (asyncResult.failed()) {
+                        message.reply(error(asyncResult.cause()));
+                        return;
+                    }
+                    final List<JsonObject> messages = asyncResult.result();
+                    final Long next = messages.size() < limit ? null : messages.get(0).getLong("id");
+                    message.reply(success(new JsonObject()
+                            .put("messages", messages)
+                            .put("next", next == null ? null : String.valueOf(next))));
+                }));
+    }
+
+    private void saveMessage(Message<Data> message) {
+        final boolean queued = messageQueue.offer(message.body().toJson(), ackAfterFlush ?
+                asyncResult -> message.reply(asyncResult.failed() ? error(asyncResult.cause()) : success(null)) :
+                null);
+
+        if (!queued) {
+            log.warn("Message queue is full, dropping message");
+            message.reply(error("Message queue is full"));
+        } else if (!ackAfterFlush) {
+            message.reply(success(null));
+        }
+    }
+
+    private void insertMessages(List<JsonObject> messages, Handler<AsyncResult<Void>> done) {
+        storage.saveMessages(messages, timed("insert_messages", asyncResult -> {
+            if (asyncResult.succeeded()) {
+                log.debug("{} messages have been successfully saved", messages.size());
+                // Every node keeps a search index of all messages
+                vertx.eventBus().publish(SEARCH_INDEX_ADD, new JsonObject().put("messages", new JsonArray(messages)));
+            } else {
+                log.error("Failed to save " + messages.size() + " messages", asyncResult.cause());
+            }
+            done.handle(asyncResult);
+        }));
+    }
+
+    /**
+     * Expects the batch of offline messages in {@code messages}, already grouped by the offline queue.
+     */
+    private void saveOfflineMessages(Message<JsonObject> message) {
+        final List<JsonObject> messages = jsonObjects(message.body().getJsonArray("messages"));
+        storage.saveOfflineMessages(messages, timed("insert_offline_messages", asyncResult ->
+                message.reply(asyncResult.succeeded() ? success(null) : error(asyncResult.cause()))));
+    }
+
+    private void getOfflineMessages(Message<JsonObject> message) {
+        storage.offlineMessages(message.body().getString("address"), message.body().getInteger("limit"),
+                timed("find_offline_messages", asyncResult -> message.reply(asyncResult.succeeded() ?
+                        success(new JsonObject().put("messages", asyncResult.result())) :
+                        error(asyncResult.cause()))));
+    }
+
+    private void trimOfflineMessages(Message<JsonObject> message) {
+        final List<Long> seqs = new ArrayList<>();
+        for (Object seq : message.body().getJsonArray("seqs")) {
+            seqs.add(((Number) seq).longValue());
+        }
+        storage.trimOfflineMessages(message.body().getString("address"), seqs,
+                timed("trim_offline_messages", asyncResult ->
+                        message.reply(asyncResult.succeeded() ? success(null) : error(asyncResult.cause()))));
+    }
+
+    /**
+     * Expects the {@code room}, the {@code member} and whether it {@code joined} or left.
+     */
+    private void saveRoomMember(Message<JsonObject> message) {
+        final JsonObject request = message.body();
+        storage.saveRoomMember(request.getString("room"), request.getString("member"), request.getBoolean("joined"),
+                timed("save_room_member", asyncResult ->
+                        message.reply(asyncResult.succeeded() ? success(null) : error(asyncResult.cause()))));
+    }
+
+    private void listRoomMembers(Message<Object> message) {
+        storage.roomMembers(timed("find_room_members", asyncResult -> message.reply(asyncResult.succeeded() ?
+                success(new JsonObject().put("members", asyncResult.result())) :
+                error(asyncResult.cause()))));
+    }
+
+    private void saveImage(Message<JsonObject> message) {
+        final JsonObject image = message.body();
+        storage.saveImage(image, timed("insert_image", asyncResult -> {
+            if (asyncResult.failed()) {
+                message.reply(error(asyncResult.cause()));
+                return;
+            }
+            message.reply(success(image.put("_id", asyncResult.result())));
+        }));
+    }
+
+    private void getImageById(Message<String> message) {
+        storage.findImage(message.body(), timed("find_image", asyncResult ->
+                message.reply(asyncResult.succeeded() ?
+                        success(asyncResult.result()) :
+                        error(asyncResult.cause())
+                )));
+    }
+
+    private void getBlobReferences(Message<String> message) {
+        storage.blobReferences(message.body(), timed("find_blob_references", asyncResult ->
+                message.reply(asyncResult.succeeded() ?
+                        success(new JsonObject().put("references", asyncResult.result())) :
+                        error(asyncResult.cause())
+                )));
+    }
+
+    /**
+     * Lists images ordered by ID, starting after {@code after}. Replies with a page and the ID to continue from, or
+     * streams the page in chunks if the request carries a stream address.
+     */
+    private void listImages(Message<JsonObject> message) {
+        final JsonObject request = message.body() == null ? new JsonObject() : message.body();
+        final int limit = Math.min(request.getInteger("limit", DEFAULT_IMAGE_PAGE_SIZE), MAX_IMAGE_PAGE_SIZE);
+        final String after = request.getString("after");
+
+        if (request.containsKey(STREAM_ADDRESS)) {
+            final int batchSize = Math.min(limit, historyBatchSize);
+            ChunkedStreams.send(vertx, message, storage.streamImages(after, limit, batchSize), batchSize,
+                    historyAckTimeout);
+            return;
+        }
+
+        storage.listImages(after, limit, timed("list_images", asyncResult -> {
+            if (asyncResult.failed()) {
+                message.reply(error(asyncResult.cause()));
+                return;
+            }
+            final List<JsonObject> images = asyncResult.result();
+            final String next = images.size() < limit ? null : images.get(images.size() - 1).getString("_id");
+            message.reply(success(new JsonObject().put("images", images).put("next", next)));
+        }));
+    }
+
+    private static List<JsonObject> jsonObjects(JsonArray array) {
+        final List<JsonObject> objects = new ArrayList<>(array.size());
+        for (int i = 0; i < array.size(); i++) {
+            objects.add(array.getJsonObject(i));
+        }
+        return objects;
+    }
+
+    private <T> Handler<AsyncResult<T>> timed(String operation, Handler<AsyncResult<T>> handler) {
+        final long startTime = System.nanoTime();
+        return asyncResult -> {
+            Metrics.histogram("storage_operation_seconds", "backend", storage.name(), "operation", operation)
+                    .recordSince(startTime);
+            if (asyncResult.failed()) {
+                Metrics.counter("storage_errors_total", "backend", storage.name(), "operation", operation)
+                        .increment();
+            }
+            handler.handle(asyncResult);
+        };
+    }
+}
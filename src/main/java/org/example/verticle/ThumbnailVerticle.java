@@ -0,0 +1,138 @@
+package org.example.verticle;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Promise;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import org.example.cache.DiskLruCache;
+import org.example.metrics.Histogram;
+import org.example.metrics.Metrics;
+import org.example.verticle.util.Thumbnails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.example.verticle.util.Addresses.IMAGE_THUMBNAIL;
+import static org.example.verticle.util.ReplyMessages.error;
+import static org.example.verticle.util.ReplyMessages.success;
+
+/**
+ * Resized variants of images, generated on worker threads and kept in a {@link DiskLruCache}. A variant depends only
+ * on the content of the image, so it is keyed by the SHA-256 and shared by all images with that content. Requests for
+ * a variant that is being generated wait for that generation instead of starting another one.
+ * <p>
+ * Must be deployed as a single instance.
+ */
+public class ThumbnailVerticle extends AbstractVerticle {
+
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailVerticle.class);
+
+    private static final String DEFAULT_DIRECTORY = "thumbnails";
+    private static final long DEFAULT_CACHE_SIZE = 256 * 1024 * 1024;
+    private static final long DEFAULT_MAX_PIXELS = 50_000_000;
+
+    private static final Histogram generationTime = Metrics.histogram("thumbnail_generation_seconds");
+    private static final LongAdder merged = Metrics.counter("thumbnail_merged_requests_total");
+    private static final LongAdder failures = Metrics.counter("thumbnail_failures_total");
+
+    private DiskLruCache cache;
+    private long maxPixels;
+    // Requests waiting for the variant being generated, by cache key
+    private final Map<String, List<Message<JsonObject>>> generating = new HashMap<>();
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        maxPixels = config().getLong("maxPixels", DEFAULT_MAX_PIXELS);
+        cache = new DiskLruCache(vertx, "thumbnail_cache", config().getString("directory", DEFAULT_DIRECTORY),
+                config().getLong("cacheSize", DEFAULT_CACHE_SIZE));
+        vertx.executeBlocking(promise -> {
+            cache.load();
+            promise.complete();
+        }, loaded -> {
+            if (loaded.failed()) {
+                startPromise.fail(loaded.cause());
+                return;
+            }
+            vertx.eventBus().consumer(IMAGE_THUMBNAIL, this::getThumbnail);
+            startPromise.complete();
+        });
+    }
+
+    /**
+     * Expects the {@code source} path, {@code sha256} and {@code contentType} of the image and the {@code width} and
+     * {@code height} to fit into. Replies with the {@code path}, {@code contentType} and a {@code variant} name unique
+     * to the content of the thumbnail.
+     */
+    private void getThumbnail(Message<JsonObject> message) {
+        final JsonObject request = message.body();
+        final int width = request.getInteger("width");
+        final int height = request.getInteger("height");
+        final String outputType = Thumbnails.outputType(request.getString("contentType"));
+        final String key = request.getString("sha256") + "-" + width + "x" + height +
+                ("image/jpeg".equals(outputType) ? ".jpg" : ".png");
+
+        if (cache.get(key)) {
+            message.reply(thumbnail(key, outputType));
+            return;
+        }
+        final List<Message<JsonObject>> waiting = generating.get(key);
+        if (waiting != null) {
+            merged.increment();
+            waiting.add(message);
+            return;
+        }
+        final List<Message<JsonObject>> requests = new ArrayList<>();
+        requests.add(message);
+        generating.put(key, requests);
+
+        final String source = request.getString("source");
+        final Path temp = Paths.get(cache.tempPath(key));
+        final Path target = Paths.get(cache.path(key));
+        final long startTime = System.nanoTime();
+        vertx.<Long>executeBlocking(promise -> {
+            try {
+                Thumbnails.resize(source, temp.toString(), width, height, outputType, maxPixels);
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                promise.complete(Files.size(target));
+            } catch (IOException | RuntimeException e) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // Removed on the next start
+                }
+                promise.fail(e);
+            }
+        }, false, generated -> {
+            generationTime.recordSince(startTime);
+            final JsonObject reply;
+            if (generated.succeeded()) {
+                cache.put(key, generated.result());
+                reply = thumbnail(key, outputType);
+            } else {
+                failures.increment();
+                log.warn("Failed to generate thumbnail " + key + " of " + source, generated.cause());
+                reply = error(generated.cause());
+            }
+            for (Message<JsonObject> waitingRequest : generating.remove(key)) {
+                waitingRequest.reply(reply);
+            }
+        });
+    }
+
+    private JsonObject thumbnail(String key, String contentType) {
+        return success(new JsonObject()
+                .put("path", cache.path(key))
+                .put("contentType", contentType)
+                .put("variant", key.substring(0, key.lastIndexOf('.'))));
+    }
+}
@@ -1,34 +1,329 @@
 package org.example.verticle;
 
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Promise;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
 import io.vertx.core.eventbus.MessageConsumer;
 import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.example.cluster.PresenceDirectory;
+import org.example.data.Data;
+import org.example.data.DataCodec;
+import org.example.metrics.Histogram;
+import org.example.metrics.Metrics;
+import org.example.verticle.util.LoadShedder;
+import org.example.verticle.util.LocalPresence;
+import org.example.verticle.util.OutboundQueue;
+import org.example.verticle.util.RateLimitedLogger;
+import org.example.verticle.util.SocketRegistry;
+import org.example.verticle.util.TokenBuckets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.example.verticle.util.Addresses.OFFLINE_QUEUE_ACK;
+import static org.example.verticle.util.Addresses.OFFLINE_QUEUE_REPLAY;
+import static org.example.verticle.util.Addresses.ROOM_DELIVER;
+import static org.example.verticle.util.Addresses.ROOM_MEMBERSHIPS;
+import static org.example.verticle.util.Addresses.ROOM_MEMBER_CHANGED;
 import static org.example.verticle.util.Addresses.ROUTER;
+import static org.example.verticle.util.Addresses.node;
+import static org.example.verticle.util.Headers.ORIGIN;
+import static org.example.verticle.util.Headers.RECEIVED_AT;
+import static org.example.verticle.util.Headers.TOKEN;
+import static org.example.verticle.util.ReplyMessages.error;
+import static org.example.verticle.util.ReplyMessages.getResult;
+import static org.example.verticle.util.ReplyMessages.isError;
 
 public class WsServerVerticle extends AbstractVerticle {
+
+    private static final Logger log = LoggerFactory.getLogger(WsServerVerticle.class);
+    private static final LongAdder connections = Metrics.counter("ws_connections");
+    private static final LongAdder framesReceived = Metrics.counter("ws_frames_received_total");
+    private static final LongAdder malformedFrames = Metrics.counter("ws_malformed_frames_total");
+    private static final Histogram routingLatency = Metrics.histogram("routing_latency_seconds");
+    private static final LongAdder roomWrites = Metrics.counter("room_fanout_writes_total");
+
+    private static final int DEFAULT_OUTBOUND_QUEUE_SIZE = 1000;
+    private static final String DEFAULT_SLOW_CONSUMER_POLICY = "drop-oldest";
+    private static final long DEFAULT_FRAME_BATCH_WINDOW = -1;
+    private static final double DEFAULT_RATE_LIMIT = 20;
+    private static final int DEFAULT_RATE_BURST = 40;
+    private static final long DEFAULT_MAX_ROUTER_LAG = 1000;
+    private static final long DEFAULT_MAX_STORAGE_BACKLOG = 8000;
+    private static final String TOKEN_PREFIX = "/token/";
+
+    private final SocketRegistry sockets = new SocketRegistry();
+    private final Map<String, MessageConsumer<Data>> consumers = new HashMap<>();
+    // Addresses whose offline messages are being replayed
+    private final Set<String> replaying = new HashSet<>();
+    private final RateLimitedLogger frameLog = new RateLimitedLogger(log, 10, 1000);
+    private String instanceId;
+    private OutboundQueue.Policy slowConsumerPolicy;
+    private int outboundQueueSize;
+    private long frameBatchWindow;
+    // Null if rate limiting is disabled
+    private TokenBuckets rateLimits;
+    private LoadShedder loadShedder;
+    private LocalPresence localPresence;
+    // Only used in clustered mode
+    private PresenceDirectory presence;
+
     @Override
-    public void start() {
+    public void start(Promise<Void> startPromise) {
+        // Instances of a deployment share the deployment ID, so each one needs its own
+        instanceId = UUID.randomUUID().toString();
+        slowConsumerPolicy = OutboundQueue.Policy.of(
+                config().getString("slowConsumerPolicy", DEFAULT_SLOW_CONSUMER_POLICY));
+        outboundQueueSize = config().getInteger("outboundQueueSize", DEFAULT_OUTBOUND_QUEUE_SIZE);
+        frameBatchWindow = config().getLong("frameBatchWindow", DEFAULT_FRAME_BATCH_WINDOW);
+        final double rateLimit = config().getDouble("rateLimit", DEFAULT_RATE_LIMIT);
+        rateLimits = rateLimit > 0 ?
+                TokenBuckets.shared(vertx, "ws", rateLimit, config().getInteger("rateBurst", DEFAULT_RATE_BURST)) :
+                null;
+        loadShedder = new LoadShedder(config().getLong("maxRouterLag", DEFAULT_MAX_ROUTER_LAG),
+                config().getLong("maxStorageBacklog", DEFAULT_MAX_STORAGE_BACKLOG));
+        DataCodec.register(vertx);
+        localPresence = new LocalPresence(vertx);
+        if (vertx.isClustered()) {
+            presence = new PresenceDirectory(vertx);
+            vertx.eventBus().consumer(node(presence.nodeId()), this::forward);
+        }
+        // Every instance of every node gets each room message, a node receives one copy over the cluster
+        vertx.eventBus().consumer(ROOM_DELIVER, this::deliverToRoom);
+        vertx.eventBus().localConsumer(ROOM_MEMBER_CHANGED, this::changeRoomMember);
         vertx.createHttpServer()
                 .websocketHandler(this::createWebSocketServer)
-                .listen(8080);
+                .listen(config().getInteger("port", 8080), listen -> {
+                    if (listen.succeeded()) {
+                        startPromise.complete();
+                    } else {
+                        startPromise.fail(listen.cause());
+                    }
+                });
     }
 
     private void createWebSocketServer(ServerWebSocket wsServer) {
-        System.out.println("Create WebSocket: " + wsServer.path());
-        wsServer.frameHandler(wsFrame -> {
-            System.out.println(wsFrame.textData());
-            vertx.eventBus().send(ROUTER, wsFrame.textData());
+        final String address = wsServer.path();
+        final OutboundQueue outbound = new OutboundQueue(vertx, wsServer, slowConsumerPolicy, outboundQueueSize,
+                frameBatchWindow);
+        log.debug("Create WebSocket: {}", address);
+        connections.increment();
+        wsServer.textMessageHandler(text -> {
+            framesReceived.increment();
+            final String receivedAt = Metrics.timestamp();
+            if (!admit(wsServer, address)) {
+                return;
+            }
+            final Data data;
+            try {
+                // Stamped here rather than by the router, the sockets of this instance get the message first
+                data = Data.decode(text).stamp();
+            } catch (DecodeException e) {
+                malformedFrames.increment();
+                frameLog.warn("Malformed frame from {}: {}", address, e.getMessage());
+                return;
+            }
+            frameLog.debug("Frame from {} to {}", address, data.getAddress());
+            if (!data.isForRoom()) {
+                write(TOKEN_PREFIX + data.getAddress(), data);
+            }
+            vertx.eventBus().send(ROUTER, data, new DeliveryOptions()
+                    .addHeader(ORIGIN, instanceId)
+                    .addHeader(RECEIVED_AT, receivedAt));
         });
 
-        MessageConsumer<String> consumerSendMessage = vertx.eventBus().consumer(wsServer.path(), data -> {
-            wsServer.writeFinalTextFrame(data.body());
-            data.reply("ok");
-        });
+        // One consumer per address no matter how many sockets share it. Other nodes reach it through the node
+        // address, so it is not registered cluster-wide.
+        if (sockets.add(address, outbound)) {
+            consumers.put(address, vertx.eventBus().localConsumer(address, this::deliver));
+            localPresence.register(address);
+            if (presence != null) {
+                presence.register(address);
+            }
+            joinRooms(address);
+            replayOffline(address);
+        }
 
         wsServer.closeHandler(aVoid -> {
-            System.out.println("Close WebSocket: " + consumerSendMessage.address());
-            consumerSendMessage.unregister();
+            log.debug("Close WebSocket: {}", address);
+            connections.decrement();
+            final boolean last = sockets.remove(address, outbound);
+            // Moves an unwritten replay to the other sockets of the address, if any
+            outbound.close();
+            if (last) {
+                consumers.remove(address).unregister();
+                localPresence.unregister(address);
+                if (presence != null) {
+                    presence.unregister(address);
+                }
+            }
         });
     }
+
+    /**
+     * Adds the sockets of a token to its rooms, changes made meanwhile arrive after the reply.
+     */
+    private void joinRooms(String address) {
+        if (!address.startsWith(TOKEN_PREFIX)) {
+            return;
+        }
+        final DeliveryOptions options = new DeliveryOptions().setLocalOnly(true);
+        vertx.eventBus().send(ROOM_MEMBERSHIPS, address.substring(TOKEN_PREFIX.length()), options,
+                Metrics.timed(ROOM_MEMBERSHIPS, (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    if (asyncResult.failed()) {
+                        log.debug("No rooms for {}: {}", address, asyncResult.cause().getMessage());
+                        return;
+                    }
+                    final JsonObject result = asyncResult.result().body();
+                    if (isError(result)) {
+                        log.warn("Failed to get the rooms of {}: {}", address, result.getString("error"));
+                        return;
+                    }
+                    for (Object room : getResult(result).getJsonArray("rooms")) {
+                        sockets.join(address, (String) room);
+                    }
+                }));
+    }
+
+    private void changeRoomMember(Message<JsonObject> message) {
+        final JsonObject change = message.body();
+        final String address = TOKEN_PREFIX + change.getString("member");
+        if (change.getBoolean("joined")) {
+            sockets.join(address, change.getString("room"));
+        } else {
+            sockets.leave(address, change.getString("room"));
+        }
+    }
+
+    /**
+     * Writes the messages queued while the address was offline as one frame through the outbound queue of one of its
+     * sockets, and acknowledges them once written, so the queue drops them. Goes on while the queue has more. Runs once
+     * per address however many sockets connect; if the socket closes first, the replay moves to another one.
+     */
+    private void replayOffline(String address) {
+        if (!replaying.add(address)) {
+            return;
+        }
+        final DeliveryOptions options = new DeliveryOptions().setLocalOnly(true);
+        vertx.eventBus().send(OFFLINE_QUEUE_REPLAY, address, options, Metrics.timed(OFFLINE_QUEUE_REPLAY,
+                (AsyncResult<Message<JsonObject>> asyncResult) -> {
+                    // Either way the messages wait for the next connection of the address
+                    if (asyncResult.failed()) {
+                        replaying.remove(address);
+                        log.debug("No offline replay for {}: {}", address, asyncResult.cause().getMessage());
+                        return;
+                    }
+                    final JsonObject result = asyncResult.result().body();
+                    if (isError(result)) {
+                        replaying.remove(address);
+                        log.warn("Failed to replay offline messages of {}: {}", address, result.getString("error"));
+                        return;
+                    }
+                    final JsonObject replay = getResult(result);
+                    final JsonArray messages = replay.getJsonArray("messages");
+                    final List<OutboundQueue> connected = sockets.get(address);
+                    if (messages.isEmpty() || connected.isEmpty()) {
+                        replaying.remove(address);
+                        return;
+                    }
+                    connected.get(0).replay(messages.encode(), messages.size(), written -> {
+                        replaying.remove(address);
+                        if (written.failed()) {
+                            if (!sockets.get(address).isEmpty()) {
+                                replayOffline(address);
+                            }
+                            return;
+                        }
+                        vertx.eventBus().send(OFFLINE_QUEUE_ACK, replay.getJsonObject("ack"), options, acked -> {
+                            if (acked.succeeded() && replay.getBoolean("more") && !sockets.get(address).isEmpty()) {
+                                replayOffline(address);
+                            }
+                        });
+                    });
+                }));
+    }
+
+    /**
+     * Returns {@code false} if the frame is shed or exceeds the rate limit of the token. The client gets an error frame
+     * with the milliseconds to wait, unless its socket is already behind on writes.
+     */
+    private boolean admit(ServerWebSocket socket, String address) {
+        final String shed = loadShedder.shed();
+        if (shed != null) {
+            reject(socket, shed, error("Server is overloaded").put("retryAfter", 1000));
+            return false;
+        }
+        final long retryAfter = rateLimits == null ? 0 : rateLimits.tryAcquire(address);
+        if (retryAfter > 0) {
+            frameLog.debug("Rate limit of {} exceeded", address);
+            reject(socket, "rate_limit", error("Rate limit exceeded").put("retryAfter", retryAfter));
+            return false;
+        }
+        return true;
+    }
+
+    private static void reject(ServerWebSocket socket, String reason, JsonObject error) {
+        Metrics.counter("messages_rejected_total", "edge", "ws", "reason", reason).increment();
+        if (!socket.writeQueueFull()) {
+            socket.writeFinalTextFrame(error.encode());
+        }
+    }
+
+    private void forward(Message<Data> message) {
+        final DeliveryOptions options = new DeliveryOptions().setLocalOnly(true);
+        if (message.headers().contains(ORIGIN)) {
+            options.addHeader(ORIGIN, message.headers().get(ORIGIN));
+        }
+        if (message.headers().contains(RECEIVED_AT)) {
+            options.addHeader(RECEIVED_AT, message.headers().get(RECEIVED_AT));
+        }
+        vertx.eventBus().publish(message.headers().get(TOKEN), message.body(), options);
+    }
+
+    private void deliver(Message<Data> message) {
+        // Messages received by this instance have already been written to its sockets
+        if (!instanceId.equals(message.headers().get(ORIGIN))) {
+            write(message.address(), message.body());
+            final String receivedAt = message.headers().get(RECEIVED_AT);
+            if (receivedAt != null) {
+                routingLatency.record(Metrics.elapsedNanos(receivedAt));
+            }
+        }
+    }
+
+    /**
+     * Writes a room message to the sockets of the members connected to this instance, including the socket it came
+     * from. The message is encoded once for all of them, see {@link Data#encode}.
+     */
+    private void deliverToRoom(Message<Data> message) {
+        final Data data = message.body();
+        final int[] written = {0};
+        sockets.forEachInRoom(data.getRoom(), socket -> {
+            socket.send(data);
+            written[0]++;
+        });
+        roomWrites.add(written[0]);
+        final String receivedAt = message.headers().get(RECEIVED_AT);
+        if (receivedAt != null && written[0] > 0) {
+            routingLatency.record(Metrics.elapsedNanos(receivedAt));
+        }
+    }
+
+    private void write(String address, Data data) {
+        for (OutboundQueue socket : sockets.get(address)) {
+            socket.send(data);
+        }
+    }
 }
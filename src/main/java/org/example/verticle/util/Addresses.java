@@ -4,10 +4,35 @@ public class Addresses {
 
     public static final String ROUTER = "router";
     public static final String DATABASE_MESSAGE_SAVE = "database.message.save";
+    public static final String DATABASE_MESSAGE_GET_RECENT = "database.message.getRecent";
     public static final String DATABASE_IMAGE_SAVE = "database.image.save";
     public static final String DATABASE_IMAGE_GET = "database.image.get";
-    public static final String DATABASE_IMAGE_GET_ALL_IDS = "database.image.getAllIds";
+    public static final String DATABASE_IMAGE_LIST = "database.image.list";
+    public static final String DATABASE_BLOB_REFERENCES = "database.blob.references";
+    public static final String DATABASE_OFFLINE_SAVE = "database.offline.save";
+    public static final String DATABASE_OFFLINE_GET = "database.offline.get";
+    public static final String DATABASE_OFFLINE_TRIM = "database.offline.trim";
+    public static final String DATABASE_ROOM_MEMBER_SAVE = "database.roomMember.save";
+    public static final String DATABASE_ROOM_MEMBER_LIST = "database.roomMember.list";
+    public static final String IMAGE_THUMBNAIL = "image.thumbnail";
     public static final String GET_HISTORY = "getHistory";
+    public static final String GET_RECENT_HISTORY = "getRecentHistory";
+    public static final String HISTORY_CACHE_PUT = "historyCache.put";
+    public static final String OFFLINE_QUEUE_PUT = "offlineQueue.put";
+    public static final String OFFLINE_QUEUE_REPLAY = "offlineQueue.replay";
+    public static final String OFFLINE_QUEUE_ACK = "offlineQueue.ack";
+    public static final String ROOM_DELIVER = "room.deliver";
+    public static final String ROOM_MEMBER_SAVE = "room.member.save";
+    public static final String ROOM_MEMBER_SYNC = "room.member.sync";
+    public static final String ROOM_MEMBER_CHANGED = "room.member.changed";
+    public static final String ROOM_MEMBERS = "room.members";
+    public static final String ROOM_MEMBERSHIPS = "room.memberships";
+    public static final String SEARCH = "search";
+    public static final String SEARCH_INDEX_ADD = "search.index.add";
+
+    public static String node(String nodeId) {
+        return "/node/" + nodeId;
+    }
 
     private Addresses() {
     }
@@ -0,0 +1,69 @@
+package org.example.verticle.util;
+
+/**
+ * A single byte range of an HTTP {@code Range} header, e.g. {@code bytes=0-499}, {@code bytes=500-} or
+ * {@code bytes=-500}. Multiple ranges are not supported and are served as the whole content.
+ */
+public class ByteRange {
+
+    public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    private static final String BYTES = "bytes=";
+
+    private final long start;
+    private final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Returns {@code null} if the header is missing, malformed or asks for several ranges,
+     * {@link #UNSATISFIABLE} if the range lies outside of the content.
+     */
+    public static ByteRange parse(String header, long size) {
+        if (header == null || !header.startsWith(BYTES) || header.indexOf(',') >= 0) {
+            return null;
+        }
+
+        final String spec = header.substring(BYTES.length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                final long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(size - suffix, 0), size - 1);
+            }
+
+            final long start = Long.parseLong(first);
+            final long end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            if (start >= size) {
+                return UNSATISFIABLE;
+            }
+            return start <= end ? new ByteRange(start, end) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long start() {
+        return start;
+    }
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    public String contentRange(long size) {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+}
@@ -0,0 +1,199 @@
+package org.example.verticle.util;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import org.example.metrics.Metrics;
+
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+import static org.example.verticle.util.ReplyMessages.error;
+import static org.example.verticle.util.ReplyMessages.getResult;
+import static org.example.verticle.util.ReplyMessages.isError;
+import static org.example.verticle.util.ReplyMessages.success;
+
+/**
+ * Transfers a stream of documents over the event bus in bounded batches.
+ * <p>
+ * The requester registers a temporary consumer and passes its address in the request under {@link #STREAM_ADDRESS}.
+ * The producer sends one batch at a time and reads the next one only after the previous batch has been acknowledged,
+ * so neither side holds more than a single batch regardless of the size of the stream.
+ */
+public class ChunkedStreams {
+
+    public static final String STREAM_ADDRESS = "streamAddress";
+    public static final String NDJSON = "application/x-ndjson";
+
+    private static final String ITEMS = "items";
+    private static final String LAST = "last";
+    private static final String ACK = "ack";
+
+    public static JsonObject chunk(JsonArray items, boolean last) {
+        return success(new JsonObject().put(ITEMS, items).put(LAST, last));
+    }
+
+    public static Buffer toNdjson(JsonArray items) {
+        final Buffer lines = Buffer.buffer();
+        for (Object item : items) {
+            lines.appendString(((JsonObject) item).encode()).appendByte((byte) '\n');
+        }
+        return lines;
+    }
+
+    public static void send(Vertx vertx, Message<JsonObject> request, ReadStream<JsonObject> source,
+                            int batchSize, long ackTimeout) {
+        final String address = request.body().getString(STREAM_ADDRESS);
+        if (address == null) {
+            request.reply(error("Missing required parameter: " + STREAM_ADDRESS));
+            return;
+        }
+        request.reply(ACK);
+
+        final DeliveryOptions options = new DeliveryOptions().setSendTimeout(ackTimeout);
+        final JsonArray[] batch = {new JsonArray()};
+
+        source.exceptionHandler(cause -> vertx.eventBus().send(address, error(cause)));
+        source.endHandler(ignored -> vertx.eventBus().send(address, chunk(batch[0], true)));
+        source.handler(item -> {
+            batch[0].add(item);
+            if (batch[0].size() < batchSize) {
+                return;
+            }
+            final JsonArray full = batch[0];
+            batch[0] = new JsonArray();
+            source.pause();
+            vertx.eventBus().send(address, chunk(full, false), options, (AsyncResult<Message<String>> ack) -> {
+                if (ack.succeeded()) {
+                    source.resume();
+                } else {
+                    // Receiver is gone or too slow: closing the handler releases the underlying cursor
+                    source.handler(null);
+                }
+            });
+        });
+    }
+
+    public static void toResponse(Vertx vertx, String requestAddress, JsonObject request,
+                                  HttpServerResponse response) {
+        final String streamAddress = requestAddress + ".stream." + UUID.randomUUID();
+        final MessageConsumer<JsonObject> consumer = vertx.eventBus().localConsumer(streamAddress);
+        final Message<?>[] pending = {null};
+
+        response.closeHandler(ignored -> {
+            consumer.unregister();
+            if (pending[0] != null) {
+                pending[0].fail(HttpResponseStatus.GONE.code(), "Client has closed the connection");
+                pending[0] = null;
+            }
+        });
+        consumer.handler(message -> {
+            final JsonObject body = message.body();
+            if (isError(body)) {
+                consumer.unregister();
+                if (response.headWritten()) {
+                    response.close();
+                } else {
+                    response.setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                            .putHeader("Content-Type", "application/json")
+                            .end(body.encodePrettily());
+                }
+                return;
+            }
+
+            if (!response.headWritten()) {
+                response.setChunked(true).putHeader("Content-Type", NDJSON);
+            }
+
+            final JsonObject result = getResult(body);
+            final Buffer lines = toNdjson(result.getJsonArray(ITEMS));
+
+            if (result.getBoolean(LAST)) {
+                consumer.unregister();
+                response.end(lines);
+                return;
+            }
+
+            response.write(lines);
+            if (response.writeQueueFull()) {
+                pending[0] = message;
+                response.drainHandler(drained -> {
+                    response.drainHandler(null);
+                    pending[0] = null;
+                    message.reply(ACK);
+                });
+            } else {
+                message.reply(ACK);
+            }
+        });
+
+        // The stream address is local, so the producer has to run on this node as well
+        final DeliveryOptions options = new DeliveryOptions().setLocalOnly(true);
+        final JsonObject streamRequest = request.copy().put(STREAM_ADDRESS, streamAddress);
+        consumer.completionHandler(registered -> vertx.eventBus().send(requestAddress, streamRequest, options,
+                Metrics.timed(requestAddress, (AsyncResult<Message<Object>> asyncResult) -> {
+                    final Object reply = asyncResult.succeeded() ? asyncResult.result().body() : null;
+                    if (asyncResult.failed() || reply instanceof JsonObject && isError((JsonObject) reply)) {
+                        consumer.unregister();
+                        response.setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                                .putHeader("Content-Type", "application/json")
+                                .end((asyncResult.failed() ? error(asyncResult.cause()) : (JsonObject) reply)
+                                        .encodePrettily());
+                    }
+                })));
+    }
+
+    /**
+     * Requests a stream from this node and hands each batch to {@code batchHandler}, acknowledging the batch once the
+     * handler calls back. {@code done} is called after the last batch or on the first failure.
+     */
+    public static void receive(Vertx vertx, String requestAddress, JsonObject request,
+                               BiConsumer<JsonArray, Handler<Void>> batchHandler, Handler<AsyncResult<Void>> done) {
+        final String streamAddress = requestAddress + ".stream." + UUID.randomUUID();
+        final MessageConsumer<JsonObject> consumer = vertx.eventBus().localConsumer(streamAddress);
+        consumer.handler(message -> {
+            final JsonObject body = message.body();
+            if (isError(body)) {
+                consumer.unregister();
+                done.handle(Future.failedFuture(body.getString("error")));
+                return;
+            }
+            final JsonObject result = getResult(body);
+            final boolean last = result.getBoolean(LAST);
+            batchHandler.accept(result.getJsonArray(ITEMS), handled -> {
+                if (last) {
+                    consumer.unregister();
+                    done.handle(Future.succeededFuture());
+                } else {
+                    message.reply(ACK);
+                }
+            });
+        });
+
+        final DeliveryOptions options = new DeliveryOptions().setLocalOnly(true);
+        final JsonObject streamRequest = request.copy().put(STREAM_ADDRESS, streamAddress);
+        consumer.completionHandler(registered -> vertx.eventBus().send(requestAddress, streamRequest, options,
+                Metrics.timed(requestAddress, (AsyncResult<Message<Object>> asyncResult) -> {
+                    final Object reply = asyncResult.succeeded() ? asyncResult.result().body() : null;
+                    if (asyncResult.failed() || reply instanceof JsonObject && isError((JsonObject) reply)) {
+                        consumer.unregister();
+                        done.handle(Future.failedFuture(asyncResult.failed() ?
+                                asyncResult.cause().getMessage() :
+                                ((JsonObject) reply).getString("error")));
+                    }
+                })));
+    }
+
+    private ChunkedStreams() {
+    }
+}
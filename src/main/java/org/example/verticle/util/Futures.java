@@ -0,0 +1,45 @@
+package org.example.verticle.util;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Typed counterpart of {@link io.vertx.core.CompositeFuture#all(List)}, which only takes a raw list.
+ */
+public class Futures {
+
+    /**
+     * Succeeds with the results in the order of the futures once all of them succeed, or fails with the first failure.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Future<List<T>> all(List<Future<T>> futures) {
+        if (futures.isEmpty()) {
+            return Future.succeededFuture(new ArrayList<>());
+        }
+        final Promise<List<T>> all = Promise.promise();
+        final Object[] results = new Object[futures.size()];
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            final int index = i;
+            futures.get(i).setHandler(completed -> {
+                if (completed.failed()) {
+                    all.tryFail(completed.cause());
+                    return;
+                }
+                results[index] = completed.result();
+                if (remaining.decrementAndGet() == 0) {
+                    all.tryComplete((List<T>) Arrays.asList(results));
+                }
+            });
+        }
+        return all.future();
+    }
+
+    private Futures() {
+    }
+}
@@ -0,0 +1,56 @@
+package org.example.verticle.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class Hashes {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Computes the SHA-256 of a file on a worker thread.
+     */
+    public static void sha256(Vertx vertx, String path, Handler<AsyncResult<String>> handler) {
+        vertx.executeBlocking(future -> {
+            final MessageDigest digest = sha256();
+            final byte[] buffer = new byte[64 * 1024];
+            try (InputStream input = Files.newInputStream(Paths.get(path))) {
+                int read;
+                while ((read = input.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+                future.complete(toHex(digest.digest()));
+            } catch (IOException e) {
+                future.fail(e);
+            }
+        }, false, handler);
+    }
+
+    private Hashes() {
+    }
+}
@@ -0,0 +1,14 @@
+package org.example.verticle.util;
+
+public class Headers {
+
+    // ID of the WebSocket verticle instance that received the message and already delivered it to its own sockets
+    public static final String ORIGIN = "origin";
+    // Token address a message sent to a node address has to be delivered to
+    public static final String TOKEN = "token";
+    // When the message entered the server, see Metrics.timestamp()
+    public static final String RECEIVED_AT = "receivedAt";
+
+    private Headers() {
+    }
+}
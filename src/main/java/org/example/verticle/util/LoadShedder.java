@@ -0,0 +1,65 @@
+package org.example.verticle.util;
+
+import org.example.metrics.Metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tells the edges to turn new messages away while the routers or message persistence of this process fall behind.
+ * <p>
+ * Routers report how long each message waited since it entered the server, see {@link #routed}; messages that entered
+ * through another node are left out, their lag would include the difference between the nodes' clocks. A lag report is
+ * only trusted for {@code LAG_VALIDITY}: once the edges shed load, routers catch up and receive nothing new, and the
+ * last lag must not keep shedding forever. Persistence backlog is the number of messages queued by the storage
+ * verticles. A non-positive threshold disables its check.
+ */
+public class LoadShedder {
+
+    private static final long LAG_VALIDITY = TimeUnit.SECONDS.toNanos(1);
+
+    private static final AtomicLong routerLag = new AtomicLong();
+    private static final AtomicLong routerLagReportedAt = new AtomicLong(System.nanoTime() - LAG_VALIDITY);
+    private static final LongAdder routerLagGauge = Metrics.counter("router_lag_ms");
+    // Gauge of the write-behind queue of StorageVerticle
+    private static final LongAdder storageBacklog = Metrics.counter("storage_message_queued");
+
+    private final long maxRouterLag;
+    private final long maxStorageBacklog;
+
+    /**
+     * @param maxRouterLag      milliseconds
+     * @param maxStorageBacklog messages
+     */
+    public LoadShedder(long maxRouterLag, long maxStorageBacklog) {
+        this.maxRouterLag = maxRouterLag;
+        this.maxStorageBacklog = maxStorageBacklog;
+    }
+
+    /**
+     * Called by routers for every message with the {@link Headers#RECEIVED_AT} header.
+     */
+    public static void routed(String receivedAt) {
+        if (!Metrics.isLocal(receivedAt)) {
+            return;
+        }
+        final long lag = TimeUnit.NANOSECONDS.toMillis(Metrics.elapsedNanos(receivedAt));
+        routerLagGauge.add(lag - routerLag.getAndSet(lag));
+        routerLagReportedAt.set(System.nanoTime());
+    }
+
+    /**
+     * Returns the reason to shed a new message, or {@code null} to accept it.
+     */
+    public String shed() {
+        if (maxRouterLag > 0 && routerLag.get() > maxRouterLag
+                && System.nanoTime() - routerLagReportedAt.get() < LAG_VALIDITY) {
+            return "router_lag";
+        }
+        if (maxStorageBacklog > 0 && storageBacklog.sum() > maxStorageBacklog) {
+            return "storage_backlog";
+        }
+        return null;
+    }
+}
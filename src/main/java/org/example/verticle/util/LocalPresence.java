@@ -0,0 +1,31 @@
+package org.example.verticle.util;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+
+/**
+ * Token addresses with sockets connected to this process, counted per WebSocket verticle instance like the
+ * cluster-wide {@link org.example.cluster.PresenceDirectory}. Thread-safe.
+ */
+public class LocalPresence {
+
+    private static final String MAP_NAME = "local-presence";
+
+    private final LocalMap<String, Integer> map;
+
+    public LocalPresence(Vertx vertx) {
+        map = vertx.sharedData().getLocalMap(MAP_NAME);
+    }
+
+    public void register(String address) {
+        map.compute(address, (ignored, count) -> count == null ? 1 : count + 1);
+    }
+
+    public void unregister(String address) {
+        map.compute(address, (ignored, count) -> count == null || count <= 1 ? null : count - 1);
+    }
+
+    public boolean isConnected(String address) {
+        return map.get(address) != null;
+    }
+}
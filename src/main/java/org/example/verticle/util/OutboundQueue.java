@@ -0,0 +1,226 @@
+package org.example.verticle.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.ServerWebSocket;
+import org.example.data.Data;
+import org.example.metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Messages on their way to a WebSocket. Messages are written as soon as possible while the socket keeps up and queued
+ * in order while its write queue is full; the queue is written out from the socket's drain handler. Once
+ * {@code maxSize} messages are queued the {@link Policy} decides what happens to new messages. A {@link #replay} of
+ * earlier messages goes ahead of the queue.
+ * <p>
+ * Must be used from the event-loop context of the socket.
+ */
+public class OutboundQueue {
+
+    public enum Policy {
+        /**
+         * Discard the oldest queued message.
+         */
+        DROP_OLDEST,
+        /**
+         * Close the socket, the client has to reconnect and catch up from the history.
+         */
+        DISCONNECT;
+
+        public static Policy of(String name) {
+            return valueOf(name.toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private static final LongAdder queued = Metrics.counter("ws_outbound_queued");
+    private static final LongAdder slowConsumers = Metrics.counter("ws_slow_consumers");
+    private static final LongAdder dropped = Metrics.counter("ws_outbound_dropped_total");
+    private static final LongAdder disconnects = Metrics.counter("ws_slow_consumer_disconnects_total");
+    private static final LongAdder frames = Metrics.counter("ws_outbound_frames_total");
+    private static final LongAdder messages = Metrics.counter("ws_outbound_messages_total");
+
+    private final Vertx vertx;
+    private final ServerWebSocket socket;
+    private final Policy policy;
+    private final int maxSize;
+    private final long batchWindow;
+    private final ArrayDeque<Data> pending = new ArrayDeque<>();
+    // Written before the pending messages, see replay
+    private String replayFrame;
+    private int replayCount;
+    private Handler<AsyncResult<Void>> replayWritten;
+    private boolean flushScheduled;
+    private boolean slow;
+    private boolean closed;
+
+    /**
+     * With a negative {@code batchWindow} every message is written as its own frame. Otherwise the messages sent
+     * within the window, or within the current event-loop tick for {@code 0}, are written as one frame holding a JSON
+     * array of the messages.
+     */
+    public OutboundQueue(Vertx vertx, ServerWebSocket socket, Policy policy, int maxSize, long batchWindow) {
+        this.vertx = vertx;
+        this.socket = socket;
+        this.policy = policy;
+        this.maxSize = maxSize;
+        this.batchWindow = batchWindow;
+        socket.drainHandler(ignored -> flush());
+    }
+
+    public void send(Data data) {
+        if (closed) {
+            return;
+        }
+
+        if (pending.size() < maxSize) {
+            enqueue(data);
+        } else if (policy == Policy.DISCONNECT) {
+            disconnects.increment();
+            close();
+            socket.close();
+            return;
+        } else {
+            dequeue();
+            dropped.increment();
+            enqueue(data);
+        }
+
+        if (batchWindow < 0) {
+            flush();
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Writes a frame of {@code count} earlier messages ahead of the queued ones. Messages sent meanwhile are queued
+     * behind it, so they do not interleave. The frame waits for the drain handler like the messages do; {@code written}
+     * is called once the socket has written it, or failed if the socket is closed first. One replay at a time.
+     */
+    public void replay(String frame, int count, Handler<AsyncResult<Void>> written) {
+        if (closed) {
+            written.handle(Future.failedFuture("Socket closed"));
+            return;
+        }
+        replayFrame = frame;
+        replayCount = count;
+        replayWritten = written;
+        flush();
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Discards the queued messages, must be called when the socket is closed.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        while (!pending.isEmpty()) {
+            dequeue();
+        }
+        if (replayWritten != null) {
+            final Handler<AsyncResult<Void>> written = replayWritten;
+            replayFrame = null;
+            replayWritten = null;
+            written.handle(Future.failedFuture("Socket closed"));
+        }
+        setSlow(false);
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        if (batchWindow == 0) {
+            vertx.runOnContext(ignored -> flush());
+        } else {
+            vertx.setTimer(batchWindow, ignored -> flush());
+        }
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        if (closed) {
+            return;
+        }
+        if (replayFrame != null) {
+            if (socket.writeQueueFull()) {
+                setSlow(true);
+                return;
+            }
+            writeReplay();
+        }
+
+        if (batchWindow < 0) {
+            while (!pending.isEmpty() && !socket.writeQueueFull()) {
+                write(dequeue());
+            }
+        } else if (pending.size() == 1 && !socket.writeQueueFull()) {
+            write(dequeue());
+        } else if (!pending.isEmpty() && !socket.writeQueueFull()) {
+            // Messages are already encoded once for all recipients, so the array is assembled from their text
+            final int count = pending.size();
+            final StringBuilder batch = new StringBuilder().append('[');
+            while (!pending.isEmpty()) {
+                batch.append(dequeue().encode()).append(',');
+            }
+            batch.setCharAt(batch.length() - 1, ']');
+            write(batch.toString(), count);
+        }
+        // Whatever is left waits for the drain handler
+        setSlow(!pending.isEmpty());
+    }
+
+    private void write(Data data) {
+        // Encoded once for all the sockets of the message
+        socket.writeFinalTextFrame(data.encode());
+        frames.increment();
+        messages.increment();
+    }
+
+    private void write(String frame, int count) {
+        socket.writeFinalTextFrame(frame);
+        frames.increment();
+        messages.add(count);
+    }
+
+    private void writeReplay() {
+        final Handler<AsyncResult<Void>> written = replayWritten;
+        socket.writeFinalTextFrame(replayFrame, written);
+        replayFrame = null;
+        replayWritten = null;
+        frames.increment();
+        messages.add(replayCount);
+    }
+
+    private void setSlow(boolean slow) {
+        if (this.slow != slow) {
+            this.slow = slow;
+            if (slow) {
+                slowConsumers.increment();
+            } else {
+                slowConsumers.decrement();
+            }
+        }
+    }
+
+    private void enqueue(Data data) {
+        pending.addLast(data);
+        queued.increment();
+    }
+
+    private Data dequeue() {
+        queued.decrement();
+        return pending.pollFirst();
+    }
+}
@@ -0,0 +1,53 @@
+package org.example.verticle.util;
+
+import org.slf4j.Logger;
+
+/**
+ * Logs at most {@code maxPerInterval} messages per interval for paths that run per frame or per message, and reports
+ * how many were suppressed once the interval is over. Not thread-safe: meant to be owned by a single verticle.
+ */
+public class RateLimitedLogger {
+
+    private final Logger log;
+    private final int maxPerInterval;
+    private final long interval;
+    private long intervalStart;
+    private int logged;
+    private int suppressed;
+
+    public RateLimitedLogger(Logger log, int maxPerInterval, long interval) {
+        this.log = log;
+        this.maxPerInterval = maxPerInterval;
+        this.interval = interval;
+    }
+
+    public void debug(String format, Object... arguments) {
+        if (log.isDebugEnabled() && acquire()) {
+            log.debug(format, arguments);
+        }
+    }
+
+    public void warn(String format, Object... arguments) {
+        if (log.isWarnEnabled() && acquire()) {
+            log.warn(format, arguments);
+        }
+    }
+
+    private boolean acquire() {
+        final long now = System.currentTimeMillis();
+        if (now - intervalStart >= interval) {
+            if (suppressed > 0) {
+                log.warn("{} log messages suppressed in the last {} ms", suppressed, now - intervalStart);
+            }
+            intervalStart = now;
+            logged = 0;
+            suppressed = 0;
+        }
+        if (logged < maxPerInterval) {
+            logged++;
+            return true;
+        }
+        suppressed++;
+        return false;
+    }
+}
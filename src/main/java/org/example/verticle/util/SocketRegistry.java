@@ -0,0 +1,100 @@
+package org.example.verticle.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Outbound queues of the sockets connected to a verticle instance, grouped by their token address, and the rooms
+ * those addresses are members of. Not thread-safe.
+ */
+public class SocketRegistry {
+
+    private final Map<String, List<OutboundQueue>> sockets = new HashMap<>();
+    // Connected addresses by room and the other way round
+    private final Map<String, Set<String>> roomAddresses = new HashMap<>();
+    private final Map<String, Set<String>> addressRooms = new HashMap<>();
+
+    /**
+     * Returns {@code true} if this is the first socket for the address.
+     */
+    public boolean add(String address, OutboundQueue socket) {
+        final List<OutboundQueue> addressSockets = sockets.computeIfAbsent(address, ignored -> new ArrayList<>(1));
+        addressSockets.add(socket);
+        return addressSockets.size() == 1;
+    }
+
+    /**
+     * Returns {@code true} if this was the last socket for the address, which also leaves its rooms.
+     */
+    public boolean remove(String address, OutboundQueue socket) {
+        final List<OutboundQueue> addressSockets = sockets.get(address);
+        if (addressSockets == null || !addressSockets.remove(socket)) {
+            return false;
+        }
+        if (addressSockets.isEmpty()) {
+            sockets.remove(address);
+            final Set<String> rooms = addressRooms.remove(address);
+            if (rooms != null) {
+                rooms.forEach(room -> removeFromRoom(room, address));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public List<OutboundQueue> get(String address) {
+        return sockets.getOrDefault(address, Collections.emptyList());
+    }
+
+    /**
+     * Makes the sockets of the address receive the messages of the room, as long as the address stays connected.
+     * Ignored if it has no sockets.
+     */
+    public void join(String address, String room) {
+        if (!sockets.containsKey(address)) {
+            return;
+        }
+        addressRooms.computeIfAbsent(address, ignored -> new HashSet<>()).add(room);
+        roomAddresses.computeIfAbsent(room, ignored -> new HashSet<>()).add(address);
+    }
+
+    public void leave(String address, String room) {
+        final Set<String> rooms = addressRooms.get(address);
+        if (rooms != null && rooms.remove(room)) {
+            if (rooms.isEmpty()) {
+                addressRooms.remove(address);
+            }
+            removeFromRoom(room, address);
+        }
+    }
+
+    /**
+     * Every socket of the addresses in the room, without looking at the members that are not connected here.
+     */
+    public void forEachInRoom(String room, Consumer<OutboundQueue> action) {
+        final Set<String> addresses = roomAddresses.get(room);
+        if (addresses == null) {
+            return;
+        }
+        for (String address : addresses) {
+            sockets.get(address).forEach(action);
+        }
+    }
+
+    public int size() {
+        return sockets.size();
+    }
+
+    private void removeFromRoom(String room, String address) {
+        final Set<String> addresses = roomAddresses.get(room);
+        if (addresses != null && addresses.remove(address) && addresses.isEmpty()) {
+            roomAddresses.remove(room);
+        }
+    }
+}
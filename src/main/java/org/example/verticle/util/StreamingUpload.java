@@ -0,0 +1,165 @@
+package org.example.verticle.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.streams.ReadStream;
+import org.example.metrics.Metrics;
+
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes a stream to a new file, computing the SHA-256 and the size of the content on the way so the file does not
+ * have to be read again. The source is paused while the file lags behind.
+ * <p>
+ * Once the content exceeds {@code maxSize} bytes, or on any error, the file is deleted and the rest of the source is
+ * discarded.
+ */
+public class StreamingUpload {
+
+    public static class TooLargeException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        TooLargeException(long maxSize) {
+            super("Upload is larger than " + maxSize + " bytes");
+        }
+    }
+
+    public static class Result {
+        private final String path;
+        private final long size;
+        private final String sha256;
+
+        Result(String path, long size, String sha256) {
+            this.path = path;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+
+        public String path() {
+            return path;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public String sha256() {
+            return sha256;
+        }
+    }
+
+    private static final LongAdder uploadedBytes = Metrics.counter("image_upload_bytes_total");
+
+    private final Vertx vertx;
+    private final ReadStream<Buffer> source;
+    private final String path;
+    private final long maxSize;
+    private final Handler<AsyncResult<Result>> handler;
+    private final MessageDigest digest = Hashes.sha256();
+    private AsyncFile file;
+    private long size;
+    private boolean finished;
+
+    public static void receive(Vertx vertx, ReadStream<Buffer> source, String path, long maxSize,
+                               Handler<AsyncResult<Result>> handler) {
+        new StreamingUpload(vertx, source, path, maxSize, handler).start();
+    }
+
+    private StreamingUpload(Vertx vertx, ReadStream<Buffer> source, String path, long maxSize,
+                            Handler<AsyncResult<Result>> handler) {
+        this.vertx = vertx;
+        this.source = source;
+        this.path = path;
+        this.maxSize = maxSize;
+        this.handler = handler;
+    }
+
+    private void start() {
+        // Nothing may be read before there is a file to write it to
+        source.pause();
+        source.exceptionHandler(this::fail);
+        vertx.fileSystem().open(path, new OpenOptions().setWrite(true).setCreateNew(true), opened -> {
+            if (opened.failed()) {
+                fail(opened.cause());
+                return;
+            }
+            file = opened.result();
+            if (finished) {
+                // The source failed while the file was being opened
+                deleteFile(null);
+                return;
+            }
+            file.exceptionHandler(this::fail);
+            source.handler(this::write);
+            source.endHandler(ignored -> close());
+            source.resume();
+        });
+    }
+
+    private void write(Buffer buffer) {
+        if (finished) {
+            return;
+        }
+        size += buffer.length();
+        if (size > maxSize) {
+            fail(new TooLargeException(maxSize));
+            return;
+        }
+        digest.update(buffer.getByteBuf().nioBuffer());
+        uploadedBytes.add(buffer.length());
+        file.write(buffer);
+        if (file.writeQueueFull()) {
+            source.pause();
+            file.drainHandler(drained -> source.resume());
+        }
+    }
+
+    private void close() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        file.close(closed -> {
+            if (closed.failed()) {
+                deleteFile(closed.cause());
+            } else {
+                handler.handle(Future.succeededFuture(new Result(path, size, Hashes.toHex(digest.digest()))));
+            }
+        });
+    }
+
+    private void fail(Throwable cause) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        // Keep reading so the client gets the response instead of a stalled connection
+        source.handler(ignored -> {
+        });
+        source.endHandler(null);
+        source.resume();
+        if (file == null) {
+            handler.handle(Future.failedFuture(cause));
+        } else {
+            deleteFile(cause);
+        }
+    }
+
+    /**
+     * Deletes the file, then fails the handler with {@code cause} if there is one.
+     */
+    private void deleteFile(Throwable cause) {
+        file.close(closed -> vertx.fileSystem().delete(path, deleted -> {
+            if (cause != null) {
+                handler.handle(Future.failedFuture(cause));
+            }
+        }));
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.verticle.util;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+public class Thumbnails {
+
+    /**
+     * Content types that can be resized; anything else is served as is.
+     */
+    public static final List<String> SUPPORTED_TYPES = Arrays.asList("image/jpeg", "image/png", "image/gif",
+            "image/bmp");
+
+    /**
+     * JPEG stays JPEG, everything else becomes PNG to keep transparency.
+     */
+    public static String outputType(String contentType) {
+        return "image/jpeg".equals(contentType) ? "image/jpeg" : "image/png";
+    }
+
+    /**
+     * Scales the image down to fit into {@code width} x {@code height}, keeping its proportions; smaller images keep
+     * their size. Images of more than {@code maxPixels} are refused. Blocks, so must not be called on an event loop.
+     */
+    public static void resize(String source, String target, int width, int height, String outputType,
+                              long maxPixels) throws IOException {
+        final BufferedImage image = read(new File(source), width, height, maxPixels);
+        final double scale = Math.min(1, Math.min(width / (double) image.getWidth(),
+                height / (double) image.getHeight()));
+        final int scaledWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        final int scaledHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        final boolean jpeg = "image/jpeg".equals(outputType);
+
+        final BufferedImage scaled = new BufferedImage(scaledWidth, scaledHeight,
+                jpeg ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            if (jpeg) {
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, scaledWidth, scaledHeight);
+            }
+            graphics.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+        } finally {
+            graphics.dispose();
+        }
+        if (!ImageIO.write(scaled, jpeg ? "jpeg" : "png", new File(target))) {
+            throw new IOException("No writer for " + outputType);
+        }
+    }
+
+    /**
+     * Checks the size from the header before decoding anything, then decodes only every n-th pixel of images more
+     * than twice the target size: the scaling would not use the others.
+     */
+    private static BufferedImage read(File source, int width, int height, long maxPixels) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(source)) {
+            final Iterator<ImageReader> readers = input == null ?
+                    Collections.<ImageReader>emptyIterator() :
+                    ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + source);
+            }
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                final int sourceWidth = reader.getWidth(0);
+                final int sourceHeight = reader.getHeight(0);
+                if ((long) sourceWidth * sourceHeight > maxPixels) {
+                    throw new IOException("Image of " + sourceWidth + "x" + sourceHeight + " pixels is too large: "
+                            + source);
+                }
+                final int step = Math.max(1, Math.min(sourceWidth / (2 * width), sourceHeight / (2 * height)));
+                final ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private Thumbnails() {
+    }
+}
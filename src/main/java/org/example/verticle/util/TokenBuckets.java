@@ -0,0 +1,95 @@
+package org.example.verticle.util;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets by key, refilled at {@code rate} tokens per second up to {@code burst} tokens. Thread-safe, so all
+ * instances of a verticle share one through {@link #shared} and a key is limited however many connections it uses.
+ * <p>
+ * A bucket that has refilled completely is the same as a missing one, such buckets are dropped every
+ * {@code SWEEP_INTERVAL} so idle keys do not pile up.
+ */
+public class TokenBuckets implements Shareable {
+
+    private static final String SHARED_MAP = "token-buckets";
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    private final double tokensPerNano;
+    private final double burst;
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL);
+
+    /**
+     * Returns the buckets registered under {@code name} in this Vert.x instance, creating them with the given limits
+     * if needed.
+     */
+    public static TokenBuckets shared(Vertx vertx, String name, double rate, int burst) {
+        final LocalMap<String, TokenBuckets> map = vertx.sharedData().getLocalMap(SHARED_MAP);
+        final TokenBuckets created = new TokenBuckets(rate, burst);
+        final TokenBuckets existing = map.putIfAbsent(name, created);
+        return existing == null ? created : existing;
+    }
+
+    public TokenBuckets(double rate, int burst) {
+        this.tokensPerNano = rate / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+    }
+
+    /**
+     * Takes a token from the bucket of the key. Returns {@code 0} if there was one, otherwise the milliseconds until
+     * the next token.
+     */
+    public long tryAcquire(String key) {
+        final long now = System.nanoTime();
+        sweep(now);
+        return buckets.computeIfAbsent(key, ignored -> new Bucket(now)).tryAcquire(now);
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    private void sweep(long now) {
+        final long sweepAt = nextSweep.get();
+        if (now - sweepAt >= 0 && nextSweep.compareAndSet(sweepAt, now + SWEEP_INTERVAL)) {
+            // A token taken from a bucket while it is dropped is lost, which only lets its key through once more
+            buckets.values().removeIf(bucket -> bucket.isFull(now));
+        }
+    }
+
+    private class Bucket {
+
+        private double tokens = burst;
+        private long refilledAt;
+
+        Bucket(long now) {
+            refilledAt = now;
+        }
+
+        synchronized long tryAcquire(long now) {
+            refill(now);
+            if (tokens >= 1) {
+                tokens--;
+                return 0;
+            }
+            return Math.max(TimeUnit.NANOSECONDS.toMillis((long) Math.ceil((1 - tokens) / tokensPerNano)), 1);
+        }
+
+        synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= burst;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.example.verticle.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import org.example.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects items and writes them in batches of at most {@code maxBatchSize} items, either when that many are pending
+ * or when the oldest pending item has waited {@code flushInterval} milliseconds. At most one batch is written at a
+ * time and at most {@code maxQueueSize} items are held in memory, including the batch being written.
+ * <p>
+ * Must be used from a single event-loop context.
+ */
+public class WriteBehindQueue<T> {
+
+    public interface Writer<T> {
+        void write(List<T> batch, Handler<AsyncResult<Void>> done);
+    }
+
+    private final Vertx vertx;
+    private final int maxBatchSize;
+    private final long flushInterval;
+    private final int maxQueueSize;
+    private final Writer<T> writer;
+
+    private final LongAdder flushes;
+    private final LongAdder flushedItems;
+    private final LongAdder flushFailures;
+    private final LongAdder flushLatency;
+    private final LongAdder rejected;
+    private final LongAdder queued;
+
+    private List<T> pending = new ArrayList<>();
+    private List<Handler<AsyncResult<Void>>> pendingHandlers = new ArrayList<>();
+    private int inFlight;
+    private long timerId = -1;
+    private Handler<AsyncResult<Void>> closeHandler;
+
+    public WriteBehindQueue(Vertx vertx, String name, int maxBatchSize, long flushInterval, int maxQueueSize,
+                            Writer<T> writer) {
+        this.vertx = vertx;
+        this.maxBatchSize = maxBatchSize;
+        this.flushInterval = flushInterval;
+        this.maxQueueSize = maxQueueSize;
+        this.writer = writer;
+        flushes = Metrics.counter(name + "_flush_total");
+        flushedItems = Metrics.counter(name + "_flush_items_total");
+        flushFailures = Metrics.counter(name + "_flush_failures_total");
+        flushLatency = Metrics.counter(name + "_flush_latency_ms_total");
+        rejected = Metrics.counter(name + "_rejected_total");
+        queued = Metrics.counter(name + "_queued");
+    }
+
+    /**
+     * Returns {@code false} without queueing the item if the queue is full or closed.
+     * Otherwise {@code flushed} (may be {@code null}) is completed once the batch containing the item is written.
+     */
+    public boolean offer(T item, Handler<AsyncResult<Void>> flushed) {
+        if (closeHandler != null || size() >= maxQueueSize) {
+            rejected.increment();
+            return false;
+        }
+
+        pending.add(item);
+        pendingHandlers.add(flushed);
+        queued.increment();
+        if (pending.size() >= maxBatchSize) {
+            flush();
+        } else {
+            scheduleFlush();
+        }
+        return true;
+    }
+
+    public int size() {
+        return pending.size() + inFlight;
+    }
+
+    public void close(Handler<AsyncResult<Void>> closed) {
+        closeHandler = closed;
+        flush();
+        completeClose();
+    }
+
+    private void flush() {
+        if (inFlight > 0 || pending.isEmpty()) {
+            return;
+        }
+        if (timerId >= 0) {
+            vertx.cancelTimer(timerId);
+            timerId = -1;
+        }
+
+        final List<T> batch;
+        final List<Handler<AsyncResult<Void>>> handlers;
+        if (pending.size() <= maxBatchSize) {
+            batch = pending;
+            handlers = pendingHandlers;
+            pending = new ArrayList<>();
+            pendingHandlers = new ArrayList<>();
+        } else {
+            // Piled up during a slow write, the rest follows in the next batches
+            batch = new ArrayList<>(pending.subList(0, maxBatchSize));
+            handlers = new ArrayList<>(pendingHandlers.subList(0, maxBatchSize));
+            pending.subList(0, maxBatchSize).clear();
+            pendingHandlers.subList(0, maxBatchSize).clear();
+        }
+        inFlight = batch.size();
+
+        final long startTime = System.currentTimeMillis();
+        writer.write(batch, asyncResult -> {
+            flushes.increment();
+            flushedItems.add(batch.size());
+            flushLatency.add(System.currentTimeMillis() - startTime);
+            if (asyncResult.failed()) {
+                flushFailures.increment();
+            }
+            inFlight = 0;
+            queued.add(-batch.size());
+
+            final AsyncResult<Void> result = asyncResult.failed() ?
+                    Future.failedFuture(asyncResult.cause()) :
+                    Future.succeededFuture();
+            for (Handler<AsyncResult<Void>> handler : handlers) {
+                if (handler != null) {
+                    handler.handle(result);
+                }
+            }
+
+            if (pending.size() >= maxBatchSize || closeHandler != null) {
+                flush();
+            } else if (!pending.isEmpty()) {
+                scheduleFlush();
+            }
+            completeClose();
+        });
+    }
+
+    private void scheduleFlush() {
+        if (timerId < 0) {
+            timerId = vertx.setTimer(flushInterval, ignored -> {
+                timerId = -1;
+                flush();
+            });
+        }
+    }
+
+    private void completeClose() {
+        if (closeHandler != null && size() == 0) {
+            final Handler<AsyncResult<Void>> closed = closeHandler;
+            closeHandler = ignored -> {
+            };
+            closed.handle(Future.succeededFuture());
+        }
+    }
+}
@@ -69,11 +69,25 @@ document.addEventListener("DOMContentLoaded", function() {
         var data = event.data;
         console.log("message: " + data);
         if(data) {
-            var oldText = outputTextMessage.value;
+            var json = JSON.parse(data);
+            // Messages sent within a short window may arrive batched in one frame
+            var messages = Array.isArray(json) ? json : [json];
+            for (var i = 0; i < messages.length; i++) {
+                outputTextMessage.value = messageLine(messages[i]) + "\n" + outputTextMessage.value;
+            }
+        }
+    }
 
-            var jsonText = JSON.parse(data);
-            outputTextMessage.value = jsonText.text + "\n" + oldText;
+    // Rejected messages come back as {"error": ..., "retryAfter": <ms>}
+    function messageLine(message) {
+        if (message.error === undefined) {
+            return message.text;
+        }
+        var line = "Error: " + message.error;
+        if (message.retryAfter !== undefined) {
+            line += ", retry after " + message.retryAfter + " ms";
         }
+        return line;
     }
 
     function wsClose(event) {
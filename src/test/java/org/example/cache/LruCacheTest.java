@@ -0,0 +1,34 @@
+package org.example.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LruCacheTest {
+
+    @Test
+    void evict_least_recently_used_despite_peek() {
+        final LruCache<String, String> cache = new LruCache<>("test_cache", 2);
+        cache.put("one", "1");
+        cache.put("two", "2");
+        cache.get("two");
+        cache.peek("one");
+        cache.put("three", "3");
+
+        assertThat(cache.peek("one")).isNull();
+        assertThat(cache.peek("two")).isEqualTo("2");
+    }
+
+    @Test
+    void evict_by_weight_after_change_in_place() {
+        final LruCache<String, StringBuilder> cache = new LruCache<>("test_cache", 10, StringBuilder::length);
+        cache.put("one", new StringBuilder("aaaa"));
+        cache.put("two", new StringBuilder("bbbb"));
+
+        cache.peek("two").append("bbbb");
+        cache.reweigh("two");
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.weight()).isEqualTo(8);
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.data;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DataCodecTest {
+
+    private final DataCodec codec = new DataCodec();
+
+    @Test
+    void wire_round_trip() {
+        final Data data = Data.decode("{\"address\":\"bob\",\"text\":\"\u041f\u0440\u0438\u0432\u0435\u0442, \u0411\u043e\u0431\"}");
+        final Buffer buffer = Buffer.buffer().appendString("prefix");
+        codec.encodeToWire(buffer, data);
+
+        final Data decoded = codec.decodeFromWire("prefix".length(), buffer);
+        assertThat(decoded.getAddress()).isEqualTo("bob");
+        assertThat(decoded.getText()).isEqualTo("\u041f\u0440\u0438\u0432\u0435\u0442, \u0411\u043e\u0431");
+    }
+
+    @Test
+    void wire_round_trip_with_missing_fields() {
+        final Data data = new Data();
+        data.setAddress("bob");
+        final Buffer buffer = Buffer.buffer();
+        codec.encodeToWire(buffer, data);
+
+        final Data decoded = codec.decodeFromWire(0, buffer);
+        assertThat(decoded.getAddress()).isEqualTo("bob");
+        assertThat(decoded.getText()).isNull();
+    }
+
+    @Test
+    void wire_round_trip_with_stamp() {
+        final Data data = Data.decode("{\"address\":\"bob\",\"text\":\"hi\"}").stamp();
+        final Buffer buffer = Buffer.buffer();
+        codec.encodeToWire(buffer, data);
+
+        final Data decoded = codec.decodeFromWire(0, buffer);
+        assertThat(decoded.getId()).isEqualTo(data.getId()).isPositive();
+        assertThat(decoded.getTimestamp()).isEqualTo(data.getTimestamp());
+        assertThat(decoded.stamp()).isSameAs(decoded);
+    }
+
+    @Test
+    void local_transform_keeps_instance() {
+        final Data data = new Data();
+        assertThat(codec.transform(data)).isSameAs(data);
+    }
+}
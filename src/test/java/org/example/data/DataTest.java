@@ -0,0 +1,28 @@
+package org.example.data;
+
+import io.vertx.core.json.DecodeException;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DataTest {
+
+    @Test
+    void replace_client_stamp() {
+        final Data data = Data.decode("{\"address\":\"bob\",\"text\":\"hi\",\"id\":42,\"timestamp\":7}");
+        assertThat(data.isStamped()).isFalse();
+
+        final Data stamped = data.stamp();
+        assertThat(stamped.getId()).isNotEqualTo(42L).isPositive();
+        assertThat(stamped.getTimestamp()).isNotEqualTo(7L);
+        assertThat(stamped.getText()).isEqualTo("hi");
+    }
+
+    @Test
+    void reject_anything_but_object() {
+        for (String json : new String[]{"null", "[]", "42", "\"text\""}) {
+            assertThatThrownBy(() -> Data.decode(json)).isInstanceOf(DecodeException.class);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.example.data;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MessageIdsTest {
+
+    @AfterEach
+    void reset_node() {
+        MessageIds.setNode(0);
+    }
+
+    @Test
+    void carry_node_and_increase() {
+        MessageIds.setNode(7);
+        final long first = MessageIds.next();
+        final long second = MessageIds.next();
+
+        assertThat(second).isGreaterThan(first);
+        assertThat(first & 0xFF).isEqualTo(7);
+        // Time since the custom epoch, far from the sign bit
+        assertThat(first).isPositive().isLessThan(1L << 60);
+        assertThatThrownBy(() -> MessageIds.setNode(256)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetricsTest {
+
+    @Test
+    void escape_label_values() {
+        Metrics.counter("test_escaped_total", "address", "a\\b\"c\nd").increment();
+
+        assertThat(Metrics.prometheus()).contains("test_escaped_total{address=\"a\\\\b\\\"c\\nd\"} 1\n");
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.search;
+
+import io.vertx.core.json.JsonObject;
+import org.example.data.Data;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SearchIndexTest {
+
+    // "Station" in Russian
+    private static final String STANTSIYA = "\u0421\u0442\u0430\u043d\u0446\u0438\u044f";
+
+    @Test
+    void match_every_word_of_the_query() {
+        final SearchIndex index = new SearchIndex(2);
+        add(index, message(1, "bob", "Meet me at the Station"), message(2, "bob", "the train is late"),
+                message(3, "alice", STANTSIYA + ", 5 min"), message(4, "alice", "station closed?"));
+
+        assertThat(texts(search(index, "STATION", null, 10)))
+                .containsExactly("station closed?", "Meet me at the Station");
+        assertThat(texts(search(index, "the station", null, 10))).containsExactly("Meet me at the Station");
+        assertThat(texts(search(index, STANTSIYA.toLowerCase(), null, 10))).containsExactly(STANTSIYA + ", 5 min");
+        assertThat(texts(search(index, "station", "bob", 10))).containsExactly("Meet me at the Station");
+        assertThat(search(index, "station bus", null, 10)).isEmpty();
+        assertThat(search(index, "?!", null, 10)).isEmpty();
+    }
+
+    @Test
+    void return_most_recent_across_blocks() {
+        final SearchIndex index = new SearchIndex(1);
+        final List<Data> messages = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            // Every third message is even, so the lists of both words span several blocks
+            messages.add(message(i, "bob", (i % 2 == 0 ? "even" : "odd") + (i % 3 == 0 ? " third" : "")));
+        }
+        index.add(0, messages);
+
+        assertThat(search(index, "even third", null, 3)).extracting(Data::getId).containsExactly(996L, 990L, 984L);
+        assertThat(search(index, "third even", "bob", 1000)).hasSize(166);
+    }
+
+    private static void add(SearchIndex index, Data... messages) {
+        for (Data data : messages) {
+            index.add(index.shardOf(data.getAddress()), Arrays.asList(data));
+        }
+    }
+
+    private static List<Data> search(SearchIndex index, String query, String address, int limit) {
+        final List<List<Data>> results = new ArrayList<>();
+        for (int i = 0; i < index.shards(); i++) {
+            results.add(index.search(i, SearchIndex.terms(query, address), limit));
+        }
+        return SearchIndex.merge(results, limit);
+    }
+
+    private static List<String> texts(List<Data> messages) {
+        final List<String> texts = new ArrayList<>();
+        messages.forEach(data -> texts.add(data.getText()));
+        return texts;
+    }
+
+    private static Data message(long id, String address, String text) {
+        return Data.fromJson(new JsonObject().put("id", id).put("address", address).put("text", text));
+    }
+}
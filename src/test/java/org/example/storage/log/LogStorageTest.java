@@ -0,0 +1,151 @@
+package org.example.storage.log;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(VertxExtension.class)
+public class LogStorageTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void create_directory() throws IOException {
+        directory = Files.createTempDirectory("log-storage");
+    }
+
+    @AfterEach
+    void delete_directory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    void rebuild_index_when_reopened(Vertx vertx, VertxTestContext testContext) throws IOException {
+        final LogStorage first = new LogStorage(vertx, directory, 1024, 1);
+        final List<JsonObject> messages = Arrays.asList(message("bob", "one"), message("alice", "two"),
+                message("bob", "three"));
+
+        first.saveMessages(messages, saved -> first.close(closed -> testContext.verify(() -> {
+            assertThat(saved.succeeded()).isTrue();
+            final LogStorage second = new LogStorage(vertx, directory, 1024, 1);
+            second.recentMessages("bob", Long.MAX_VALUE, 10, recent -> testContext.verify(() -> {
+                assertThat(recent.result()).extracting(message -> message.getString("text"))
+                        .containsExactly("one", "three");
+                second.close(testContext.completing());
+            }));
+        })));
+    }
+
+    @Test
+    void page_messages_by_id(Vertx vertx, VertxTestContext testContext) throws IOException {
+        final LogStorage storage = new LogStorage(vertx, directory, 1024, -1);
+        // Saved slightly out of ID order, as by concurrent routers
+        final List<JsonObject> messages = Arrays.asList(message("bob", "one").put("id", 10L),
+                message("bob", "three").put("id", 30L), message("bob", "two").put("id", 20L));
+
+        storage.saveMessages(messages, saved -> storage.recentMessages("bob", Long.MAX_VALUE, 2, latest ->
+                storage.recentMessages("bob", 20, 2, previous -> testContext.verify(() -> {
+                    assertThat(latest.result()).extracting(message -> message.getString("text"))
+                            .containsExactly("two", "three");
+                    assertThat(previous.result()).extracting(message -> message.getString("text"))
+                            .containsExactly("one");
+                    storage.close(testContext.completing());
+                }))));
+    }
+
+    @Test
+    void list_images_after_id(Vertx vertx, VertxTestContext testContext) throws IOException {
+        final LogStorage storage = new LogStorage(vertx, directory, 1024, -1);
+        storage.saveImage(new JsonObject().put("fileName", "a.png").put("uploadedFileName", "x"), first ->
+                storage.saveImage(new JsonObject().put("fileName", "b.png"), second -> {
+                    storage.listImages(first.result(), 10, page -> testContext.verify(() -> {
+                        assertThat(page.result()).hasSize(1);
+                        assertThat(page.result().get(0).getString("_id")).isEqualTo(second.result());
+                        assertThat(page.result().get(0).getString("fileName")).isEqualTo("b.png");
+                    }));
+                    storage.findImage(first.result(), image -> testContext.verify(() -> {
+                        assertThat(image.result().getString("uploadedFileName")).isEqualTo("x");
+                        storage.close(testContext.completing());
+                    }));
+                }));
+    }
+
+    @Test
+    void count_blob_references(Vertx vertx, VertxTestContext testContext) throws IOException {
+        final LogStorage storage = new LogStorage(vertx, directory, 1024, -1);
+        final JsonObject image = new JsonObject().put("fileName", "a.png").put("sha256", "abc");
+        storage.saveImage(image.copy(), first -> storage.saveImage(image.copy(), second ->
+                storage.blobReferences("abc", references -> testContext.verify(() -> {
+                    assertThat(references.result()).isEqualTo(2);
+                    storage.close(closed -> {
+                        try {
+                            final LogStorage reopened = new LogStorage(vertx, directory, 1024, -1);
+                            reopened.blobReferences("abc", reloaded -> testContext.verify(() -> {
+                                assertThat(reloaded.result()).isEqualTo(2);
+                                reopened.close(testContext.completing());
+                            }));
+                        } catch (IOException e) {
+                            testContext.failNow(e);
+                        }
+                    });
+                }))));
+    }
+
+    @Test
+    void trim_offline_messages(Vertx vertx, VertxTestContext testContext) throws IOException {
+        final LogStorage first = new LogStorage(vertx, directory, 1024, -1);
+        final List<JsonObject> offline = Arrays.asList(offline("bob", 1, "one"), offline("bob", 2, "two"),
+                offline("alice", 3, "three"));
+        final List<Long> replayed = Collections.singletonList(1L);
+
+        first.saveOfflineMessages(offline, saved -> first.trimOfflineMessages("bob", replayed, trimmed ->
+                first.close(closed -> testContext.verify(() -> {
+                    final LogStorage second = new LogStorage(vertx, directory, 1024, -1);
+                    second.offlineMessages("bob", 10, kept -> testContext.verify(() -> {
+                        assertThat(kept.result()).extracting(message -> message.getLong("seq")).containsExactly(2L);
+                        second.close(testContext.completing());
+                    }));
+                }))));
+    }
+
+    @Test
+    void keep_room_members_when_reopened(Vertx vertx, VertxTestContext testContext) throws IOException {
+        final LogStorage first = new LogStorage(vertx, directory, 1024, -1);
+
+        first.saveRoomMember("general", "bob", true, bob -> first.saveRoomMember("general", "alice", true, alice ->
+                first.saveRoomMember("general", "bob", false, left -> first.close(closed -> testContext.verify(() -> {
+                    final LogStorage second = new LogStorage(vertx, directory, 1024, -1);
+                    second.roomMembers(members -> testContext.verify(() -> {
+                        assertThat(members.result()).containsExactly(new JsonObject()
+                                .put("room", "general").put("member", "alice"));
+                        second.close(testContext.completing());
+                    }));
+                })))));
+    }
+
+    private static JsonObject offline(String address, long seq, String text) {
+        return new JsonObject().put("address", address).put("seq", seq).put("message", message(address, text));
+    }
+
+    private static JsonObject message(String address, String text) {
+        return new JsonObject().put("address", address).put("text", text);
+    }
+}
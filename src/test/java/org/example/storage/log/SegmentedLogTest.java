@@ -0,0 +1,143 @@
+package org.example.storage.log;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SegmentedLogTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void create_directory() throws IOException {
+        directory = Files.createTempDirectory("segmented-log");
+    }
+
+    @AfterEach
+    void delete_directory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    void roll_over_to_new_segment_and_read_in_order() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(directory, 32)) {
+            final long first = log.append(bytes("one-one"));
+            log.append(bytes("two-two"));
+            log.append(bytes("three"));
+
+            assertThat(log.segmentCount()).isEqualTo(2);
+            assertThat(text(log.read(first).payload())).isEqualTo("one-one");
+            assertThat(readAll(log)).containsExactly("one-one", "two-two", "three");
+        }
+    }
+
+    @Test
+    void roll_over_to_preallocated_segment() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(directory, 32, Runnable::run)) {
+            log.append(bytes("one-one"));
+            log.append(bytes("two"));
+
+            assertThat(directory.resolve(String.format("%020d.log", 32))).exists();
+            assertThat(log.segmentCount()).isEqualTo(1);
+
+            log.append(bytes("three"));
+
+            assertThat(log.segmentCount()).isEqualTo(2);
+            assertThat(readAll(log)).containsExactly("one-one", "two", "three");
+        }
+    }
+
+    @Test
+    void keep_records_when_segment_size_shrinks() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(directory, 64)) {
+            log.append(bytes("one-one-one"));
+            log.append(bytes("two-two-two"));
+            log.append(bytes("three-three"));
+        }
+        try (SegmentedLog log = new SegmentedLog(directory, 32)) {
+            log.append(bytes("four"));
+
+            assertThat(log.segmentCount()).isEqualTo(2);
+            assertThat(readAll(log)).containsExactly("one-one-one", "two-two-two", "three-three", "four");
+        }
+    }
+
+    @Test
+    void reopen_and_discard_torn_record() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(directory, 64)) {
+            log.append(bytes("one"));
+            log.append(bytes("two"));
+        }
+        // Corrupt the payload of the last record as if the write had been interrupted
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve(String.format("%020d.log", 0)).toFile(),
+                "rw")) {
+            file.seek(11 + 8);
+            file.write('x');
+        }
+
+        try (SegmentedLog log = new SegmentedLog(directory, 64)) {
+            assertThat(readAll(log)).containsExactly("one");
+            log.append(bytes("three"));
+            assertThat(readAll(log)).containsExactly("one", "three");
+        }
+    }
+
+    @Test
+    void zero_discarded_record_when_reopened() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(directory, 64)) {
+            log.append(bytes("one"));
+            log.append(bytes("two-two-two"));
+        }
+        final Path segment = directory.resolve(String.format("%020d.log", 0));
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(11 + 8);
+            file.write('x');
+        }
+
+        try (SegmentedLog log = new SegmentedLog(directory, 64)) {
+            log.append(bytes("z"));
+        }
+
+        final byte[] content = Files.readAllBytes(segment);
+        assertThat(Arrays.copyOfRange(content, 11 + 9, content.length)).containsOnly(0);
+    }
+
+    @Test
+    void reject_empty_record() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(directory, 64)) {
+            assertThatThrownBy(() -> log.append(new byte[0])).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    private static List<String> readAll(SegmentedLog log) {
+        final List<String> texts = new ArrayList<>();
+        for (SegmentedLog.Record record = log.read(log.start()); record != null; record = log.read(record.next())) {
+            texts.add(text(record.payload()));
+        }
+        return texts;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.verticle;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.example.storage.BlobStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.example.verticle.util.Addresses.DATABASE_BLOB_REFERENCES;
+import static org.example.verticle.util.ReplyMessages.success;
+
+@ExtendWith(VertxExtension.class)
+public class BlobSweeperVerticleTest {
+
+    private static final String ORPHAN = "00" + repeat('a', 62);
+    private static final String REFERENCED = "00" + repeat('b', 62);
+
+    private Path directory;
+
+    @BeforeEach
+    void create_directory() throws IOException {
+        directory = Files.createTempDirectory("blobs");
+    }
+
+    @AfterEach
+    void delete_directory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    void delete_unreferenced_blobs_and_stale_temp_files(Vertx vertx, VertxTestContext testContext)
+            throws IOException {
+        final BlobStore blobs = new BlobStore(vertx, directory.toString());
+        final File orphan = createOldFile(blobs.path(ORPHAN));
+        final File referenced = createOldFile(blobs.path(REFERENCED));
+        final File temp = createOldFile(blobs.newTempPath());
+        final File fresh = Paths.get(blobs.newTempPath()).toFile();
+        assertThat(fresh.createNewFile()).isTrue();
+
+        vertx.eventBus().<String>consumer(DATABASE_BLOB_REFERENCES, (Message<String> message) -> message.reply(
+                success(new JsonObject().put("references", REFERENCED.equals(message.body()) ? 1 : 0))));
+        final JsonObject config = new JsonObject()
+                .put("imageDirectory", directory.toString())
+                .put("blobSweepInterval", 10)
+                .put("blobGracePeriod", 60_000);
+        vertx.deployVerticle(new BlobSweeperVerticle(), new DeploymentOptions().setConfig(config),
+                testContext.succeeding(deployed -> vertx.setPeriodic(10, timer -> {
+                    if (!orphan.exists() && !temp.exists()) {
+                        vertx.cancelTimer(timer);
+                        testContext.verify(() -> {
+                            assertThat(referenced).exists();
+                            assertThat(fresh).exists();
+                            testContext.completeNow();
+                        });
+                    }
+                })));
+    }
+
+    private static File createOldFile(String path) throws IOException {
+        final File file = Paths.get(path).toFile();
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), new byte[]{1});
+        assertThat(file.setLastModified(System.currentTimeMillis() - 120_000)).isTrue();
+        return file;
+    }
+
+    private static String repeat(char c, int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
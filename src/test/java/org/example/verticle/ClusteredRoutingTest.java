@@ -0,0 +1,146 @@
+package org.example.verticle;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.impl.VertxInternal;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.Timeout;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import io.vertx.spi.cluster.hazelcast.HazelcastClusterManager;
+import org.example.cluster.PresenceDirectory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_SAVE;
+
+@ExtendWith(VertxExtension.class)
+@Timeout(value = 2, timeUnit = TimeUnit.MINUTES)
+public class ClusteredRoutingTest {
+
+    private static final int WS_PORT_A = 18080;
+    private static final int WS_PORT_B = 18090;
+
+    private Vertx nodeA;
+    private Vertx nodeB;
+
+    @BeforeEach
+    void start_nodes(VertxTestContext testContext) {
+        final Promise<Vertx> startedA = Promise.promise();
+        final Promise<Vertx> startedB = Promise.promise();
+        Vertx.clusteredVertx(clusterOptions(), startedA);
+        Vertx.clusteredVertx(clusterOptions(), startedB);
+
+        CompositeFuture.all(startedA.future(), startedB.future())
+                .compose(started -> {
+                    nodeA = startedA.future().result();
+                    nodeB = startedB.future().result();
+                    nodeA.eventBus().consumer(DATABASE_MESSAGE_SAVE, message -> {
+                    });
+                    return CompositeFuture.all(
+                            deploy(nodeA, WsServerVerticle.class, WS_PORT_A),
+                            deploy(nodeA, RouterVerticle.class, 0),
+                            deploy(nodeA, PresenceVerticle.class, 0),
+                            deploy(nodeB, WsServerVerticle.class, WS_PORT_B),
+                            deploy(nodeB, PresenceVerticle.class, 0));
+                })
+                .setHandler(testContext.completing());
+    }
+
+    @AfterEach
+    void stop_nodes(VertxTestContext testContext) {
+        final Promise<Void> closedA = Promise.promise();
+        final Promise<Void> closedB = Promise.promise();
+        close(nodeA, closedA);
+        close(nodeB, closedB);
+        CompositeFuture.all(closedA.future(), closedB.future()).setHandler(testContext.completing());
+    }
+
+    @Test
+    void route_to_socket_on_other_node(VertxTestContext testContext) {
+        final String message = new JsonObject().put("address", "bob").put("text", "hello").encode();
+        final PresenceDirectory presence = new PresenceDirectory(nodeA);
+
+        nodeB.createHttpClient().websocket(WS_PORT_B, "localhost", "/token/bob", bob -> {
+            bob.textMessageHandler(text -> testContext.verify(() -> {
+                // Stamped by the server
+                assertThat(new JsonObject(text).getString("text")).isEqualTo("hello");
+                assertThat(new JsonObject(text).getLong("id")).isPositive();
+                testContext.completeNow();
+            }));
+            awaitPresence(presence, "/token/bob", nodes -> nodes.size() == 1, () ->
+                    nodeA.createHttpClient().websocket(WS_PORT_A, "localhost", "/token/alice", alice ->
+                            alice.writeFinalTextFrame(message)));
+        });
+    }
+
+    @Test
+    void purge_presence_of_node_that_left(VertxTestContext testContext) {
+        final PresenceDirectory presence = new PresenceDirectory(nodeA);
+
+        nodeB.createHttpClient().websocket(WS_PORT_B, "localhost", "/token/bob", bob ->
+                awaitPresence(presence, "/token/bob", nodes -> nodes.size() == 1, () -> {
+                    // Leave without closing the socket, like a crashed node would. Closing a node that has lost
+                    // its cluster does not complete, so it is not waited for.
+                    final Vertx crashed = nodeB;
+                    nodeB = null;
+                    ((HazelcastClusterManager) ((VertxInternal) crashed).getClusterManager())
+                            .getHazelcastInstance().getLifecycleService().terminate();
+                    crashed.close();
+                    awaitPresence(presence, "/token/bob", Set::isEmpty, testContext::completeNow);
+                }));
+    }
+
+    private void awaitPresence(PresenceDirectory presence, String address, Predicate<Set<String>> condition,
+                               Runnable then) {
+        nodeA.setPeriodic(100, timerId -> presence.lookup(address, nodes -> {
+            if (nodes.succeeded() && condition.test(nodes.result())) {
+                nodeA.cancelTimer(timerId);
+                then.run();
+            }
+        }));
+    }
+
+    private static VertxOptions clusterOptions() {
+        final Config config = new Config();
+        config.getNetworkConfig().setPort(5801).setPortAutoIncrement(true);
+        config.getNetworkConfig().getInterfaces().setEnabled(true).addInterface("127.0.0.1");
+        final JoinConfig join = config.getNetworkConfig().getJoin();
+        join.getMulticastConfig().setEnabled(false);
+        join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+
+        final VertxOptions options = new VertxOptions().setClusterManager(new HazelcastClusterManager(config));
+        options.getEventBusOptions().setClustered(true).setHost("127.0.0.1");
+        return options;
+    }
+
+    private static Future<String> deploy(Vertx vertx, Class<?> verticle, int port) {
+        final Promise<String> deployed = Promise.promise();
+        vertx.deployVerticle(verticle.getName(),
+                new DeploymentOptions().setConfig(new JsonObject().put("port", port)), deployed);
+        return deployed.future();
+    }
+
+    private static void close(Vertx vertx, Handler<AsyncResult<Void>> closed) {
+        if (vertx == null) {
+            closed.handle(Future.succeededFuture());
+        } else {
+            vertx.close(ignored -> closed.handle(Future.succeededFuture()));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.example.verticle;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.example.data.Data;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_GET_RECENT;
+import static org.example.verticle.util.Addresses.GET_RECENT_HISTORY;
+import static org.example.verticle.util.Addresses.HISTORY_CACHE_PUT;
+import static org.example.verticle.util.ReplyMessages.getResult;
+import static org.example.verticle.util.ReplyMessages.success;
+
+@ExtendWith(VertxExtension.class)
+public class HistoryCacheVerticleTest {
+
+    private final AtomicInteger databaseQueries = new AtomicInteger();
+
+    @BeforeEach
+    void deploy_verticle(Vertx vertx, VertxTestContext testContext) {
+        final JsonObject config = new JsonObject()
+                .put("messagesPerAddress", 2)
+                // Room for the two messages kept of one address, not for two addresses
+                .put("maxBytes", 260);
+        vertx.deployVerticle(new HistoryCacheVerticle(), new DeploymentOptions().setConfig(config),
+                testContext.completing());
+        vertx.eventBus().consumer(DATABASE_MESSAGE_GET_RECENT, this::getRecentMessages);
+    }
+
+    private void getRecentMessages(Message<JsonObject> message) {
+        databaseQueries.incrementAndGet();
+        final String address = message.body().getString("address");
+        message.reply(success(new JsonObject().put("messages", new JsonArray()
+                .add(new JsonObject().put("address", address).put("text", "stored")))));
+    }
+
+    @Test
+    void load_once_and_append_routed_messages(Vertx vertx, VertxTestContext testContext) {
+        vertx.eventBus().send(GET_RECENT_HISTORY, "bob", (AsyncResult<Message<JsonObject>> first) -> {
+            vertx.eventBus().send(HISTORY_CACHE_PUT, message("bob", "one"));
+            vertx.eventBus().send(HISTORY_CACHE_PUT, message("bob", "two"));
+            vertx.eventBus().send(GET_RECENT_HISTORY, "bob", (AsyncResult<Message<JsonObject>> second) ->
+                    testContext.verify(() -> {
+                        final JsonArray messages = getResult(second.result().body()).getJsonArray("messages");
+                        assertThat(messages).hasSize(2);
+                        assertThat(messages.getJsonObject(0).getString("text")).isEqualTo("one");
+                        assertThat(messages.getJsonObject(1).getString("text")).isEqualTo("two");
+                        assertThat(databaseQueries.get()).isEqualTo(1);
+                        testContext.completeNow();
+                    }));
+        });
+    }
+
+    @Test
+    void merge_messages_routed_before_load(Vertx vertx, VertxTestContext testContext) {
+        // Still waiting to be saved, so the database does not return it
+        vertx.eventBus().send(HISTORY_CACHE_PUT, message("bob", "unsaved").stamp());
+        vertx.eventBus().send(GET_RECENT_HISTORY, "bob", (AsyncResult<Message<JsonObject>> reply) ->
+                testContext.verify(() -> {
+                    final JsonArray messages = getResult(reply.result().body()).getJsonArray("messages");
+                    assertThat(messages).hasSize(2);
+                    assertThat(messages.getJsonObject(0).getString("text")).isEqualTo("stored");
+                    assertThat(messages.getJsonObject(1).getString("text")).isEqualTo("unsaved");
+                    testContext.completeNow();
+                }));
+    }
+
+    private static Data message(String address, String text) {
+        final Data data = new Data();
+        data.setAddress(address);
+        data.setText(text);
+        return data;
+    }
+
+    @Test
+    void evict_least_recently_used_address(Vertx vertx, VertxTestContext testContext) {
+        vertx.eventBus().send(GET_RECENT_HISTORY, "bob", first ->
+                vertx.eventBus().send(GET_RECENT_HISTORY, "alice", second ->
+                        vertx.eventBus().send(GET_RECENT_HISTORY, "bob", third ->
+                                testContext.verify(() -> {
+                                    assertThat(databaseQueries.get()).isEqualTo(3);
+                                    testContext.completeNow();
+                                }))));
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.verticle;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.Checkpoint;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_SAVE;
+import static org.example.verticle.util.Addresses.DATABASE_OFFLINE_GET;
+import static org.example.verticle.util.Addresses.DATABASE_OFFLINE_SAVE;
+import static org.example.verticle.util.Addresses.DATABASE_OFFLINE_TRIM;
+import static org.example.verticle.util.ReplyMessages.success;
+
+@ExtendWith(VertxExtension.class)
+public class OfflineQueueVerticleTest {
+
+    private final List<JsonObject> stored = new ArrayList<>();
+
+    @BeforeEach
+    void deploy_verticles(Vertx vertx, VertxTestContext testContext) {
+        final Checkpoint deployed = testContext.checkpoint(3);
+        vertx.deployVerticle(new WsServerVerticle(), testContext.succeeding(id -> deployed.flag()));
+        vertx.deployVerticle(new RouterVerticle(), testContext.succeeding(id -> deployed.flag()));
+        // The first message stays in memory, the second one is spilled
+        vertx.deployVerticle(new OfflineQueueVerticle(),
+                new DeploymentOptions().setConfig(new JsonObject().put("memoryLimit", 1).put("spillFlushInterval", 1)),
+                testContext.succeeding(id -> deployed.flag()));
+        vertx.eventBus().consumer(DATABASE_MESSAGE_SAVE, message -> {
+        });
+        vertx.eventBus().<JsonObject>consumer(DATABASE_OFFLINE_GET, message ->
+                message.reply(success(new JsonObject().put("messages", new JsonArray(new ArrayList<>(stored))))));
+        vertx.eventBus().<JsonObject>consumer(DATABASE_OFFLINE_TRIM, message -> {
+            stored.removeIf(entry -> message.body().getJsonArray("seqs").contains(entry.getLong("seq")));
+            message.reply(success(null));
+        });
+    }
+
+    @Test
+    void replay_queue_when_recipient_connects(Vertx vertx, VertxTestContext testContext) {
+        final HttpClient client = vertx.createHttpClient();
+        vertx.eventBus().<JsonObject>consumer(DATABASE_OFFLINE_SAVE, (Message<JsonObject> message) -> {
+            message.body().getJsonArray("messages").forEach(entry -> stored.add((JsonObject) entry));
+            message.reply(success(null));
+            client.websocket(8080, "localhost", "/token/bob", bob -> bob.textMessageHandler(text ->
+                    testContext.verify(() -> {
+                        assertThat(new JsonArray(text)).extracting(entry -> ((JsonObject) entry).getString("text"))
+                                .containsExactly("one", "two");
+                        // Acknowledged once written, which trims the stored part
+                        vertx.setTimer(100, ignored -> testContext.verify(() -> {
+                            assertThat(stored).isEmpty();
+                            testContext.completeNow();
+                        }));
+                    })));
+        });
+
+        client.websocket(8080, "localhost", "/token/alice", alice -> {
+            alice.writeFinalTextFrame(new JsonObject().put("address", "bob").put("text", "one").encode());
+            alice.writeFinalTextFrame(new JsonObject().put("address", "bob").put("text", "two").encode());
+        });
+    }
+}
@@ -1,6 +1,8 @@
 package org.example.verticle;
 
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -8,23 +10,37 @@ import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.multipart.MultipartForm;
 import io.vertx.junit5.VertxExtension;
 import io.vertx.junit5.VertxTestContext;
+import org.example.verticle.util.Hashes;
+import org.example.verticle.util.TokenBuckets;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.example.verticle.util.Addresses.DATABASE_IMAGE_GET;
-import static org.example.verticle.util.Addresses.DATABASE_IMAGE_GET_ALL_IDS;
+import static org.example.verticle.util.Addresses.DATABASE_IMAGE_LIST;
 import static org.example.verticle.util.Addresses.DATABASE_IMAGE_SAVE;
+import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_GET_RECENT;
+import static org.example.verticle.util.Addresses.GET_HISTORY;
+import static org.example.verticle.util.Addresses.SEARCH;
+import static org.example.verticle.util.ChunkedStreams.STREAM_ADDRESS;
+import static org.example.verticle.util.ChunkedStreams.chunk;
 import static org.example.verticle.util.ReplyMessages.success;
 
 @ExtendWith(VertxExtension.class)
 public class RestServerVerticleTest {
 
     private JsonObject testImage;
+    private int imageLookups;
 
     // Deploy the verticle and execute the test methods when the verticle is successfully deployed
     @BeforeEach
@@ -33,7 +49,8 @@ public class RestServerVerticleTest {
         vertx.deployVerticle(new RestServerVerticle(), testContext.completing());
         vertx.eventBus().consumer(DATABASE_IMAGE_SAVE, this::saveImage);
         vertx.eventBus().consumer(DATABASE_IMAGE_GET, this::getImageById);
-        vertx.eventBus().consumer(DATABASE_IMAGE_GET_ALL_IDS, this::getAllImageIds);
+        vertx.eventBus().consumer(DATABASE_IMAGE_LIST, this::listImages);
+        vertx.eventBus().<JsonObject>consumer(GET_HISTORY, message -> getHistory(vertx, message));
     }
 
     private JsonObject createTestImage() {
@@ -52,11 +69,94 @@ public class RestServerVerticleTest {
 
     private void getImageById(Message<String> message) {
         final String messageId = message.body();
+        imageLookups++;
         message.reply(success("100500".equals(messageId) ? testImage : null));
     }
 
-    private void getAllImageIds(Message<Void> message) {
-        message.reply(success(new JsonObject().put("images", Collections.singletonList(testImage))));
+    private void listImages(Message<JsonObject> message) {
+        final JsonObject image = new JsonObject()
+                .put("_id", "100500")
+                .put("fileName", testImage.getString("fileName"))
+                .put("contentType", testImage.getString("contentType"))
+                .put("size", testImage.getInteger("size"));
+        final boolean firstPage = message.body().getString("after") == null;
+        message.reply(success(new JsonObject()
+                .put("images", firstPage ? Collections.singletonList(image) : Collections.emptyList())
+                .put("next", firstPage && message.body().getInteger("limit", 100) == 1 ? "100500" : null)));
+    }
+
+    private void getHistory(Vertx vertx, Message<JsonObject> message) {
+        final String streamAddress = message.body().getString(STREAM_ADDRESS);
+        message.reply("ack");
+        final JsonArray first = new JsonArray()
+                .add(new JsonObject().put("address", "bob").put("text", "one"))
+                .add(new JsonObject().put("address", "bob").put("text", "two"));
+        final JsonArray second = new JsonArray()
+                .add(new JsonObject().put("address", "alice").put("text", "three"));
+        vertx.eventBus().send(streamAddress, chunk(first, false), ack ->
+                vertx.eventBus().send(streamAddress, chunk(second, true)));
+    }
+
+    @Test
+    void get_history(Vertx vertx, VertxTestContext testContext) {
+        WebClient client = WebClient.create(vertx);
+        client.get(8081, "localhost", "/getHistory")
+                .send(testContext.succeeding(response -> testContext.verify(() -> {
+                    assertThat(response.getHeader("Content-Type")).isEqualTo("application/x-ndjson");
+                    final String[] lines = response.bodyAsString().split("\n");
+                    assertThat(lines).hasSize(3);
+                    assertThat(new JsonObject(lines[0]).getString("text")).isEqualTo("one");
+                    assertThat(new JsonObject(lines[2]).getString("address")).isEqualTo("alice");
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    void get_history_page(Vertx vertx, VertxTestContext testContext) {
+        vertx.eventBus().<JsonObject>consumer(DATABASE_MESSAGE_GET_RECENT, message -> testContext.verify(() -> {
+            assertThat(message.body().getString("address")).isEqualTo("bob");
+            assertThat(message.body().getLong("before")).isEqualTo(4096L);
+            assertThat(message.body().getInteger("limit")).isEqualTo(1);
+            message.reply(success(new JsonObject()
+                    .put("messages", new JsonArray().add(new JsonObject().put("address", "bob").put("id", 2048L)))
+                    .put("next", "2048")));
+        }));
+
+        WebClient client = WebClient.create(vertx);
+        client.get(8081, "localhost", "/history/bob?before=4096&limit=1")
+                .send(testContext.succeeding(response -> testContext.verify(() -> {
+                    final JsonObject result = response.bodyAsJsonObject().getJsonObject("result");
+                    assertThat(result.getJsonArray("messages")).hasSize(1);
+                    assertThat(result.getString("next")).isEqualTo("2048");
+                    client.get(8081, "localhost", "/history/bob?before=latest")
+                            .send(testContext.succeeding(invalid -> testContext.verify(() -> {
+                                assertThat(invalid.statusCode()).isEqualTo(400);
+                                testContext.completeNow();
+                            })));
+                })));
+    }
+
+    @Test
+    void search_messages(Vertx vertx, VertxTestContext testContext) {
+        vertx.eventBus().<JsonObject>consumer(SEARCH, message -> testContext.verify(() -> {
+            assertThat(message.body().getString("q")).isEqualTo("lunch");
+            assertThat(message.body().getString("address")).isEqualTo("bob");
+            assertThat(message.body().getInteger("limit")).isEqualTo(20);
+            message.reply(success(new JsonObject().put("messages", new JsonArray()
+                    .add(new JsonObject().put("address", "bob").put("text", "lunch?")))));
+        }));
+
+        WebClient client = WebClient.create(vertx);
+        client.get(8081, "localhost", "/search?q=lunch&address=bob")
+                .send(testContext.succeeding(response -> testContext.verify(() -> {
+                    assertThat(response.bodyAsJsonObject().getJsonObject("result").getJsonArray("messages"))
+                            .hasSize(1);
+                    client.get(8081, "localhost", "/search?q=%20")
+                            .send(testContext.succeeding(invalid -> testContext.verify(() -> {
+                                assertThat(invalid.statusCode()).isEqualTo(400);
+                                testContext.completeNow();
+                            })));
+                })));
     }
 
     @Test
@@ -93,6 +193,36 @@ public class RestServerVerticleTest {
                 })));
     }
 
+    @Test
+    void upload_raw_image(Vertx vertx, VertxTestContext testContext) {
+        final Buffer content = vertx.fileSystem().readFileBlocking(getPath("test-image.jpg"));
+        WebClient client = WebClient.create(vertx);
+        client.post(8081, "localhost", "/images")
+                .addQueryParam("fileName", "raw.jpg")
+                .putHeader("Content-Type", "image/jpeg")
+                .sendBuffer(content, testContext.succeeding(response -> testContext.verify(() -> {
+                    final JsonObject result = response.bodyAsJsonObject().getJsonObject("result");
+                    assertThat(result.getString("fileName")).isEqualTo("raw.jpg");
+                    assertThat(result.getLong("size")).isEqualTo(19656);
+                    assertThat(result.getString("sha256")).isEqualTo(
+                            Hashes.toHex(Hashes.sha256().digest(content.getBytes())));
+                    assertThat(vertx.fileSystem().readFileBlocking(result.getString("uploadedFileName")))
+                            .isEqualTo(content);
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    void upload_image_with_wrong_content_type(Vertx vertx, VertxTestContext testContext) {
+        WebClient client = WebClient.create(vertx);
+        client.post(8081, "localhost", "/images")
+                .putHeader("Content-Type", "text/plain")
+                .sendBuffer(Buffer.buffer("not an image"), testContext.succeeding(response -> testContext.verify(() -> {
+                    assertThat(response.statusCode()).isEqualTo(415);
+                    testContext.completeNow();
+                })));
+    }
+
     @Test
     void get_image(Vertx vertx, VertxTestContext testContext) {
         WebClient client = WebClient.create(vertx);
@@ -104,6 +234,51 @@ public class RestServerVerticleTest {
                 })));
     }
 
+    @Test
+    void get_image_range(Vertx vertx, VertxTestContext testContext) {
+        WebClient client = WebClient.create(vertx);
+        client.get(8081, "localhost", "/images/100500")
+                .putHeader("Range", "bytes=0-99")
+                .send(testContext.succeeding(response -> testContext.verify(() -> {
+                    assertThat(response.statusCode()).isEqualTo(206);
+                    assertThat(response.getHeader("Content-Range")).isEqualTo("bytes 0-99/19656");
+                    assertThat(response.body().length()).isEqualTo(100);
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    void get_image_not_modified(Vertx vertx, VertxTestContext testContext) {
+        WebClient client = WebClient.create(vertx);
+        client.get(8081, "localhost", "/images/100500")
+                .send(testContext.succeeding(response -> {
+                    final String etag = response.getHeader("ETag");
+                    testContext.verify(() -> assertThat(etag).isNotNull());
+                    client.get(8081, "localhost", "/images/100500")
+                            .putHeader("If-None-Match", etag)
+                            .send(testContext.succeeding(notModified -> testContext.verify(() -> {
+                                assertThat(notModified.statusCode()).isEqualTo(304);
+                                assertThat(notModified.getHeader("ETag")).isEqualTo(etag);
+                                testContext.completeNow();
+                            })));
+                }));
+    }
+
+    @Test
+    void get_image_from_cache(Vertx vertx, VertxTestContext testContext) {
+        WebClient client = WebClient.create(vertx);
+        client.get(8081, "localhost", "/images/100500")
+                .send(testContext.succeeding(first -> client.get(8081, "localhost", "/images/100501")
+                        .send(testContext.succeeding(unknown -> client.get(8081, "localhost", "/images/100500")
+                                .send(testContext.succeeding(second -> client.get(8081, "localhost", "/images/100501")
+                                        .send(testContext.succeeding(unknownAgain -> testContext.verify(() -> {
+                                            assertThat(second.statusCode()).isEqualTo(200);
+                                            assertThat(unknownAgain.statusCode()).isEqualTo(404);
+                                            assertThat(imageLookups).isEqualTo(2);
+                                            testContext.completeNow();
+                                        })))))))));
+    }
+
     @Test
     void get_unknown_image(Vertx vertx, VertxTestContext testContext) {
         WebClient client = WebClient.create(vertx);
@@ -118,14 +293,15 @@ public class RestServerVerticleTest {
     @Test
     void get_images(Vertx vertx, VertxTestContext testContext) {
         WebClient client = WebClient.create(vertx);
-        client.get(8081, "localhost", "/images")
+        client.get(8081, "localhost", "/images?limit=1")
                 .send(testContext.succeeding(response -> testContext.verify(() -> {
                     final JsonObject result = response.bodyAsJsonObject().getJsonObject("result");
                     assertThat(result).isNotNull();
+                    assertThat(result.getString("next")).isEqualTo("100500");
                     final JsonArray images = result.getJsonArray("images");
                     assertThat(images).hasSize(1);
                     final JsonObject image = images.getJsonObject(0);
-                    assertThat(image.getString("uploadedFileName")).isEqualTo(getPath("test-image.jpg"));
+                    assertThat(image.containsKey("uploadedFileName")).isFalse();
                     assertThat(image.getString("fileName")).isEqualTo("image.jpg");
                     assertThat(image.getLong("size")).isEqualTo(19656);
                     assertThat(image.getString("contentType")).isEqualTo("image/jpeg");
@@ -133,6 +309,98 @@ public class RestServerVerticleTest {
                 })));
     }
 
+    @Test
+    void get_images_with_invalid_limit(Vertx vertx, VertxTestContext testContext) {
+        WebClient client = WebClient.create(vertx);
+        client.get(8081, "localhost", "/images?limit=100000")
+                .send(testContext.succeeding(response -> testContext.verify(() -> {
+                    assertThat(response.statusCode()).isEqualTo(400);
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    void get_image_thumbnail(Vertx vertx, VertxTestContext testContext) throws IOException {
+        final Path thumbnails = Files.createTempDirectory("thumbnails");
+        final DeploymentOptions options = new DeploymentOptions()
+                .setConfig(new JsonObject().put("directory", thumbnails.toString()));
+        WebClient client = WebClient.create(vertx);
+        vertx.deployVerticle(new ThumbnailVerticle(), options, testContext.succeeding(deployed ->
+                client.get(8081, "localhost", "/images/100500?w=40")
+                        .send(testContext.succeeding(response -> testContext.verify(() -> {
+                            assertThat(response.statusCode()).isEqualTo(200);
+                            assertThat(response.getHeader("Content-Type")).isEqualTo("image/jpeg");
+                            final BufferedImage image = ImageIO.read(
+                                    new ByteArrayInputStream(response.body().getBytes()));
+                            assertThat(image.getWidth()).isEqualTo(40);
+                            testContext.completeNow();
+                        })))));
+    }
+
+    @Test
+    void get_image_thumbnail_with_invalid_size(Vertx vertx, VertxTestContext testContext) {
+        WebClient client = WebClient.create(vertx);
+        client.get(8081, "localhost", "/images/100500?w=0")
+                .send(testContext.succeeding(response -> testContext.verify(() -> {
+                    assertThat(response.statusCode()).isEqualTo(400);
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    void send_message_over_rate_limit(Vertx vertx, VertxTestContext testContext) {
+        // The verticle uses the same buckets, empty the one of the token
+        final TokenBuckets buckets = TokenBuckets.shared(vertx, "rest", 20, 40);
+        for (int i = 0; i < 40; i++) {
+            buckets.tryAcquire("mallory");
+        }
+
+        WebClient client = WebClient.create(vertx);
+        client.post(8081, "localhost", "/sendMessage")
+                .addQueryParam("token", "mallory")
+                .sendJsonObject(new JsonObject().put("address", "bob").put("text", "spam"),
+                        testContext.succeeding(response -> testContext.verify(() -> {
+                            assertThat(response.statusCode()).isEqualTo(429);
+                            assertThat(response.getHeader("Retry-After")).isEqualTo("1");
+                            assertThat(response.bodyAsJsonObject().getLong("retryAfter")).isPositive();
+                            testContext.completeNow();
+                        })));
+    }
+
+    @Test
+    void send_message_over_host_rate_limit(Vertx vertx, VertxTestContext testContext) {
+        // A new token per request does not get around the limit of the host, 200 at once and 100 per second
+        sendWithNewTokens(WebClient.create(vertx), testContext, 1000);
+    }
+
+    private void sendWithNewTokens(WebClient client, VertxTestContext testContext, int remaining) {
+        client.post(8081, "localhost", "/sendMessage")
+                .addQueryParam("token", "mallory-" + remaining)
+                .sendJsonObject(new JsonObject().put("address", "bob").put("text", "spam"),
+                        testContext.succeeding(response -> testContext.verify(() -> {
+                            if (response.statusCode() == 429) {
+                                testContext.completeNow();
+                                return;
+                            }
+                            assertThat(remaining).isPositive();
+                            sendWithNewTokens(client, testContext, remaining - 1);
+                        })));
+    }
+
+    @Test
+    void get_metrics(Vertx vertx, VertxTestContext testContext) {
+        WebClient client = WebClient.create(vertx);
+        client.get(8081, "localhost", "/images/100501")
+                .send(testContext.succeeding(image -> client.get(8081, "localhost", "/metrics")
+                        .send(testContext.succeeding(response -> testContext.verify(() -> {
+                            assertThat(response.getHeader("Content-Type")).startsWith("text/plain");
+                            assertThat(response.bodyAsString())
+                                    .contains("# TYPE eventbus_request_seconds histogram")
+                                    .contains("eventbus_request_seconds_count{address=\"" + DATABASE_IMAGE_GET + "\"}");
+                            testContext.completeNow();
+                        })))));
+    }
+
     private String getPath(String resourcesFile) {
         ClassLoader classLoader = getClass().getClassLoader();
         File file = new File(classLoader.getResource(resourcesFile).getFile());
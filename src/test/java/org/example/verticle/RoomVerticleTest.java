@@ -0,0 +1,82 @@
+package org.example.verticle;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.Checkpoint;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_SAVE;
+import static org.example.verticle.util.Addresses.DATABASE_ROOM_MEMBER_LIST;
+import static org.example.verticle.util.Addresses.DATABASE_ROOM_MEMBER_SAVE;
+import static org.example.verticle.util.Addresses.ROOM_MEMBER_SAVE;
+import static org.example.verticle.util.ReplyMessages.success;
+
+@ExtendWith(VertxExtension.class)
+public class RoomVerticleTest {
+
+    private final AtomicInteger saved = new AtomicInteger();
+
+    @BeforeEach
+    void deploy_verticles(Vertx vertx, VertxTestContext testContext) {
+        vertx.eventBus().consumer(DATABASE_ROOM_MEMBER_LIST, message -> message.reply(success(new JsonObject()
+                .put("members", new JsonArray().add(member("general", "alice")).add(member("general", "bob"))))));
+        vertx.eventBus().consumer(DATABASE_ROOM_MEMBER_SAVE, message -> message.reply(success(new JsonObject())));
+        vertx.eventBus().consumer(DATABASE_MESSAGE_SAVE, message -> saved.incrementAndGet());
+
+        final Checkpoint deployed = testContext.checkpoint(3);
+        vertx.deployVerticle(new WsServerVerticle(), testContext.succeeding(id -> deployed.flag()));
+        vertx.deployVerticle(new RouterVerticle(), testContext.succeeding(id -> deployed.flag()));
+        vertx.deployVerticle(new RoomVerticle(), testContext.succeeding(id -> deployed.flag()));
+    }
+
+    @Test
+    void deliver_to_connected_members_only(Vertx vertx, VertxTestContext testContext) {
+        final String first = new JsonObject().put("address", "#general").put("text", "hello").encode();
+        final String second = new JsonObject().put("address", "#general").put("text", "welcome").encode();
+        final Checkpoint received = testContext.checkpoint(5);
+        final HttpClient client = vertx.createHttpClient();
+
+        client.websocket(8080, "localhost", "/token/bob", bob -> {
+            bob.textMessageHandler(text -> testContext.verify(() -> {
+                assertThat(new JsonObject(text).getString("address")).isEqualTo("#general");
+                received.flag();
+            }));
+            client.websocket(8080, "localhost", "/token/carol", carol -> {
+                carol.textMessageHandler(text -> testContext.verify(() -> {
+                    // Joined after the first message
+                    assertThat(new JsonObject(text).getString("text")).isEqualTo("welcome");
+                    received.flag();
+                }));
+                client.websocket(8080, "localhost", "/token/alice", alice -> {
+                    // The sender gets its own room messages back
+                    alice.textMessageHandler(text -> received.flag());
+                    // Sockets are added to their rooms once the membership reply arrives
+                    vertx.setTimer(200, ignored -> {
+                        alice.writeFinalTextFrame(first);
+                        vertx.setTimer(200, delay -> testContext.verify(() -> {
+                            // Stored once for the whole room
+                            assertThat(saved.get()).isEqualTo(1);
+                            vertx.eventBus().send(ROOM_MEMBER_SAVE, member("general", "carol").put("joined", true),
+                                    new DeliveryOptions().setLocalOnly(true),
+                                    testContext.succeeding(joined -> alice.writeFinalTextFrame(second)));
+                        }));
+                    });
+                });
+            });
+        });
+    }
+
+    private static JsonObject member(String room, String member) {
+        return new JsonObject().put("room", room).put("member", member);
+    }
+}
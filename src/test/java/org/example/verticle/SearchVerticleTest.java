@@ -0,0 +1,51 @@
+package org.example.verticle;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.example.verticle.util.Addresses.GET_HISTORY;
+import static org.example.verticle.util.Addresses.SEARCH;
+import static org.example.verticle.util.Addresses.SEARCH_INDEX_ADD;
+import static org.example.verticle.util.ChunkedStreams.STREAM_ADDRESS;
+import static org.example.verticle.util.ChunkedStreams.chunk;
+import static org.example.verticle.util.ReplyMessages.getResult;
+
+@ExtendWith(VertxExtension.class)
+public class SearchVerticleTest {
+
+    @Test
+    void index_history_and_saved_messages(Vertx vertx, VertxTestContext testContext) {
+        vertx.eventBus().<JsonObject>consumer(GET_HISTORY, message -> {
+            final String streamAddress = message.body().getString(STREAM_ADDRESS);
+            message.reply("ack");
+            // Saved during the rebuild, and also part of the history
+            vertx.eventBus().publish(SEARCH_INDEX_ADD, new JsonObject().put("messages", new JsonArray()
+                    .add(message(2, "bob", "lunch at noon?"))
+                    .add(message(3, "alice", "lunch is ready"))));
+            vertx.eventBus().send(streamAddress, chunk(new JsonArray().add(message(1, "bob", "lunch tomorrow"))
+                    .add(message(2, "bob", "lunch at noon?")), true));
+        });
+
+        vertx.deployVerticle(new SearchVerticle(), testContext.succeeding(id -> vertx.setTimer(200, ignored -> {
+            final JsonObject query = new JsonObject().put("q", "Lunch").put("limit", 10);
+            vertx.eventBus().send(SEARCH, query, testContext.succeeding((Message<JsonObject> reply) ->
+                    testContext.verify(() -> {
+                        assertThat(getResult(reply.body()).getJsonArray("messages"))
+                                .extracting(entry -> ((JsonObject) entry).getLong("id"))
+                                .containsExactly(3L, 2L, 1L);
+                        testContext.completeNow();
+                    })));
+        })));
+    }
+
+    private static JsonObject message(long id, String address, String text) {
+        return new JsonObject().put("id", id).put("timestamp", id).put("address", address).put("text", text);
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.verticle;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.Checkpoint;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.example.metrics.Metrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.example.verticle.util.Addresses.IMAGE_THUMBNAIL;
+import static org.example.verticle.util.ReplyMessages.getResult;
+
+@ExtendWith(VertxExtension.class)
+public class ThumbnailVerticleTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void deploy_verticle(Vertx vertx, VertxTestContext testContext) throws IOException {
+        directory = Files.createTempDirectory("thumbnails");
+        vertx.deployVerticle(new ThumbnailVerticle(),
+                new DeploymentOptions().setConfig(new JsonObject().put("directory", directory.toString())),
+                testContext.completing());
+    }
+
+    @AfterEach
+    void delete_directory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    void generate_concurrently_requested_thumbnail_once(Vertx vertx, VertxTestContext testContext) {
+        final LongAdder merged = Metrics.counter("thumbnail_merged_requests_total");
+        final long mergedBefore = merged.sum();
+        final JsonObject request = new JsonObject()
+                .put("source", getPath("test-image.jpg"))
+                .put("sha256", "test")
+                .put("contentType", "image/jpeg")
+                .put("width", 32)
+                .put("height", 32);
+        final Checkpoint replies = testContext.checkpoint(2);
+
+        for (int i = 0; i < 2; i++) {
+            vertx.eventBus().send(IMAGE_THUMBNAIL, request, (AsyncResult<Message<JsonObject>> asyncResult) ->
+                    testContext.verify(() -> {
+                        final JsonObject thumbnail = getResult(asyncResult.result().body());
+                        assertThat(thumbnail.getString("contentType")).isEqualTo("image/jpeg");
+                        assertThat(thumbnail.getString("variant")).isEqualTo("test-32x32");
+                        final BufferedImage image = ImageIO.read(new File(thumbnail.getString("path")));
+                        assertThat(Math.max(image.getWidth(), image.getHeight())).isEqualTo(32);
+                        assertThat(merged.sum()).isEqualTo(mergedBefore + 1);
+                        replies.flag();
+                    }));
+        }
+    }
+
+    private String getPath(String resourcesFile) {
+        return new File(getClass().getClassLoader().getResource(resourcesFile).getFile()).getAbsolutePath();
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.verticle;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.Checkpoint;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.example.verticle.util.Addresses.DATABASE_MESSAGE_SAVE;
+
+@ExtendWith(VertxExtension.class)
+public class WsServerVerticleTest {
+
+    @BeforeEach
+    void deploy_verticles(Vertx vertx, VertxTestContext testContext) {
+        final Checkpoint deployed = testContext.checkpoint(2);
+        // Connections are spread over the instances, so sender and recipients do not share a registry
+        vertx.deployVerticle(WsServerVerticle.class.getName(), new DeploymentOptions().setInstances(2),
+                testContext.succeeding(id -> deployed.flag()));
+        vertx.deployVerticle(new RouterVerticle(), testContext.succeeding(id -> deployed.flag()));
+        vertx.eventBus().consumer(DATABASE_MESSAGE_SAVE, message -> {
+        });
+    }
+
+    @Test
+    void deliver_to_every_socket_of_recipient_once(Vertx vertx, VertxTestContext testContext) {
+        final String message = new JsonObject().put("address", "bob").put("text", "hello").encode();
+        final Checkpoint received = testContext.checkpoint(2);
+        final HttpClient client = vertx.createHttpClient();
+
+        client.websocket(8080, "localhost", "/token/bob", first -> {
+            first.textMessageHandler(text -> testContext.verify(() -> {
+                // Stamped by the server
+                assertThat(new JsonObject(text).getString("text")).isEqualTo("hello");
+                assertThat(new JsonObject(text).getLong("id")).isPositive();
+                received.flag();
+            }));
+            client.websocket(8080, "localhost", "/token/bob", second -> {
+                second.textMessageHandler(text -> testContext.verify(() -> {
+                    assertThat(new JsonObject(text).getString("text")).isEqualTo("hello");
+                    assertThat(new JsonObject(text).getLong("id")).isPositive();
+                    received.flag();
+                }));
+                client.websocket(8080, "localhost", "/token/alice", sender ->
+                        sender.writeFinalTextFrame(message));
+            });
+        });
+    }
+}
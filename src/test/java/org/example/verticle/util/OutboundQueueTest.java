@@ -0,0 +1,160 @@
+package org.example.verticle.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.example.data.Data;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(VertxExtension.class)
+public class OutboundQueueTest {
+
+    @Test
+    void queue_while_socket_is_full_and_drain_in_order(Vertx vertx) {
+        final FakeSocket socket = new FakeSocket();
+        final OutboundQueue queue = new OutboundQueue(vertx, socket.proxy(), OutboundQueue.Policy.DROP_OLDEST, 10, -1);
+
+        queue.send(message("bob", "one"));
+        socket.full = true;
+        queue.send(message("bob", "two"));
+        queue.send(message("bob", "three"));
+        assertThat(socket.frames).hasSize(1);
+        assertThat(queue.size()).isEqualTo(2);
+
+        socket.drain();
+        assertThat(socket.frames).containsExactly("one", "two", "three");
+        assertThat(queue.size()).isZero();
+    }
+
+    @Test
+    void replay_ahead_of_queued_messages(Vertx vertx) {
+        final FakeSocket socket = new FakeSocket();
+        final OutboundQueue queue = new OutboundQueue(vertx, socket.proxy(), OutboundQueue.Policy.DROP_OLDEST, 10, -1);
+        final List<Boolean> written = new ArrayList<>();
+
+        socket.full = true;
+        queue.send(message("bob", "two"));
+        queue.replay(new JsonArray().add(message("bob", "one").toJson()).encode(), 1,
+                result -> written.add(result.succeeded()));
+        queue.send(message("bob", "three"));
+        assertThat(socket.frames).isEmpty();
+
+        socket.drain();
+        assertThat(socket.frames).containsExactly("one", "two", "three");
+        assertThat(written).containsExactly(true);
+    }
+
+    @Test
+    void drop_oldest_when_queue_is_full(Vertx vertx) {
+        final FakeSocket socket = new FakeSocket();
+        final OutboundQueue queue = new OutboundQueue(vertx, socket.proxy(), OutboundQueue.Policy.DROP_OLDEST, 2, -1);
+
+        socket.full = true;
+        queue.send(message("bob", "one"));
+        queue.send(message("bob", "two"));
+        queue.send(message("bob", "three"));
+
+        socket.drain();
+        assertThat(socket.frames).containsExactly("two", "three");
+    }
+
+    @Test
+    void disconnect_slow_consumer(Vertx vertx) {
+        final FakeSocket socket = new FakeSocket();
+        final OutboundQueue queue = new OutboundQueue(vertx, socket.proxy(), OutboundQueue.Policy.DISCONNECT, 1, -1);
+
+        socket.full = true;
+        queue.send(message("bob", "one"));
+        queue.send(message("bob", "two"));
+
+        assertThat(socket.closed).isTrue();
+        assertThat(queue.size()).isZero();
+    }
+
+    @Test
+    void batch_messages_sent_in_same_tick(Vertx vertx, VertxTestContext testContext) {
+        final FakeSocket socket = new FakeSocket();
+        vertx.runOnContext(ignored -> {
+            final OutboundQueue queue = new OutboundQueue(vertx, socket.proxy(), OutboundQueue.Policy.DROP_OLDEST,
+                    10, 0);
+            queue.send(message("bob", "one"));
+            queue.send(message("bob", "two"));
+            testContext.verify(() -> assertThat(socket.rawFrames).isEmpty());
+            vertx.runOnContext(next -> testContext.verify(() -> {
+                assertThat(socket.rawFrames).hasSize(1);
+                assertThat(socket.frames).containsExactly("one", "two");
+                testContext.completeNow();
+            }));
+        });
+    }
+
+    private static Data message(String address, String text) {
+        final Data data = new Data();
+        data.setAddress(address);
+        data.setText(text);
+        return data;
+    }
+
+    private static class FakeSocket {
+        final List<String> rawFrames = new ArrayList<>();
+        // Texts of the written messages
+        final List<String> frames = new ArrayList<>();
+        boolean full;
+        boolean closed;
+        Handler<Void> drainHandler;
+
+        @SuppressWarnings("unchecked")
+        ServerWebSocket proxy() {
+            return (ServerWebSocket) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{ServerWebSocket.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "writeFinalTextFrame":
+                                write((String) args[0]);
+                                if (args.length > 1) {
+                                    ((Handler<AsyncResult<Void>>) args[1]).handle(Future.succeededFuture());
+                                }
+                                return proxy;
+                            case "writeQueueFull":
+                                return full;
+                            case "drainHandler":
+                                drainHandler = (Handler<Void>) args[0];
+                                return proxy;
+                            case "close":
+                                closed = true;
+                                return null;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        void write(String frame) {
+            rawFrames.add(frame);
+            if (frame.startsWith("[")) {
+                for (Object message : new JsonArray(frame)) {
+                    frames.add(Data.fromJson((JsonObject) message).getText());
+                }
+            } else {
+                frames.add(Data.decode(frame).getText());
+            }
+        }
+
+        void drain() {
+            full = false;
+            drainHandler.handle(null);
+        }
+    }
+}
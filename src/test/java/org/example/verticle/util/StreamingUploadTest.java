@@ -0,0 +1,58 @@
+package org.example.verticle.util;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(VertxExtension.class)
+public class StreamingUploadTest {
+
+    private final Path target = new File(System.getProperty("java.io.tmpdir"), "streaming-upload-test").toPath();
+
+    @AfterEach
+    void delete_target() throws IOException {
+        Files.deleteIfExists(target);
+    }
+
+    @Test
+    void hash_while_writing(Vertx vertx, VertxTestContext testContext) {
+        final String source = getPath("test-image.jpg");
+        final Buffer content = vertx.fileSystem().readFileBlocking(source);
+        vertx.fileSystem().open(source, new OpenOptions().setRead(true), testContext.succeeding(file ->
+                StreamingUpload.receive(vertx, file, target.toString(), 1024 * 1024,
+                        testContext.succeeding(result -> testContext.verify(() -> {
+                            assertThat(result.size()).isEqualTo(content.length());
+                            assertThat(result.sha256()).isEqualTo(
+                                    Hashes.toHex(Hashes.sha256().digest(content.getBytes())));
+                            assertThat(vertx.fileSystem().readFileBlocking(target.toString())).isEqualTo(content);
+                            testContext.completeNow();
+                        })))));
+    }
+
+    @Test
+    void delete_file_when_too_large(Vertx vertx, VertxTestContext testContext) {
+        vertx.fileSystem().open(getPath("test-image.jpg"), new OpenOptions().setRead(true),
+                testContext.succeeding(file -> StreamingUpload.receive(vertx, file, target.toString(), 1000,
+                        testContext.failing(cause -> testContext.verify(() -> {
+                            assertThat(cause).isInstanceOf(StreamingUpload.TooLargeException.class);
+                            assertThat(target).doesNotExist();
+                            testContext.completeNow();
+                        })))));
+    }
+
+    private String getPath(String resourcesFile) {
+        return new File(getClass().getClassLoader().getResource(resourcesFile).getFile()).getAbsolutePath();
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.verticle.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ThumbnailsTest {
+
+    private Path target;
+
+    @BeforeEach
+    void create_target() throws IOException {
+        target = Files.createTempFile("thumbnail", ".jpg");
+    }
+
+    @AfterEach
+    void delete_target() throws IOException {
+        Files.deleteIfExists(target);
+    }
+
+    @Test
+    void subsample_large_image() throws IOException {
+        // 600x600, decoded at every 9th pixel
+        Thumbnails.resize(getPath("test-image.jpg"), target.toString(), 32, 32, "image/jpeg", 1_000_000);
+
+        final BufferedImage image = ImageIO.read(target.toFile());
+        assertThat(image.getWidth()).isEqualTo(32);
+        assertThat(image.getHeight()).isEqualTo(32);
+    }
+
+    @Test
+    void refuse_image_over_pixel_limit() {
+        assertThatThrownBy(() -> Thumbnails.resize(getPath("test-image.jpg"), target.toString(), 32, 32,
+                "image/jpeg", 100_000))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("600x600");
+    }
+
+    private String getPath(String resourcesFile) {
+        return new File(getClass().getClassLoader().getResource(resourcesFile).getFile()).getAbsolutePath();
+    }
+}
@@ -0,0 +1,30 @@
+package org.example.verticle.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TokenBucketsTest {
+
+    @Test
+    void limit_each_key_to_burst() {
+        final TokenBuckets buckets = new TokenBuckets(1, 3);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(buckets.tryAcquire("alice")).isZero();
+        }
+        // About a second until the next token
+        assertThat(buckets.tryAcquire("alice")).isBetween(900L, 1000L);
+        assertThat(buckets.tryAcquire("bob")).isZero();
+    }
+
+    @Test
+    void refill_over_time() throws InterruptedException {
+        final TokenBuckets buckets = new TokenBuckets(100, 1);
+
+        assertThat(buckets.tryAcquire("alice")).isZero();
+        assertThat(buckets.tryAcquire("alice")).isPositive();
+        Thread.sleep(20);
+        assertThat(buckets.tryAcquire("alice")).isZero();
+    }
+}
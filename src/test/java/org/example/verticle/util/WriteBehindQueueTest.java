@@ -0,0 +1,95 @@
+package org.example.verticle.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.junit5.Checkpoint;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(VertxExtension.class)
+public class WriteBehindQueueTest {
+
+    @Test
+    void flush_on_batch_size(Vertx vertx, VertxTestContext testContext) {
+        final List<List<Integer>> batches = new ArrayList<>();
+        final WriteBehindQueue<Integer> queue = new WriteBehindQueue<>(vertx, "test_size", 3, 60_000, 10,
+                (batch, done) -> {
+                    batches.add(batch);
+                    done.handle(Future.succeededFuture());
+                });
+
+        vertx.runOnContext(ignored -> {
+            final Checkpoint flushed = testContext.checkpoint(3);
+            for (int i = 0; i < 3; i++) {
+                queue.offer(i, asyncResult -> flushed.flag());
+            }
+            testContext.verify(() -> assertThat(batches).containsExactly(Arrays.asList(0, 1, 2)));
+        });
+    }
+
+    @Test
+    void cap_batches_after_slow_write(Vertx vertx, VertxTestContext testContext) {
+        final List<List<Integer>> batches = new ArrayList<>();
+        final List<Handler<AsyncResult<Void>>> writes = new ArrayList<>();
+        final WriteBehindQueue<Integer> queue = new WriteBehindQueue<>(vertx, "test_cap", 2, 60_000, 10,
+                (batch, done) -> {
+                    batches.add(batch);
+                    writes.add(done);
+                });
+
+        vertx.runOnContext(ignored -> testContext.verify(() -> {
+            // The first batch stays in flight while five more items pile up
+            for (int i = 0; i < 7; i++) {
+                queue.offer(i, null);
+            }
+            writes.get(0).handle(Future.succeededFuture());
+            writes.get(1).handle(Future.succeededFuture());
+            writes.get(2).handle(Future.succeededFuture());
+            assertThat(batches).containsExactly(Arrays.asList(0, 1), Arrays.asList(2, 3), Arrays.asList(4, 5));
+            // Waits for the interval
+            assertThat(queue.size()).isEqualTo(1);
+            testContext.completeNow();
+        }));
+    }
+
+    @Test
+    void flush_on_interval(Vertx vertx, VertxTestContext testContext) {
+        final WriteBehindQueue<Integer> queue = new WriteBehindQueue<>(vertx, "test_interval", 100, 10, 1000,
+                (batch, done) -> {
+                    testContext.verify(() -> assertThat(batch).containsExactly(1, 2));
+                    done.handle(Future.succeededFuture());
+                    testContext.completeNow();
+                });
+
+        vertx.runOnContext(ignored -> {
+            queue.offer(1, null);
+            queue.offer(2, null);
+        });
+    }
+
+    @Test
+    void reject_when_full(Vertx vertx, VertxTestContext testContext) {
+        final WriteBehindQueue<Integer> queue = new WriteBehindQueue<>(vertx, "test_full", 2, 60_000, 2,
+                (batch, done) -> {
+                    // Never completes, so the batch stays in flight
+                });
+
+        vertx.runOnContext(ignored -> testContext.verify(() -> {
+            assertThat(queue.offer(1, null)).isTrue();
+            assertThat(queue.offer(2, null)).isTrue();
+            assertThat(queue.offer(3, null)).isFalse();
+            assertThat(queue.size()).isEqualTo(2);
+            testContext.completeNow();
+        }));
+    }
+}